@@ -10,8 +10,15 @@ import java.lang.reflect.Proxy;
 import java.io.Serializable;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import net.sf.cglib.proxy.Callback;
 import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
@@ -20,6 +27,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.jmeter.util.JMeterUtils;
 
+import com.jmibanez.tools.jmeter.util.RecordingFilter;
+
 
 public class DynamicStubProxyInvocationHandler
     implements InvocationHandler,
@@ -28,16 +37,22 @@ public class DynamicStubProxyInvocationHandler
 {
     private static final long serialVersionUID = -30090000L;
 
-    private int callIndex = 1;
-
     private InstanceRegistry instanceRegistry;
     private String instanceName;
     private Object stubInstance;
     private MethodRecorder recorder;
     ProxyObjectGraph graphVisitor;
+    private transient Map<Method, RecordingFilter.MethodFilter> methodFilters =
+        new ConcurrentHashMap<>();
 
     private static Log log = LogFactory.getLog(DynamicStubProxyInvocationHandler.class);
 
+    // Generated proxy classes, keyed by the stub's interfaces
+    private static final Map<List<Class<?>>, Constructor<?>> rootProxyConstructors =
+        new ConcurrentHashMap<>();
+    private static final Map<List<Class<?>>, Constructor<?>> childProxyConstructors =
+        new ConcurrentHashMap<>();
+
 
     public DynamicStubProxyInvocationHandler(InstanceRegistry instanceRegistry,
                                              Object stubInstance, String instanceName,
@@ -50,6 +65,51 @@ public class DynamicStubProxyInvocationHandler
                                                  recorder);
     }
 
+    /**
+     * Handler for a remote returned through <code>graphVisitor</code>;
+     * shares its registry, recorder, call sequence and proxied remote
+     * cache.
+     */
+    DynamicStubProxyInvocationHandler(ProxyObjectGraph graphVisitor,
+                                      Object stubInstance, String instanceName) {
+        this.instanceRegistry = graphVisitor.getInstanceRegistry();
+        this.stubInstance = stubInstance;
+        this.instanceName = instanceName;
+        this.recorder = graphVisitor.getRecorder();
+        this.graphVisitor = graphVisitor;
+    }
+
+    public boolean isForwardOriginalArguments() {
+        return graphVisitor.isForwardOriginalArguments();
+    }
+
+    /**
+     * If set, calls are forwarded to the real stub with the caller's
+     * own argument objects, instead of copies recreated from the
+     * recorded snapshot. This saves a deserialization per call, but
+     * the recorded arguments may then differ from what was sent if
+     * the arguments change while being marshalled. Applies to all
+     * remotes returned through this proxy.
+     */
+    public void setForwardOriginalArguments(boolean forwardOriginalArguments) {
+        graphVisitor.setForwardOriginalArguments(forwardOriginalArguments);
+    }
+
+    public RecordingFilter getRecordingFilter() {
+        return graphVisitor.getRecordingFilter();
+    }
+
+    /**
+     * Set which calls are recorded. Calls that aren't are passed
+     * straight to the real stub, without capturing arguments; remotes
+     * they return are not proxied, so calls on those aren't recorded
+     * either. Applies to all remotes returned through this proxy, and
+     * should be set before the proxy is used.
+     */
+    public void setRecordingFilter(RecordingFilter recordingFilter) {
+        graphVisitor.setRecordingFilter(recordingFilter);
+    }
+
     public Remote buildStubProxy(boolean isRoot)
         throws IllegalAccessException,
                InstantiationException,
@@ -61,21 +121,52 @@ public class DynamicStubProxyInvocationHandler
         }
 
         log.debug("Stub class: " + stub.getName());
-        Class<?>[] stubInterfaces = stub.getInterfaces();
+        List<Class<?>> stubInterfaces = Arrays.asList(stub.getInterfaces());
 
         if (isRoot) {
-            Class<?> stubProxyClass = Proxy.getProxyClass(getClass().getClassLoader(),
-                                                          stubInterfaces);
-            Constructor<?> spCons =
-                stubProxyClass.getConstructor(new Class<?>[] { InvocationHandler.class });
+            Constructor<?> spCons = rootProxyConstructors
+                .computeIfAbsent(stubInterfaces, DynamicStubProxyInvocationHandler::rootProxyConstructor);
             return (Remote) spCons.newInstance(new Object[] { this });
         }
         else {
-            Enhancer enhancer = new Enhancer();
-            enhancer.setSuperclass(UnicastRemoteObject.class);
-            enhancer.setInterfaces(stubInterfaces);
-            enhancer.setCallback(this);
-            return (Remote) enhancer.create();
+            Constructor<?> spCons = childProxyConstructors
+                .computeIfAbsent(stubInterfaces, DynamicStubProxyInvocationHandler::childProxyConstructor);
+            Class<?> spClass = spCons.getDeclaringClass();
+            // The generated constructor picks up callbacks registered
+            // for the current thread
+            Enhancer.registerCallbacks(spClass, new Callback[] { this });
+            try {
+                return (Remote) spCons.newInstance();
+            }
+            finally {
+                Enhancer.registerCallbacks(spClass, null);
+            }
+        }
+    }
+
+    private static Constructor<?> rootProxyConstructor(final List<Class<?>> interfaces) {
+        Class<?> stubProxyClass =
+            Proxy.getProxyClass(DynamicStubProxyInvocationHandler.class.getClassLoader(),
+                                interfaces.toArray(new Class<?>[interfaces.size()]));
+        try {
+            return stubProxyClass.getConstructor(new Class<?>[] { InvocationHandler.class });
+        }
+        catch(NoSuchMethodException noCons) {
+            throw new IllegalStateException(noCons);
+        }
+    }
+
+    private static Constructor<?> childProxyConstructor(final List<Class<?>> interfaces) {
+        Enhancer enhancer = new Enhancer();
+        enhancer.setSuperclass(UnicastRemoteObject.class);
+        enhancer.setInterfaces(interfaces.toArray(new Class<?>[interfaces.size()]));
+        enhancer.setCallbackType(MethodInterceptor.class);
+        Class<?> spClass = enhancer.createClass();
+        try {
+            return spClass.getConstructor();
+        }
+        catch(NoSuchMethodException noCons) {
+            throw new IllegalStateException(noCons);
         }
     }
 
@@ -106,17 +197,71 @@ public class DynamicStubProxyInvocationHandler
         return this.recordMethodCall(instance, m, args, null);
     }
 
+    private boolean shouldRecord(Method m) {
+        RecordingFilter filter = graphVisitor.getRecordingFilter();
+        if (filter.isRecordingAll()) {
+            return true;
+        }
+        if (methodFilters == null) {
+            methodFilters = new ConcurrentHashMap<>();
+        }
+        RecordingFilter.MethodFilter methodFilter = methodFilters.get(m);
+        if (methodFilter == null) {
+            String mangledName = MethodCallRecord.constructMethodName(m.getName(),
+                                                                      m.getParameterTypes())[0];
+            methodFilter = filter.forMethod(instanceName, mangledName);
+            methodFilters.put(m, methodFilter);
+        }
+        return methodFilter.shouldRecord();
+    }
+
+    private Object invokeStub(Method m, Object[] args, MethodProxy methodProxy)
+        throws Throwable {
+        if (methodProxy != null) {
+            return methodProxy.invoke(stubInstance, args);
+        }
+        try {
+            return m.invoke(stubInstance, args);
+        }
+        catch(InvocationTargetException invokEx) {
+            throw invokEx.getCause();
+        }
+    }
+
+    /**
+     * @return the host of the client making the call being handled,
+     * or null if it didn't come in through RMI. RMI reuses and pools
+     * its connections across clients and threads, so the host is the
+     * only stable identity it offers: clients on the same host are
+     * recorded as one.
+     */
+    static String currentClient() {
+        try {
+            return RemoteServer.getClientHost();
+        }
+        catch (ServerNotActiveException notRemote) {
+            return null;
+        }
+    }
+
     private Object recordMethodCall(Object instance, Method m, Object[] args,
                                     MethodProxy methodProxy)
         throws Throwable {
+        if (!shouldRecord(m)) {
+            return invokeStub(m, args, methodProxy);
+        }
+
         log.debug("Calling method " + m.getName());
-        MethodCallRecord r = new MethodCallRecord(callIndex++, instanceName, m,
-                                                  args);
+        MethodCallRecord r = new MethodCallRecord(graphVisitor.nextCallIndex(),
+                                                  instanceName, m, args);
+        r.setClient(currentClient());
         log.debug("Record created");
 
         // Classes might suddenly change state under us when we pack
-        // args; recreate them from scratch
-        args = r.recreateArguments();
+        // args; recreate them from scratch unless asked not to
+        if (!graphVisitor.isForwardOriginalArguments()) {
+            args = r.recreateArguments();
+        }
         try {
             Object returnValue = null;
             if (methodProxy != null) {
@@ -131,7 +276,6 @@ public class DynamicStubProxyInvocationHandler
             r.returned(returnValue);
 
             returnValue = graphVisitor.replaceRemotes(returnValue, r);
-            r.setRemotePathsInReturn(graphVisitor.getAndClearRemoteInstanceHandles());
             return returnValue;
         }
         catch(InvocationTargetException invokEx) {
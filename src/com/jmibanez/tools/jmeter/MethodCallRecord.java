@@ -6,6 +6,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import static com.jmibanez.tools.jmeter.util.ArgumentsUtil.packArgs;
@@ -18,6 +19,14 @@ public class MethodCallRecord
 
     private static final long serialVersionUID = -30090001L;
 
+    private static final String CALL_HEADER = "CALL";
+    // Adds the target, call index, argument types and returned remotes
+    private static final String CALL_HEADER_V2 = "CALL2";
+    // Adds the call's start time and duration
+    private static final String CALL_HEADER_V3 = "CALL3";
+    // Adds the client
+    private static final String CALL_HEADER_V4 = "CALL4";
+
     private int index;
     private String target;
     private String method;
@@ -29,6 +38,11 @@ public class MethodCallRecord
     private Object returnValue;
     private Throwable returnException;
     private boolean isException = false;
+    private long startTime;
+    private long durationNanos;
+    private String client;
+
+    private transient long startNanos;
 
     private transient boolean isRemoteReturned = false;
     private transient Map<String, String> remotePathsInReturn = Collections.emptyMap();
@@ -38,6 +52,8 @@ public class MethodCallRecord
 
     public MethodCallRecord(final int index, final String target, final Method m,
                             final Object[] args) {
+        this.startTime = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
         this.index = index;
         this.target = target;
         this.argTypes = m.getParameterTypes();
@@ -45,8 +61,9 @@ public class MethodCallRecord
         String[] builtNames = constructMethodName(m.getName(), this.argTypes);
         this.mangledMethodName = builtNames[0];
         this.mangledArgs = builtNames[1];
-        this.args = args;
-        this.argsPacked = packArgs(this.args);
+        // Only the serialized snapshot is kept; argument objects are
+        // recreated from it on demand
+        this.argsPacked = packArgs(args);
     }
 
     public int getIndex() {
@@ -69,12 +86,51 @@ public class MethodCallRecord
         return mangledArgs;
     }
 
-    public Object[] recreateArguments() {
+    /**
+     * @return when the call was made, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return when the call returned or threw, in milliseconds since
+     * the epoch
+     */
+    public long getEndTime() {
+        return startTime + durationNanos / 1000000L;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return the serialized snapshot of the arguments; not a copy, so
+     * don't modify it
+     */
+    public byte[] getPackedArguments() {
+        return argsPacked;
+    }
+
+    /**
+     * Recreate the arguments from the snapshot taken when the call was
+     * made. The recreated arguments are also what {@link
+     * #getArguments()} returns from then on.
+     */
+    public synchronized Object[] recreateArguments() {
         this.args = unpackArgs(this.argsPacked);
         return args;
     }
 
-    public Object[] getArguments() {
+    /**
+     * @return the arguments as they were when the call was made,
+     * deserialized from the snapshot on first use
+     */
+    public synchronized Object[] getArguments() {
+        if (args == null && argsPacked != null) {
+            args = unpackArgs(argsPacked);
+        }
         return args;
     }
 
@@ -83,10 +139,12 @@ public class MethodCallRecord
     }
 
     public void returned(Object returnValue) {
+        this.durationNanos = System.nanoTime() - startNanos;
         this.returnValue = returnValue;
     }
 
     public void thrown(Throwable t) {
+        this.durationNanos = System.nanoTime() - startNanos;
         this.returnValue = t;
         this.isException = true;
     }
@@ -124,6 +182,17 @@ public class MethodCallRecord
         return remotePathsInReturn;
     }
 
+    /**
+     * @return the client that made the call, or null if not known
+     */
+    public String getClient() {
+        return client;
+    }
+
+    public void setClient(final String client) {
+        this.client = client;
+    }
+
     public static String[] constructMethodName(String methodName, Class<?>[] argTypes) {
         StringBuilder full = new StringBuilder();
         StringBuilder args = new StringBuilder();
@@ -148,9 +217,17 @@ public class MethodCallRecord
     private void writeObject(ObjectOutputStream out)
         throws IOException {
         // Custom format, to allow packed argument values
-        out.writeUTF("CALL");
+        out.writeUTF(CALL_HEADER_V4);
 
+        out.writeInt(index);
+        out.writeLong(startTime);
+        out.writeLong(durationNanos);
+        out.writeObject(client);
+        out.writeObject(target);
         out.writeUTF(method);
+        out.writeObject(argTypes);
+        out.writeObject(mangledMethodName);
+        out.writeObject(mangledArgs);
 
         out.writeInt(argsPacked.length);
         out.write(argsPacked);
@@ -159,23 +236,46 @@ public class MethodCallRecord
 
         out.writeBoolean(isException);
         out.writeObject(returnValue);
+        out.writeBoolean(isRemoteReturned);
+        out.writeObject(new HashMap<String, String>(remotePathsInReturn));
 
         out.writeUTF("END");
     }
 
+    @SuppressWarnings("unchecked")
     private void readObject(ObjectInputStream in)
         throws IOException, ClassNotFoundException {
         // Custom format, to allow packed argument values
         String head = in.readUTF();
-        if(!"CALL".equals(head)) {
+        boolean clientRecord = CALL_HEADER_V4.equals(head);
+        boolean timedRecord = clientRecord || CALL_HEADER_V3.equals(head);
+        boolean fullRecord = timedRecord || CALL_HEADER_V2.equals(head);
+        if(!fullRecord && !CALL_HEADER.equals(head)) {
             throw new IllegalStateException("Invalid state in input stream: Object header not found");
         }
 
-        method = in.readUTF();
+        if(fullRecord) {
+            index = in.readInt();
+            if(timedRecord) {
+                startTime = in.readLong();
+                durationNanos = in.readLong();
+            }
+            if(clientRecord) {
+                client = (String) in.readObject();
+            }
+            target = (String) in.readObject();
+            method = in.readUTF();
+            argTypes = (Class<?>[]) in.readObject();
+            mangledMethodName = (String) in.readObject();
+            mangledArgs = (String) in.readObject();
+        }
+        else {
+            method = in.readUTF();
+        }
 
         int packLen = in.readInt();
         argsPacked = new byte[packLen];
-        in.read(argsPacked, 0, packLen);
+        in.readFully(argsPacked);
 
         String ret = in.readUTF();
         if(!"RETURN".equals(ret)) {
@@ -184,13 +284,17 @@ public class MethodCallRecord
 
         isException = in.readBoolean();
         returnValue = in.readObject();
+        if(fullRecord) {
+            isRemoteReturned = in.readBoolean();
+            remotePathsInReturn = (Map<String, String>) in.readObject();
+        }
+        else {
+            remotePathsInReturn = Collections.emptyMap();
+        }
 
         String eof = in.readUTF();
         if(!"END".equals(eof)) {
             throw new IllegalStateException("Invalid state in input stream: End of stream not found");
         }
-
-        this.args = unpackArgs(this.argsPacked);
     }
 }
-
@@ -1,9 +1,12 @@
 package com.jmibanez.tools.jmeter;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
@@ -26,9 +29,12 @@ import java.rmi.registry.Registry;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.jmibanez.tools.jmeter.impl.FlightRecorder;
 import com.jmibanez.tools.jmeter.impl.SimpleLoggingMethodRecorder;
 import com.jmibanez.tools.jmeter.impl.NullMethodRecorder;
+import com.jmibanez.tools.jmeter.util.RecordingFilter;
 import java.rmi.server.UnicastRemoteObject;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,6 +59,8 @@ public class NativeRmiProxy
     private String proxyObjectName;
 
     private String bindingScript;
+    private boolean forwardOriginalArguments;
+    private RecordingFilter recordingFilter = RecordingFilter.RECORD_ALL;
 
     private Object stubInstance;
     private Remote proxy;
@@ -61,13 +69,17 @@ public class NativeRmiProxy
     private Registry registry;
     private int namingPort;
     private int serverPort;
+    private int controlPort;
 
+    private ServerSocket controlSocket;
+    private FlightRecorder flightRecorder;
     private volatile boolean stillRunning;
     private static Log log = LogFactory.getLog(NativeRmiProxy.class);
 
     private MethodRecorder recorder;
 
-    private Map<String, Remote> instanceRegistry;
+    private final Map<String, Remote> instanceRegistry = new ConcurrentHashMap<>();
+    private volatile Remote rootInstance;
 
     /**
      * Creates a new <code>NativeRmiProxy</code> instance.
@@ -98,6 +110,30 @@ public class NativeRmiProxy
         this.namingPort = namingPort;
     }
 
+    public int getControlPort() {
+        return controlPort;
+    }
+
+    /**
+     * @param controlPort local port to take commands on (see {@link
+     * #readSocketCommand}); 0 for none
+     */
+    public void setControlPort(int controlPort) {
+        this.controlPort = controlPort;
+    }
+
+    public FlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    /**
+     * @param flightRecorder dumped by the <code>DUMP</code> command;
+     * may be null
+     */
+    public void setFlightRecorder(FlightRecorder flightRecorder) {
+        this.flightRecorder = flightRecorder;
+    }
+
     public String getBindingScript() {
         return bindingScript;
     }
@@ -106,6 +142,22 @@ public class NativeRmiProxy
         this.bindingScript = bindingScript;
     }
 
+    public boolean isForwardOriginalArguments() {
+        return forwardOriginalArguments;
+    }
+
+    public void setForwardOriginalArguments(boolean forwardOriginalArguments) {
+        this.forwardOriginalArguments = forwardOriginalArguments;
+    }
+
+    public RecordingFilter getRecordingFilter() {
+        return recordingFilter;
+    }
+
+    public void setRecordingFilter(RecordingFilter recordingFilter) {
+        this.recordingFilter = recordingFilter;
+    }
+
     public MethodRecorder getMethodRecorder() {
         return recorder;
     }
@@ -155,8 +207,9 @@ public class NativeRmiProxy
 
 
     private void setupProxy() {
-        // Create instance registry
-        instanceRegistry = new HashMap<String, Remote>();
+        // Reset instance registry
+        instanceRegistry.clear();
+        rootInstance = null;
 
         try {
             // Create naming registry
@@ -175,6 +228,8 @@ public class NativeRmiProxy
             // Build dynamic stub proxy
             handler = new DynamicStubProxyInvocationHandler(this, stubInstance,
                                                             null, r);
+            handler.setForwardOriginalArguments(forwardOriginalArguments);
+            handler.setRecordingFilter(recordingFilter);
             proxy = handler.buildStubProxy(true);
             this.registerRootRmiInstance(proxy);
 
@@ -203,35 +258,96 @@ public class NativeRmiProxy
         }
     }
 
-    private void readSocketCommand(ServerSocket eventSocket) {
+    private synchronized void startControlSocket() {
+        if (controlPort <= 0) {
+            return;
+        }
         try {
-            Socket sock = eventSocket.accept();
+            // Only local clients may send commands
+            controlSocket = new ServerSocket(controlPort, 5, InetAddress.getLoopbackAddress());
+        }
+        catch(IOException ioEx) {
+            log.error("Couldn't open control socket on port " + controlPort, ioEx);
+            return;
+        }
+        stillRunning = true;
+        final ServerSocket commands = controlSocket;
+        Thread listener = new Thread(new Runnable() {
+                public void run() {
+                    while (stillRunning) {
+                        readSocketCommand(commands);
+                    }
+                    closeControlSocket();
+                }
+            }, "RMI proxy control socket");
+        listener.setDaemon(true);
+        listener.start();
+        log.info("Taking commands on port " + controlPort);
+    }
+
+    private synchronized void closeControlSocket() {
+        stillRunning = false;
+        if (controlSocket != null) {
+            try {
+                controlSocket.close();
+            }
+            catch(IOException ignored) {
+            }
+            controlSocket = null;
+        }
+    }
+
+    /**
+     * Take one command line from the control socket, and answer it
+     * with one line: <code>EXIT</code> stops taking commands, and
+     * <code>DUMP [reason]</code> dumps the flight recorder and
+     * answers with the journal written.
+     */
+    private void readSocketCommand(ServerSocket eventSocket) {
+        try (Socket sock = eventSocket.accept()) {
             InputStream sock_inp = sock.getInputStream();
             InputStreamReader sock_rdr = new InputStreamReader(sock_inp, "UTF-8");
             BufferedReader sock_brdr = new BufferedReader(sock_rdr);
+            Writer sock_out = new OutputStreamWriter(sock.getOutputStream(), "UTF-8");
 
             String cmd = sock_brdr.readLine();
             if(cmd != null) {
-                sock.close();
-
-                String[] args = cmd.split(" ");
+                String[] args = cmd.trim().split(" ", 2);
                 String verb = args[0].toUpperCase().trim();
 
                 if(verb.equals("EXIT")) {
-                    if(args.length > 1) {
-                        stillRunning = false;
-                    } else {
-                        stillRunning = false;
-                    }
+                    stillRunning = false;
                     log.info("DAEMON IS STOPPING...");
+                    sock_out.write("OK\n");
                 }
+                else if(verb.equals("DUMP")) {
+                    sock_out.write(dumpFlightRecorder(args.length > 1 ? args[1] : "requested") + "\n");
+                }
+                else {
+                    sock_out.write("ERROR Unknown command " + verb + "\n");
+                }
+                sock_out.flush();
             } else {
-                // XXX: DO SOMETHING HERE
                 log.error("No command read from daemon socket");
             }
         } catch(IOException ex) {
-            // FIXME: Needs implementation, possibly retry the accept() call?
-            log.error("IOException: " + ex.getMessage());
+            if (stillRunning) {
+                log.error("IOException: " + ex.getMessage());
+            }
+        }
+    }
+
+    private String dumpFlightRecorder(String reason) {
+        FlightRecorder fr = flightRecorder;
+        if (fr == null) {
+            return "ERROR No flight recorder";
+        }
+        try {
+            return "OK " + fr.dump(reason).getAbsolutePath();
+        }
+        catch(IOException | RuntimeException dumpEx) {
+            log.error("Couldn't dump flight recorder", dumpEx);
+            return "ERROR " + dumpEx.getMessage();
         }
     }
 
@@ -252,14 +368,25 @@ public class NativeRmiProxy
     public void start() {
         log.info("Setting up proxy");
         setupProxy();
+        startControlSocket();
     }
 
     public void stop() {
+        closeControlSocket();
         try {
             unregisterProxy();
         } catch (Exception e) {
             log.warn("Exception unregistering proxy:", e);
         }
+
+        // Let queued recorders finish delivering
+        if (recorder instanceof Closeable) {
+            try {
+                ((Closeable) recorder).close();
+            } catch (IOException e) {
+                log.warn("Exception closing recorder:", e);
+            }
+        }
     }
 
     public static void main(String[] args) {
@@ -271,20 +398,28 @@ public class NativeRmiProxy
     @Override
     public final void registerRootRmiInstance(final Remote instance)
         throws RemoteException {
-        instanceRegistry.put(null, instance);
+        rootInstance = instance;
     }
 
     @Override
     public final String registerRmiInstance(final String handle,
                                             final Remote instance)
         throws RemoteException {
-        instanceRegistry.put(handle, instance);
+        if (handle == null) {
+            rootInstance = instance;
+        }
+        else {
+            instanceRegistry.put(handle, instance);
+        }
         return handle;
     }
 
     @Override
     public final Remote getTarget(final String handle)
         throws RemoteException {
+        if (handle == null) {
+            return rootInstance;
+        }
         return instanceRegistry.get(handle);
     }
 }
@@ -8,22 +8,42 @@
 package com.jmibanez.tools.jmeter;
 
 import org.apache.jmeter.control.GenericController;
+import org.apache.jmeter.control.gui.LogicControllerGui;
 import org.apache.jmeter.gui.tree.JMeterTreeNode;
 import org.apache.jmeter.protocol.http.control.RecordingController;
 import org.apache.jmeter.testelement.WorkBench;
 import org.apache.jmeter.gui.tree.JMeterTreeModel;
 import org.apache.jmeter.gui.GuiPackage;
+import org.apache.jmeter.gui.JMeterGUIComponent;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.jmeter.exceptions.IllegalUserActionException;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jmeter.testelement.property.StringProperty;
 import org.apache.jmeter.testelement.property.IntegerProperty;
+import org.apache.jmeter.testelement.property.BooleanProperty;
 import com.jmibanez.tools.jmeter.gui.NativeRmiProxyControllerGui;
+import com.jmibanez.tools.jmeter.impl.AsyncMethodRecorder;
+import com.jmibanez.tools.jmeter.impl.FlightRecorder;
+import com.jmibanez.tools.jmeter.impl.JournalMethodRecorder;
+import com.jmibanez.tools.jmeter.impl.NullMethodRecorder;
+import com.jmibanez.tools.jmeter.journal.JournalWriter;
 import com.jmibanez.tools.jmeter.impl.RmiSamplerGeneratorMethodRecorder;
-import org.apache.jmeter.extractor.BeanShellPostProcessor;
 import org.apache.jmeter.testelement.TestElement;
 import org.apache.jmeter.modifiers.BeanShellPreProcessor;
 import org.apache.jmeter.modifiers.BeanShellPreProcessorBeanInfo;
@@ -37,6 +57,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Array;
 import java.util.Collection;
+import com.jmibanez.tools.jmeter.util.RecordingFilter;
 import com.jmibanez.tools.jmeter.util.ScriptletGenerator;
 
 /**
@@ -60,11 +81,43 @@ public class NativeRmiProxyController extends GenericController {
 
     public static final String BINDING_SCRIPT = "RmiProxy.binding_script";
 
+    public static final String FORWARD_ORIGINAL_ARGUMENTS = "RmiProxy.forward_original_arguments";
+
+    public static final String RECORDING_INCLUDES = "RmiProxy.recording_includes";
+    public static final String RECORDING_EXCLUDES = "RmiProxy.recording_excludes";
+    public static final String RECORDING_SAMPLING = "RmiProxy.recording_sampling";
+
+    public static final String JOURNAL_DIRECTORY = "RmiProxy.journal_directory";
+    public static final String GENERATE_SAMPLERS = "RmiProxy.generate_samplers";
+    public static final String ADD_THINK_TIMERS = "RmiProxy.add_think_timers";
+    public static final String GROUP_BY_CLIENT = "RmiProxy.group_by_client";
+
+    public static final String RECORDING_QUEUE_SIZE = "RmiProxy.recording_queue_size";
+    public static final String RECORDING_OVERFLOW_POLICY = "RmiProxy.recording_overflow_policy";
+
+    public static final String FLIGHT_RECORDER_SIZE = "RmiProxy.flight_recorder_size";
+    public static final String FLIGHT_RECORDER_LATENCY_TRIGGER = "RmiProxy.flight_recorder_latency_trigger";
+    public static final String FLIGHT_RECORDER_ERROR_TRIGGER = "RmiProxy.flight_recorder_error_trigger";
+    public static final String CONTROL_PORT = "RmiProxy.control_port";
+
+    // A direct buffer can't be larger
+    public static final int MAX_FLIGHT_RECORDER_SIZE = 2047;
+
     private static Log log = LogFactory.getLog(NativeRmiProxyController.class);
 
+    private static final int MAX_BATCH_SIZE = 500;
+
     private JMeterTreeNode target;
+    private transient JMeterTreeNode resolvedTarget;
+
+    private final transient Queue<PendingSampler> pendingSamplers = new ConcurrentLinkedQueue<>();
+    private final transient AtomicBoolean flushScheduled = new AtomicBoolean();
+    // Controllers holding each client's samplers, if grouped by client
+    private final transient Map<String, JMeterTreeNode> clientNodes = new ConcurrentHashMap<>();
+    private transient volatile boolean groupingByClient;
 
     private NativeRmiProxy proxy;
+    private AsyncMethodRecorder recordingQueue;
 
     /**
      * Creates a new <code>NativeRmiProxyController</code> instance.
@@ -74,14 +127,60 @@ public class NativeRmiProxyController extends GenericController {
     }
 
 
-    public synchronized void deliverSampler(RMISampler s, BeanShellPostProcessor p,
-                                            MethodCallRecord record) {
-        JMeterTreeNode myTarget = findTargetControllerNode();
-        TestElement[] children = null;
-        if (p != null) {
-            children = new TestElement[]{ p };
+    /**
+     * Queue a recorded sampler for insertion into the test plan.
+     * Samplers are added in batches on the Swing event thread.
+     *
+     * @param children elements to add under the sampler; null
+     * elements are skipped
+     */
+    public void deliverSampler(RMISampler s, MethodCallRecord record,
+                               TestElement... children) {
+        List<TestElement> subConfigs = new ArrayList<>(children.length);
+        for (TestElement child: children) {
+            if (child != null) {
+                subConfigs.add(child);
+            }
+        }
+        String client = groupingByClient ? record.getClient() : null;
+        pendingSamplers.add(new PendingSampler(s, client,
+                                               subConfigs.toArray(new TestElement[subConfigs.size()])));
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        flushPendingSamplers();
+                    }
+                });
         }
-        placeSampler(s, children, myTarget, record);
+    }
+
+    private void flushPendingSamplers() {
+        flushScheduled.set(false);
+
+        List<PendingSampler> batch = new ArrayList<>();
+        PendingSampler pending;
+        while (batch.size() < MAX_BATCH_SIZE
+               && (pending = pendingSamplers.poll()) != null) {
+            batch.add(pending);
+        }
+        if (!pendingSamplers.isEmpty() && flushScheduled.compareAndSet(false, true)) {
+            // Leave the event thread to repaint between batches
+            SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        flushPendingSamplers();
+                    }
+                });
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        JMeterTreeNode myTarget = resolveTargetNode();
+        if (myTarget == null) {
+            log.error("No recording target, dropping " + batch.size() + " samplers");
+            return;
+        }
+        placeSamplers(batch, myTarget);
     }
 
 
@@ -125,6 +224,162 @@ public class NativeRmiProxyController extends GenericController {
         setProperty(new StringProperty(BINDING_SCRIPT, script));
     }
 
+    public boolean isForwardOriginalArguments() {
+        return getPropertyAsBoolean(FORWARD_ORIGINAL_ARGUMENTS, false);
+    }
+
+    public void setForwardOriginalArguments(boolean forward) {
+        setProperty(new BooleanProperty(FORWARD_ORIGINAL_ARGUMENTS, forward));
+    }
+
+    public String getRecordingIncludes() {
+        return getPropertyAsString(RECORDING_INCLUDES);
+    }
+
+    public void setRecordingIncludes(String rules) {
+        setProperty(new StringProperty(RECORDING_INCLUDES, rules));
+    }
+
+    public String getRecordingExcludes() {
+        return getPropertyAsString(RECORDING_EXCLUDES);
+    }
+
+    public void setRecordingExcludes(String rules) {
+        setProperty(new StringProperty(RECORDING_EXCLUDES, rules));
+    }
+
+    public String getRecordingSampling() {
+        return getPropertyAsString(RECORDING_SAMPLING);
+    }
+
+    public void setRecordingSampling(String rules) {
+        setProperty(new StringProperty(RECORDING_SAMPLING, rules));
+    }
+
+    /**
+     * @see RecordingFilter
+     * @throws IllegalArgumentException if a rule can't be parsed
+     */
+    public RecordingFilter getRecordingFilter() {
+        return new RecordingFilter(getRecordingIncludes(), getRecordingExcludes(),
+                                   getRecordingSampling());
+    }
+
+    /**
+     * @return the directory under which each recording session's
+     * journal is written, or an empty string to not keep a journal
+     */
+    public String getJournalDirectory() {
+        return getPropertyAsString(JOURNAL_DIRECTORY);
+    }
+
+    public void setJournalDirectory(String directory) {
+        setProperty(new StringProperty(JOURNAL_DIRECTORY, directory));
+    }
+
+    public boolean isGenerateSamplers() {
+        return getPropertyAsBoolean(GENERATE_SAMPLERS, true);
+    }
+
+    public void setGenerateSamplers(boolean generate) {
+        setProperty(new BooleanProperty(GENERATE_SAMPLERS, generate));
+    }
+
+    public boolean isAddThinkTimers() {
+        return getPropertyAsBoolean(ADD_THINK_TIMERS, false);
+    }
+
+    public void setAddThinkTimers(boolean add) {
+        setProperty(new BooleanProperty(ADD_THINK_TIMERS, add));
+    }
+
+    /**
+     * @return whether samplers are placed under a controller for the
+     * client that made the call, rather than interleaved
+     */
+    public boolean isGroupByClient() {
+        return getPropertyAsBoolean(GROUP_BY_CLIENT, false);
+    }
+
+    public void setGroupByClient(boolean group) {
+        setProperty(new BooleanProperty(GROUP_BY_CLIENT, group));
+    }
+
+    public int getRecordingQueueSize() {
+        return getPropertyAsInt(RECORDING_QUEUE_SIZE, AsyncMethodRecorder.DEFAULT_QUEUE_SIZE);
+    }
+
+    public void setRecordingQueueSize(int size) {
+        setProperty(new IntegerProperty(RECORDING_QUEUE_SIZE, size));
+    }
+
+    public AsyncMethodRecorder.OverflowPolicy getRecordingOverflowPolicy() {
+        return AsyncMethodRecorder.OverflowPolicy
+            .fromString(getPropertyAsString(RECORDING_OVERFLOW_POLICY));
+    }
+
+    public void setRecordingOverflowPolicy(AsyncMethodRecorder.OverflowPolicy policy) {
+        setProperty(new StringProperty(RECORDING_OVERFLOW_POLICY, policy.name()));
+    }
+
+    /**
+     * @return the number of recorded calls waiting to be turned into
+     * samplers, or 0 if the proxy isn't running
+     */
+    public long getRecordingQueueDepth() {
+        AsyncMethodRecorder q = recordingQueue;
+        return q == null ? 0 : q.getQueueDepth() + q.getSpillDepth();
+    }
+
+    /**
+     * @return the number of recorded calls dropped because the
+     * recording queue was full
+     */
+    public long getRecordingDropCount() {
+        AsyncMethodRecorder q = recordingQueue;
+        return q == null ? 0 : q.getDroppedCount();
+    }
+
+    /**
+     * @return size of the flight recorder buffer in MB, or 0 to record
+     * every call
+     */
+    public int getFlightRecorderSize() {
+        return getPropertyAsInt(FLIGHT_RECORDER_SIZE, 0);
+    }
+
+    public void setFlightRecorderSize(int megabytes) {
+        setProperty(new IntegerProperty(FLIGHT_RECORDER_SIZE, megabytes));
+    }
+
+    /**
+     * @return the call duration (ms) that dumps the flight recorder,
+     * or 0 for none
+     */
+    public int getFlightRecorderLatencyTrigger() {
+        return getPropertyAsInt(FLIGHT_RECORDER_LATENCY_TRIGGER, 0);
+    }
+
+    public void setFlightRecorderLatencyTrigger(int millis) {
+        setProperty(new IntegerProperty(FLIGHT_RECORDER_LATENCY_TRIGGER, millis));
+    }
+
+    public boolean isFlightRecorderErrorTrigger() {
+        return getPropertyAsBoolean(FLIGHT_RECORDER_ERROR_TRIGGER, false);
+    }
+
+    public void setFlightRecorderErrorTrigger(boolean trigger) {
+        setProperty(new BooleanProperty(FLIGHT_RECORDER_ERROR_TRIGGER, trigger));
+    }
+
+    public int getControlPort() {
+        return getPropertyAsInt(CONTROL_PORT, 0);
+    }
+
+    public void setControlPort(int port) {
+        setProperty(new IntegerProperty(CONTROL_PORT, port));
+    }
+
     public String getSamplerNameFormat() {
         String samplerNameFormat = getPropertyAsString(SAMPLER_NAME_FORMAT);
         if (samplerNameFormat == null || "".equals(samplerNameFormat)) {
@@ -144,6 +399,23 @@ public class NativeRmiProxyController extends GenericController {
 
     public void setTarget(JMeterTreeNode target) {
         this.target = target;
+        this.resolvedTarget = null;
+    }
+
+    /**
+     * The target node is looked up once, and again only if it has
+     * since been removed from the tree or disabled.
+     */
+    private JMeterTreeNode resolveTargetNode() {
+        JMeterTreeNode myTarget = resolvedTarget;
+        JMeterTreeModel treeModel = GuiPackage.getInstance().getTreeModel();
+        if (myTarget == null
+            || !myTarget.isEnabled()
+            || myTarget.getRoot() != treeModel.getRoot()) {
+            myTarget = findTargetControllerNode();
+            resolvedTarget = myTarget;
+        }
+        return myTarget;
     }
 
     private JMeterTreeNode findFirstNodeOfType(Class<?> type) {
@@ -180,31 +452,86 @@ public class NativeRmiProxyController extends GenericController {
         return null;
     }
 
-    private void placeSampler(RMISampler sampler, TestElement[] subConfigs,
-                              JMeterTreeNode myTarget, MethodCallRecord record) {
-        try {
-            JMeterTreeModel treeModel = GuiPackage.getInstance().getTreeModel();
-
-            boolean firstInBatch = false;
-            long now = System.currentTimeMillis();
-            // long deltaT = now - lastTime;
+    /**
+     * Add all samplers in <code>batch</code> (and their sub-elements)
+     * under <code>myTarget</code>, or the controller for their client,
+     * notifying the tree model once per parent.
+     */
+    private void placeSamplers(List<PendingSampler> batch, JMeterTreeNode myTarget) {
+        GuiPackage guiPackage = GuiPackage.getInstance();
+        JMeterTreeModel treeModel = guiPackage.getTreeModel();
+        guiPackage.updateCurrentNode();
+
+        Map<JMeterTreeNode, List<Integer>> inserted = new LinkedHashMap<>();
+        // Client controllers added in this batch; their children are
+        // part of their own insertion
+        Set<JMeterTreeNode> added = new HashSet<>();
+        for (PendingSampler pending: batch) {
+            JMeterTreeNode parent = myTarget;
+            if (pending.client != null) {
+                parent = clientNodes.get(pending.client);
+                if (parent == null || parent.getParent() != myTarget) {
+                    parent = createNode(createClientController(pending.client), treeModel, guiPackage);
+                    addNode(myTarget, parent, inserted, added);
+                    added.add(parent);
+                    clientNodes.put(pending.client, parent);
+                }
+            }
 
-            // if(deltaT > sampleGap) {
-            // }
+            JMeterTreeNode newNode = createNode(pending.sampler, treeModel, guiPackage);
+            for (int j = 0; pending.subConfigs != null && j < pending.subConfigs.length; j++) {
+                newNode.add(createNode(pending.subConfigs[j], treeModel, guiPackage));
+            }
+            addNode(parent, newNode, inserted, added);
+        }
+        for (Map.Entry<JMeterTreeNode, List<Integer>> e: inserted.entrySet()) {
+            List<Integer> indexes = e.getValue();
+            int[] childIndexes = new int[indexes.size()];
+            for (int i = 0; i < childIndexes.length; i++) {
+                childIndexes[i] = indexes.get(i);
+            }
+            treeModel.nodesWereInserted(e.getKey(), childIndexes);
+        }
 
-            // if(lastTime = 0) {
-            //     deltaT = 0;
-            // }
-            // lastTime = now;
+        // Put the current GUI back the way it was
+        guiPackage.getCurrentGui();
+    }
 
-            JMeterTreeNode newNode = treeModel.addComponent(sampler, myTarget);
-            for (int i = 0; subConfigs != null && i < subConfigs.length; i++) {
-                treeModel.addComponent(subConfigs[i], newNode);
+    private static void addNode(JMeterTreeNode parent, JMeterTreeNode child,
+                                Map<JMeterTreeNode, List<Integer>> inserted,
+                                Set<JMeterTreeNode> added) {
+        if (!added.contains(parent)) {
+            List<Integer> indexes = inserted.get(parent);
+            if (indexes == null) {
+                indexes = new ArrayList<>();
+                inserted.put(parent, indexes);
             }
-
-        } catch (IllegalUserActionException e) {
-            JMeterUtils.reportErrorToUser(e.getMessage());
+            indexes.add(parent.getChildCount());
         }
+        parent.add(child);
+    }
+
+    private static GenericController createClientController(String client) {
+        GenericController c = new GenericController();
+        c.setProperty(TestElement.TEST_CLASS, GenericController.class.getName());
+        c.setProperty(TestElement.GUI_CLASS, LogicControllerGui.class.getName());
+        c.setName("Client " + client);
+        return c;
+    }
+
+    /*
+     * As JMeterTreeModel.addComponent, minus the insertion event
+     */
+    private static JMeterTreeNode createNode(TestElement component, JMeterTreeModel treeModel,
+                                             GuiPackage guiPackage) {
+        JMeterGUIComponent guicomp = guiPackage.getGui(component);
+        guicomp.clearGui();
+        guicomp.configure(component);
+        guicomp.modifyTestElement(component);
+
+        JMeterTreeNode newNode = new JMeterTreeNode(component, treeModel);
+        newNode.setEnabled(component.isEnabled());
+        return newNode;
     }
 
     public void bindProxy() {
@@ -212,16 +539,64 @@ public class NativeRmiProxyController extends GenericController {
         proxy.setServerPort(getProxyPort());
         proxy.setNamingPort(getProxyNamingPort());
         proxy.setBindingScript(getBindingScript());
+        proxy.setForwardOriginalArguments(isForwardOriginalArguments());
+        proxy.setRecordingFilter(getRecordingFilter());
+        clientNodes.clear();
+        groupingByClient = isGroupByClient();
 
         log.debug("Target RMI name:\t" + getTargetRmiName());
         log.debug("Naming port:\t" + getProxyNamingPort());
         log.debug("Server port:\t" + getProxyPort());
 
-        RmiSamplerGeneratorMethodRecorder recorder = new RmiSamplerGeneratorMethodRecorder();
-        recorder.setTarget(this);
-        recorder.setSamplerNameFormat(getSamplerNameFormat());
-        log.debug("Sampler name format:\t" + getSamplerNameFormat());
-        proxy.setMethodRecorder(recorder);
+        MethodRecorder recorder = null;
+        if (isGenerateSamplers()) {
+            RmiSamplerGeneratorMethodRecorder generator = new RmiSamplerGeneratorMethodRecorder();
+            generator.setTarget(this);
+            generator.setSamplerNameFormat(getSamplerNameFormat());
+            generator.setThinkTimersAdded(isAddThinkTimers());
+            generator.setGroupedByClient(isGroupByClient());
+            log.debug("Sampler name format:\t" + getSamplerNameFormat());
+            recorder = generator;
+        }
+        String journalDirectory = getJournalDirectory();
+        boolean journalSet = journalDirectory != null && !"".equals(journalDirectory.trim());
+        FlightRecorder flightRecorder = null;
+        if (getFlightRecorderSize() > 0) {
+            // Keep only the latest calls; dumps go to the journal
+            // directory, or the working directory if none
+            int megabytes = Math.min(getFlightRecorderSize(), MAX_FLIGHT_RECORDER_SIZE);
+            flightRecorder = new FlightRecorder(megabytes * 1024 * 1024,
+                                                new File(journalSet ? journalDirectory.trim() : "."),
+                                                recorder);
+            flightRecorder.setLatencyTrigger(getFlightRecorderLatencyTrigger());
+            flightRecorder.setErrorTriggered(isFlightRecorderErrorTrigger());
+            recorder = flightRecorder;
+            log.info("Flight recorder:\t" + megabytes + " MB, dumping to "
+                     + flightRecorder.getDirectory().getAbsolutePath());
+        }
+        else if (journalSet) {
+            // A new journal for every recording session
+            File journal = new File(journalDirectory.trim(),
+                                    new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
+            try {
+                recorder = new JournalMethodRecorder(new JournalWriter(journal), recorder);
+                log.info("Recording journal:\t" + journal);
+            }
+            catch (IOException ioEx) {
+                log.error("Couldn't create recording journal " + journal, ioEx);
+                JMeterUtils.reportErrorToUser("Couldn't create recording journal " + journal
+                                              + ": " + ioEx.getMessage());
+            }
+        }
+        if (recorder == null) {
+            recorder = new NullMethodRecorder();
+        }
+        recordingQueue = new AsyncMethodRecorder(recorder, getRecordingQueueSize(),
+                                                 getRecordingOverflowPolicy());
+        log.debug("Recording queue:\t" + getRecordingQueueSize() + ", " + getRecordingOverflowPolicy());
+        proxy.setMethodRecorder(recordingQueue);
+        proxy.setFlightRecorder(flightRecorder);
+        proxy.setControlPort(getControlPort());
 
         log.info("Starting proxy thread");
 
@@ -232,5 +607,19 @@ public class NativeRmiProxyController extends GenericController {
         log.info("Stopping proxy thread");
 
         proxy.stop();
+        recordingQueue = null;
+    }
+
+
+    private static final class PendingSampler {
+        private final RMISampler sampler;
+        private final String client;
+        private final TestElement[] subConfigs;
+
+        PendingSampler(RMISampler sampler, String client, TestElement[] subConfigs) {
+            this.sampler = sampler;
+            this.client = client;
+            this.subConfigs = subConfigs;
+        }
     }
 }
@@ -5,36 +5,80 @@ import java.beans.Introspector;
 import java.beans.IntrospectionException;
 import java.beans.PropertyDescriptor;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
 import java.rmi.Remote;
+import java.rmi.server.RemoteObject;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.jmeter.util.JMeterUtils;
+
+import com.jmibanez.tools.jmeter.util.FieldMetadata;
+import com.jmibanez.tools.jmeter.util.RecordingFilter;
+import com.jmibanez.tools.jmeter.util.RemoteTypeAnalysis;
 
 import static com.jmibanez.tools.jmeter.util.InstanceHandleFactory.buildInstanceName;
-import static com.jmibanez.tools.jmeter.util.ReflectionUtil.getFieldsUpTo;
 
 
 public class ProxyObjectGraph {
 
     private static Log log = LogFactory.getLog(ProxyObjectGraph.class);
 
+    /**
+     * Maximum number of already proxied remotes remembered across
+     * calls. Past it, arbitrary entries are dropped, rather than the
+     * least recently used, so that lookups don't contend.
+     */
+    public static final int REMOTE_CACHE_SIZE = 1024;
+
+    /**
+     * JMeter property: minimum array or list size that is searched for
+     * remotes in parallel.
+     */
+    public static final String PARALLEL_THRESHOLD = "rmiProxy.parallelTraversalThreshold";
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+
+    private static final int DISCOVERY_CHUNK = 1024;
+
+    // Collection classes already warned about, see warnIfUnordered
+    private static final Set<Class<?>> unorderedWarned =
+        Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+
     private InstanceRegistry instanceRegistry;
     private MethodRecorder recorder;
+    private int parallelThreshold =
+        JMeterUtils.getPropDefault(PARALLEL_THRESHOLD, DEFAULT_PARALLEL_THRESHOLD);
+    private volatile boolean forwardOriginalArguments = false;
+    private volatile RecordingFilter recordingFilter = RecordingFilter.RECORD_ALL;
 
-    private Set<Object> seenObjects = new HashSet<>();
-    private Map<Object, Object> previousRemotes = new HashMap<>();
-    private Map<String, String> instances = new HashMap<>();
+    private final AtomicInteger callSequence = new AtomicInteger(1);
+
+    private final Map<Object, Remote> proxiedRemotes = new ConcurrentHashMap<>();
+
+    // Remotes being proxied, see proxyRemote
+    private final Map<Object, Object> proxyLocks = new ConcurrentHashMap<>();
 
     public ProxyObjectGraph(final InstanceRegistry instanceRegistry,
                             final MethodRecorder recorder) {
@@ -42,19 +86,92 @@ public class ProxyObjectGraph {
         this.recorder = recorder;
     }
 
-    public Map<String, String> getAndClearRemoteInstanceHandles() {
-        Map<String, String> mm = new HashMap<>(instances);
-        instances.clear();
-        return mm;
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public void setParallelThreshold(final int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * @see DynamicStubProxyInvocationHandler#setForwardOriginalArguments
+     */
+    public boolean isForwardOriginalArguments() {
+        return forwardOriginalArguments;
+    }
+
+    public void setForwardOriginalArguments(final boolean forwardOriginalArguments) {
+        this.forwardOriginalArguments = forwardOriginalArguments;
+    }
+
+    /**
+     * @see DynamicStubProxyInvocationHandler#setRecordingFilter
+     */
+    public RecordingFilter getRecordingFilter() {
+        return recordingFilter;
+    }
+
+    public void setRecordingFilter(final RecordingFilter recordingFilter) {
+        this.recordingFilter = recordingFilter == null ? RecordingFilter.RECORD_ALL : recordingFilter;
+    }
+
+    /**
+     * @return the index for the next call made through any proxy
+     * created by this graph
+     */
+    int nextCallIndex() {
+        return callSequence.getAndIncrement();
+    }
+
+    /**
+     * @return how many proxied remotes are remembered across calls
+     */
+    int getProxiedRemoteCount() {
+        return proxiedRemotes.size();
+    }
+
+    InstanceRegistry getInstanceRegistry() {
+        return instanceRegistry;
     }
 
+    MethodRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Replace all remotes reachable from <code>instance</code> with
+     * recording proxies, and set the paths to those remotes on
+     * <code>record</code>.
+     *
+     * <p>The graph is walked breadth-first with an explicit queue, so
+     * deep graphs (e.g. long linked lists) don't exhaust the stack,
+     * and a remote reachable through several paths is named after the
+     * shortest one.</p>
+     */
     public Object replaceRemotes(Object instance, MethodCallRecord record)
         throws Exception {
-        return replaceRemotes(instance, record, "");
+        TraversalContext ctx = new TraversalContext(record);
+        Object replaced = visit(instance, ctx, null, PathNode.ROOT, null, 0);
+
+        Frame frame;
+        while ((frame = ctx.pending.pollFirst()) != null) {
+            traverse(frame, ctx);
+        }
+
+        record.setRemotePathsInReturn(ctx.instances);
+        return replaced;
     }
 
-    public Object replaceRemotes(Object instance, MethodCallRecord record,
-                                 String path)
+    /**
+     * Return the replacement for <code>instance</code>, reached from
+     * <code>parent</code> through the given path segment. Remotes are
+     * proxied immediately; other objects that may reach a remote are
+     * queued for traversal.
+     */
+    private Object visit(final Object instance, final TraversalContext ctx,
+                         final PathNode parent, final int kind,
+                         final Object label, final int index)
         throws Exception {
 
         if (instance == null) {
@@ -69,127 +186,271 @@ public class ProxyObjectGraph {
             return instance;
         }
 
-        // Handle cycles by skipping already traversed objects
-        if (seenObjects.contains(instance)) {
-            if (previousRemotes.get(instance) != null) {
-                return previousRemotes.get(instance);
-            }
+        if (instance instanceof Class<?>) {
+            // Skip classes
             return instance;
         }
 
-        if (instance instanceof Class<?>) {
-            // Skip classes
+        // Skip subgraphs that can never reach a Remote
+        RemoteTypeAnalysis analysis = RemoteTypeAnalysis.forClass(clazz);
+        if (!analysis.mayContainRemote()) {
             return instance;
         }
 
-        seenObjects.add(instance);
+        // Handle cycles by skipping already traversed objects
+        Object seen = ctx.visited.get(instance);
+        if (seen != null) {
+            return seen;
+        }
 
         // If instanceof Remote, replace with proxy
+        PathNode path = new PathNode(parent, kind, label, index);
         if (instance instanceof Remote) {
-            record.setRemoteReturned(true);
-            String instanceName = buildInstanceName((Remote) instance,
-                                                    record, path);
-            DynamicStubProxyInvocationHandler handler =
-                new DynamicStubProxyInvocationHandler(instanceRegistry,
-                                                      instance,
-                                                      instanceName,
-                                                      recorder);
-            Remote proxy = handler.buildStubProxy(false);
-            instanceRegistry.registerRmiInstance(instanceName, proxy);
-            instances.put(instanceName, path);
-            previousRemotes.put(instance, proxy);
+            Remote proxy = proxyRemote((Remote) instance, ctx, path.toString());
+            ctx.visited.put(instance, proxy);
             return proxy;
         }
 
-        // Otherwise, traverse object
-        if (clazz.isArray()) {
-            Object arr = traverseArrayAndReplaceRemotes(instance, record,
-                                                        path);
-            return arr;
-        }
+        ctx.visited.put(instance, instance);
+        ctx.pending.addLast(new Frame(instance, analysis, path));
+        return instance;
+    }
 
-        if (instance instanceof Collection) {
-            Object col = traverseCollectionAndReplaceRemotes((Collection) instance,
-                                                             record, path);
-            return col;
+    private void traverse(final Frame frame, final TraversalContext ctx)
+        throws Exception {
+        Object instance = frame.instance;
+        try {
+            if (instance.getClass().isArray()) {
+                traverseArray((Object[]) instance, frame, ctx);
+            }
+            else if (instance instanceof Map) {
+                traverseMap((Map<?, ?>) instance, frame, ctx);
+            }
+            else if (instance instanceof List) {
+                traverseList((List<?>) instance, frame, ctx);
+            }
+            else if (instance instanceof Collection) {
+                traverseCollection((Collection<?>) instance, frame, ctx);
+            }
+            else {
+                for (FieldMetadata.Accessor f: frame.analysis.getCandidateFields()) {
+                    Object val = f.get(instance);
+                    Object replaced = visit(val, ctx, frame.path,
+                                            PathNode.FIELD, f.getName(), 0);
+                    if (replaced != val) {
+                        f.set(instance, replaced);
+                    }
+                }
+            }
         }
+        catch(UnsupportedOperationException unmodifiable) {
+            log.warn("Couldn't replace remotes in unmodifiable " + instance.getClass().getName()
+                     + " at " + frame.path, unmodifiable);
+        }
+    }
 
-        for (Field f: getFieldsUpTo(clazz, Object.class)) {
-            if (Modifier.isFinal(f.getModifiers())
-                || Modifier.isStatic(f.getModifiers())) {
-                log.warn("Ignored " + f.toString());
-                // Ignore static or final fields
+    private void traverseArray(final Object[] arr, final Frame frame,
+                               final TraversalContext ctx)
+        throws Exception {
+        // Primitive arrays never reach here, see RemoteTypeAnalysis
+        boolean[] candidates = discoverRemotes(arr);
+        for (int i = 0; i < arr.length; i++) {
+            if (candidates != null && !candidates[i]) {
                 continue;
             }
-
-            Class<?> valType = f.getType();
-            Object val = null;
-            if (!f.isAccessible()) {
-                f.setAccessible(true);
-            }
-            try {
-                val = replaceRemotes(f.get(instance),
-                                     record, path + "." + f.getName());
+            Object o = arr[i];
+            Object replaced = visit(o, ctx, frame.path, PathNode.INDEX, null, i);
+            if (replaced != o) {
+                arr[i] = replaced;
             }
-            catch (IllegalAccessException accessEx) {
+        }
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private void traverseList(final List l, final Frame frame,
+                              final TraversalContext ctx)
+        throws Exception {
+        boolean[] candidates = l.size() >= parallelThreshold
+            ? discoverRemotes(l.toArray())
+            : null;
+        int i = 0;
+        for (ListIterator ii = l.listIterator(); ii.hasNext(); i++) {
+            Object o = ii.next();
+            if (candidates != null && !candidates[i]) {
                 continue;
             }
-            f.set(instance, val);
+            Object replaced = visit(o, ctx, frame.path, PathNode.LIST_ELEMENT, null, i);
+            if (replaced != o) {
+                ii.set(replaced);
+            }
         }
+    }
 
-        return instance;
+    /**
+     * For arrays at or above the parallel threshold, find which
+     * elements can reach a remote, searching chunks of the array in
+     * parallel without modifying anything.
+     *
+     * <p>Proxies are then created by the caller on its own thread, in
+     * index order, so handle names don't depend on scheduling.</p>
+     *
+     * @return the elements to visit, or null to visit all of them
+     */
+    private boolean[] discoverRemotes(final Object[] elements) {
+        if (elements.length < parallelThreshold) {
+            return null;
+        }
+        boolean[] candidates = new boolean[elements.length];
+        ForkJoinPool.commonPool()
+            .invoke(new RemoteDiscovery(elements, candidates, 0, elements.length));
+        return candidates;
     }
 
+    /*
+     * Sets, queues and other collections have no positional update,
+     * so they are rebuilt (in iteration order) if any element was
+     * replaced.
+     */
     @SuppressWarnings({"rawtypes", "unchecked"})
-    private Object traverseArrayAndReplaceRemotes(Object arrayInstance,
-                                                  MethodCallRecord record,
-                                                  String path)
+    private void traverseCollection(final Collection c, final Frame frame,
+                                    final TraversalContext ctx)
         throws Exception {
-        int arrLen = Array.getLength(arrayInstance);
-        for (int i = 0; i < arrLen; i++) {
-            Object o = replaceRemotes(Array.get(arrayInstance, i),
-                                      record, path + "[" + i + "]");
-            Array.set(arrayInstance, i, o);
+        Object[] elements = c.toArray();
+        boolean changed = false;
+        for (int i = 0; i < elements.length; i++) {
+            Object o = elements[i];
+            Object replaced = visit(o, ctx, frame.path, PathNode.ELEMENT, null, i);
+            if (replaced != o) {
+                elements[i] = replaced;
+                changed = true;
+                warnIfUnordered(c, frame.path);
+            }
+        }
+
+        if (changed) {
+            c.clear();
+            c.addAll(Arrays.asList(elements));
         }
-        return arrayInstance;
     }
 
     @SuppressWarnings({"rawtypes", "unchecked"})
-    private Object traverseMapKeyValuePairs(Map m, MethodCallRecord record,
-                                            String path)
+    private void traverseMap(final Map m, final Frame frame,
+                             final TraversalContext ctx)
         throws Exception {
-        for (Object key: m.keySet()) {
-            Object val = replaceRemotes(m.get(key), record,
-                                        path + ".get(" + key + ")");
-            m.put(key, val);
+        Map<Object, Object> rekeyed = null;
+        int i = 0;
+        for (Object o: m.entrySet()) {
+            Map.Entry e = (Map.Entry) o;
+            Object key = e.getKey();
+            Object val = e.getValue();
+
+            Object replacedVal = visit(val, ctx, frame.path, PathNode.MAP_VALUE, key, i);
+            if (replacedVal != val) {
+                e.setValue(replacedVal);
+                if (!PathNode.isKeyLiteral(key)) {
+                    warnIfUnordered(m, frame.path);
+                }
+            }
+
+            Object replacedKey = visit(key, ctx, frame.path, PathNode.MAP_KEY, null, i);
+            if (replacedKey != key) {
+                warnIfUnordered(m, frame.path);
+                if (rekeyed == null) {
+                    rekeyed = new LinkedHashMap<>();
+                }
+                rekeyed.put(key, replacedKey);
+            }
+            i++;
+        }
+
+        if (rekeyed != null) {
+            for (Map.Entry<Object, Object> e: rekeyed.entrySet()) {
+                Object val = m.remove(e.getKey());
+                m.put(e.getValue(), val);
+            }
         }
-        return m;
     }
 
-    @SuppressWarnings({"rawtypes", "unchecked"})
-    private Object traverseCollectionAndReplaceRemotes(Collection c,
-                                                       MethodCallRecord record,
-                                                       String path)
+    /**
+     * Remotes in sets, in map keys, and in map values under keys
+     * that aren't literals are named by iteration position. For hash
+     * based collections that order can differ when the call is
+     * replayed, so the recorded path may then find another element.
+     */
+    private static void warnIfUnordered(final Object collection, final PathNode path) {
+        if (collection instanceof SortedSet || collection instanceof SortedMap
+            || collection instanceof LinkedHashSet || collection instanceof LinkedHashMap
+            || collection instanceof Deque) {
+            return;
+        }
+        if (unorderedWarned.add(collection.getClass())) {
+            log.warn("Remotes found in a " + collection.getClass().getName() + " (at "
+                     + (path == null ? "return value" : path.toString())
+                     + ") are recorded by iteration position, which may differ on replay");
+        }
+    }
+
+    private Remote proxyRemote(final Remote instance, final TraversalContext ctx,
+                               final String path)
         throws Exception {
-        if (c instanceof Map) {
-            return traverseMapKeyValuePairs((Map) c, record, path);
+        Object key = remoteKey(instance);
+        Remote proxy = proxiedRemotes.get(key);
+        if (proxy != null) {
+            return proxy;
         }
 
-        if (c instanceof List) {
-            int i = 0;
-            for (ListIterator ii = ((List) c).listIterator(); ii.hasNext(); ) {
-                Object o = replaceRemotes(ii.next(), record, path + ".get(" + i + ")");
-                ii.set(o);
-                i++;
+        // Concurrent calls returning the same remote must agree on
+        // one proxy and handle; calls returning other remotes don't
+        // wait for each other
+        Object lock = proxyLocks.computeIfAbsent(key, k -> new Object());
+        try {
+            synchronized (lock) {
+                proxy = proxiedRemotes.get(key);
+                if (proxy != null) {
+                    return proxy;
+                }
+
+                MethodCallRecord record = ctx.record;
+                record.setRemoteReturned(true);
+                String instanceName = buildInstanceName(instance, record, path);
+                DynamicStubProxyInvocationHandler handler =
+                    new DynamicStubProxyInvocationHandler(this, instance, instanceName);
+                proxy = handler.buildStubProxy(false);
+                instanceRegistry.registerRmiInstance(instanceName, proxy);
+                ctx.instances.put(instanceName, path);
+                proxiedRemotes.put(key, proxy);
+                evictProxiedRemotes(key);
+                return proxy;
             }
         }
+        finally {
+            proxyLocks.remove(key, lock);
+        }
+    }
 
-        // FIXME: Handle other collection types
+    private void evictProxiedRemotes(final Object added) {
+        Iterator<Object> keys = proxiedRemotes.keySet().iterator();
+        while (proxiedRemotes.size() > REMOTE_CACHE_SIZE && keys.hasNext()) {
+            if (!keys.next().equals(added)) {
+                keys.remove();
+            }
+        }
+    }
 
-        return c;
+    /**
+     * Key for the cross-call proxy cache: RMI stubs compare equal
+     * when they refer to the same remote object, so they are used
+     * as-is; any other <code>Remote</code> is compared by identity.
+     */
+    private static Object remoteKey(final Remote instance) {
+        if (instance instanceof RemoteObject
+            || Proxy.isProxyClass(instance.getClass())) {
+            return instance;
+        }
+        return new IdentityKey(instance);
     }
 
-    private boolean isPrimitive(final Class<?> clazz) {
+    private static boolean isPrimitive(final Class<?> clazz) {
         return (clazz == boolean.class
                 || clazz == char.class
                 || clazz == byte.class
@@ -208,4 +469,258 @@ public class ProxyObjectGraph {
                 || clazz == Double.class
                 || clazz == String.class);
     }
+
+
+    /**
+     * Traversal state for a single proxied call.
+     */
+    private static final class TraversalContext {
+        private final MethodCallRecord record;
+        private final Map<Object, Object> visited = new IdentityHashMap<>();
+        private final Map<String, String> instances = new LinkedHashMap<>();
+        private final ArrayDeque<Frame> pending = new ArrayDeque<>();
+
+        TraversalContext(final MethodCallRecord record) {
+            this.record = record;
+        }
+    }
+
+    /**
+     * Marks the elements in <code>[from, to)</code> that can reach a
+     * remote; each leaf task walks its chunk with its own identity
+     * set.
+     */
+    private static final class RemoteDiscovery
+        extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] elements;
+        private final boolean[] candidates;
+        private final int from;
+        private final int to;
+
+        RemoteDiscovery(final Object[] elements, final boolean[] candidates,
+                        final int from, final int to) {
+            this.elements = elements;
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > DISCOVERY_CHUNK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RemoteDiscovery(elements, candidates, from, mid),
+                          new RemoteDiscovery(elements, candidates, mid, to));
+                return;
+            }
+
+            Map<Object, Boolean> seen = new IdentityHashMap<>();
+            ArrayDeque<Object> pending = new ArrayDeque<>();
+            for (int i = from; i < to; i++) {
+                candidates[i] = reachesRemote(elements[i], seen, pending);
+            }
+        }
+
+        /*
+         * Containers already seen by this task are not walked again; a
+         * remote found under them was already reported for an earlier
+         * element, which is where the sequential walk will proxy it.
+         */
+        private static boolean reachesRemote(final Object root,
+                                             final Map<Object, Boolean> seen,
+                                             final ArrayDeque<Object> pending) {
+            pending.clear();
+            pending.add(root);
+
+            Object o;
+            while ((o = pending.poll()) != null) {
+                if (!mayContainRemote(o)) {
+                    continue;
+                }
+                if (o instanceof Remote) {
+                    return true;
+                }
+                if (seen.put(o, Boolean.TRUE) != null) {
+                    continue;
+                }
+
+                if (o.getClass().isArray()) {
+                    addAll(pending, Arrays.asList((Object[]) o));
+                }
+                else if (o instanceof Map) {
+                    for (Map.Entry<?, ?> e: ((Map<?, ?>) o).entrySet()) {
+                        add(pending, e.getKey());
+                        add(pending, e.getValue());
+                    }
+                }
+                else if (o instanceof Collection) {
+                    addAll(pending, (Collection<?>) o);
+                }
+                else {
+                    for (FieldMetadata.Accessor f: RemoteTypeAnalysis.forClass(o.getClass())
+                             .getCandidateFields()) {
+                        add(pending, f.get(o));
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static boolean mayContainRemote(final Object o) {
+            return !(o instanceof Class<?>)
+                && !isPrimitive(o.getClass())
+                && RemoteTypeAnalysis.mayContainRemote(o.getClass());
+        }
+
+        private static void addAll(final ArrayDeque<Object> pending,
+                                   final Collection<?> c) {
+            for (Object o: c) {
+                add(pending, o);
+            }
+        }
+
+        private static void add(final ArrayDeque<Object> pending, final Object o) {
+            if (o != null) {
+                pending.add(o);
+            }
+        }
+    }
+
+    /**
+     * An object queued for traversal.
+     */
+    private static final class Frame {
+        private final Object instance;
+        private final RemoteTypeAnalysis analysis;
+        private final PathNode path;
+
+        Frame(final Object instance, final RemoteTypeAnalysis analysis,
+              final PathNode path) {
+            this.instance = instance;
+            this.analysis = analysis;
+            this.path = path;
+        }
+    }
+
+    /**
+     * One segment of the BeanShell expression that reaches an object
+     * from the return value. The expression is only built (by
+     * {@link #toString()}) for remotes.
+     */
+    static final class PathNode {
+        static final int ROOT = 0;
+        static final int FIELD = 1;
+        static final int INDEX = 2;
+        static final int LIST_ELEMENT = 3;
+        static final int ELEMENT = 4;
+        static final int MAP_VALUE = 5;
+        static final int MAP_KEY = 6;
+
+        private final PathNode parent;
+        private final int kind;
+        private final Object label;
+        private final int index;
+
+        PathNode(final PathNode parent, final int kind, final Object label,
+                 final int index) {
+            this.parent = parent;
+            this.kind = kind;
+            this.label = label;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            ArrayDeque<PathNode> segments = new ArrayDeque<>();
+            for (PathNode n = this; n != null; n = n.parent) {
+                segments.push(n);
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (PathNode n: segments) {
+                n.appendSegment(sb);
+            }
+            return sb.toString();
+        }
+
+        private void appendSegment(final StringBuilder sb) {
+            switch (kind) {
+            case FIELD:
+                sb.append('.').append(label);
+                break;
+            case INDEX:
+                sb.append('[').append(index).append(']');
+                break;
+            case LIST_ELEMENT:
+                sb.append(".get(").append(index).append(')');
+                break;
+            case ELEMENT:
+                sb.append(".toArray()[").append(index).append(']');
+                break;
+            case MAP_VALUE:
+                if (isKeyLiteral(label)) {
+                    sb.append(".get(").append(keyLiteral(label)).append(')');
+                }
+                else {
+                    sb.append(".entrySet().toArray()[").append(index).append("].getValue()");
+                }
+                break;
+            case MAP_KEY:
+                sb.append(".keySet().toArray()[").append(index).append(']');
+                break;
+            default:
+                break;
+            }
+        }
+
+        /**
+         * @return whether <code>key</code> can be written as a
+         * literal, so that map values are found by key rather than
+         * by their (possibly unstable) position
+         */
+        static boolean isKeyLiteral(final Object key) {
+            return key instanceof String || key instanceof Integer
+                || key instanceof Long || key instanceof Boolean
+                || key instanceof Enum;
+        }
+
+        /**
+         * @return <code>key</code> as a Java literal, as read by
+         * {@link com.jmibanez.tools.jmeter.util.ObjectPath}
+         */
+        static String keyLiteral(final Object key) {
+            if (key instanceof String) {
+                return "\"" + StringEscapeUtils.escapeJava((String) key) + "\"";
+            }
+            if (key instanceof Long) {
+                return key + "L";
+            }
+            if (key instanceof Enum) {
+                Enum<?> e = (Enum<?>) key;
+                return e.getDeclaringClass().getCanonicalName() + "." + e.name();
+            }
+            return key.toString();
+        }
+    }
+
+    private static final class IdentityKey {
+        private final Object instance;
+
+        IdentityKey(final Object instance) {
+            this.instance = instance;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(instance);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof IdentityKey
+                && ((IdentityKey) other).instance == instance;
+        }
+    }
 }
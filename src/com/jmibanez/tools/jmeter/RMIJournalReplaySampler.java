@@ -0,0 +1,435 @@
+package com.jmibanez.tools.jmeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.rmi.Remote;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.testelement.ThreadListener;
+import org.apache.jmeter.threads.JMeterContextService;
+
+import com.jmibanez.tools.jmeter.impl.RemoteRegistry;
+import com.jmibanez.tools.jmeter.journal.JournalCall;
+import com.jmibanez.tools.jmeter.journal.JournalReader;
+import com.jmibanez.tools.jmeter.util.ObjectPath;
+
+/**
+ * Replays the calls in a recording journal, one call per sample,
+ * without generated samplers or argument scripts.
+ *
+ * <p>The journal is mapped once at test start and shared by all
+ * threads; each thread has its own position in it, and its own table
+ * of the remotes returned so far, keyed by their recorded handles.
+ * After the last call, a thread starts again from the first, with an
+ * empty handle table. The root remote comes from the RMI Remote
+ * Object Config.</p>
+ *
+ * <p>If think time is replayed, each thread waits before a call for
+ * the time between it and the end of the previous call, scaled by
+ * {@link RecordedThinkTimer#PACING_FACTOR}.</p>
+ *
+ * <p>If each thread replays one client, the journal's calls are split
+ * by the client that made them (see {@link MethodCallRecord#getClient}),
+ * in the order the clients first appear, and thread <i>n</i> replays
+ * the calls of client <i>n</i> (wrapping around if there are more
+ * threads than clients). Otherwise every thread replays every
+ * call.</p>
+ */
+public class RMIJournalReplaySampler
+    extends AbstractSampler
+    implements NoThreadClone,
+               TestStateListener,
+               ThreadListener {
+
+    public static final long serialVersionUID = 6780L;
+
+    public static final String JOURNAL_DIRECTORY = "RMIJournalReplaySampler.journal_directory";
+    public static final String IGNORE_EXCEPTIONS = "RMIJournalReplaySampler.ignore_exceptions";
+    public static final String REPLAY_THINK_TIME = "RMIJournalReplaySampler.replay_think_time";
+    /**
+     * Whether each thread replays the calls of one recorded client,
+     * i.e. one client host: several clients recorded from one host
+     * are replayed by one thread.
+     */
+    public static final String CLIENT_PER_THREAD = "RMIJournalReplaySampler.client_per_thread";
+
+    private static Log log = LogFactory.getLog(RMIJournalReplaySampler.class);
+
+    private static final ClassValue<Map<String, Method>> METHODS = new ClassValue<Map<String, Method>>() {
+            @Override
+            protected Map<String, Method> computeValue(Class<?> type) {
+                Map<String, Method> methods = new HashMap<>();
+                for (Method m: type.getMethods()) {
+                    methods.put(MethodCallRecord.constructMethodName(m.getName(),
+                                                                     m.getParameterTypes())[0], m);
+                }
+                return Collections.unmodifiableMap(methods);
+            }
+        };
+
+    private transient volatile ReplayJournal journal;
+    private transient volatile boolean exceptionsIgnored;
+    private transient volatile float pacingFactor;
+    private transient volatile boolean clientPerThread;
+    // Attached by JMeter before every sample, as for RMISampler
+    private transient volatile RMIRemoteObjectConfig remoteObjectConfig;
+    private transient ThreadLocal<Cursor> cursor = new ThreadLocal<>();
+
+    public RMIJournalReplaySampler() {
+    }
+
+
+    public SampleResult sample(Entry e) {
+        return sample();
+    }
+
+    public void addTestElement(TestElement el) {
+        if (el instanceof RMIRemoteObjectConfig) {
+            setRemoteObjectConfig((RMIRemoteObjectConfig) el);
+        } else {
+            super.addTestElement(el);
+        }
+    }
+
+    @Override
+    public void testStarted() {
+        File directory = new File(getJournalDirectory());
+        exceptionsIgnored = isExceptionsIgnored();
+        pacingFactor = isThinkTimeReplayed() ? RecordedThinkTimer.getPacingFactor() : 0;
+        clientPerThread = isClientPerThread();
+        try {
+            journal = new ReplayJournal(directory);
+            log.info(getName() + ": replaying " + journal.positions.length + " calls from "
+                     + journal.clients.length + " clients in " + directory);
+        }
+        catch (IOException ioEx) {
+            log.error(getName() + ": Couldn't load journal " + directory, ioEx);
+        }
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    @Override
+    public void testEnded() {
+        ReplayJournal j = journal;
+        journal = null;
+        remoteObjectConfig = null;
+        if (j != null) {
+            j.reader.close();
+        }
+    }
+
+    @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
+
+    public void threadStarted() {
+        cursor.set(newCursor());
+    }
+
+    public void threadFinished() {
+        cursor.remove();
+    }
+
+    public String getJournalDirectory() {
+        return getPropertyAsString(JOURNAL_DIRECTORY);
+    }
+
+    public void setJournalDirectory(String directory) {
+        setProperty(JOURNAL_DIRECTORY, directory);
+    }
+
+    public void setExceptionsIgnored(boolean ign) {
+        setProperty(IGNORE_EXCEPTIONS, ign);
+    }
+
+    public boolean isExceptionsIgnored() {
+        return getPropertyAsBoolean(IGNORE_EXCEPTIONS);
+    }
+
+    public void setThinkTimeReplayed(boolean replayed) {
+        setProperty(REPLAY_THINK_TIME, replayed);
+    }
+
+    public boolean isThinkTimeReplayed() {
+        return getPropertyAsBoolean(REPLAY_THINK_TIME);
+    }
+
+    public void setClientPerThread(boolean perThread) {
+        setProperty(CLIENT_PER_THREAD, perThread);
+    }
+
+    public boolean isClientPerThread() {
+        return getPropertyAsBoolean(CLIENT_PER_THREAD);
+    }
+
+    protected SampleResult sample() {
+        RMISampleResult res = new RMISampleResult();
+
+        ReplayJournal j = journal;
+        if (j == null || j.positions.length == 0) {
+            return failed(res, getName() + ": no journal loaded", null);
+        }
+        Cursor c = cursor.get();
+        if (c == null || c.journal != j) {
+            c = newCursor();
+            cursor.set(c);
+        }
+
+        JournalCall call;
+        Object[] args;
+        try {
+            call = j.reader.readCallAt(c.nextPosition());
+            args = call.getArguments();
+        }
+        catch (IOException | ClassNotFoundException readEx) {
+            return failed(res, getName() + ": couldn't read call from journal", readEx);
+        }
+        think(c.thinkTime(call));
+        res.sampleStart();
+
+        String targetName = call.getTarget();
+        res.setSampleLabel(String.format("%1s : %2s",
+                                         targetName == null ? "(root)" : targetName,
+                                         call.getMangledMethodName()));
+        ByteBuffer packed = call.getPackedArguments();
+        if (packed != null) {
+            res.setSentBytes(packed.remaining());
+        }
+        res.connectEnd();
+
+        Remote target = c.getTarget(targetName, getRemoteObjectConfig());
+        if (target == null) {
+            return failed(res, "Unknown target " + targetName
+                          + " (the call that returned it may have failed)", null);
+        }
+        Method m = METHODS.get(target.getClass()).get(call.getMangledMethodName());
+        if (m == null) {
+            return failed(res, "No method " + call.getMangledMethodName() + " on " + targetName, null);
+        }
+
+        res.setMethod(m);
+        res.setArguments(args);
+        try {
+            res.setSuccessful(true);
+            res.latencyEnd();
+            Object retval = m.invoke(target, args);
+            res.sampleEnd();
+            res.setReturnValue(retval);
+            c.registerRemotes(retval, call.getRemotePaths());
+        }
+        catch (IllegalAccessException ex) {
+            res.sampleEnd();
+            res.setReturnValue(ex);
+            res.setSuccessful(false);
+            log.warn(getName() + ": Could not invoke " + m, ex);
+        }
+        catch (InvocationTargetException invokEx) {
+            res.sampleEnd();
+            res.setReturnValue(invokEx.getCause());
+            if (!exceptionsIgnored) {
+                res.setSuccessful(false);
+            }
+        }
+        return res;
+    }
+
+    private Cursor newCursor() {
+        ReplayJournal j = journal;
+        if (j == null) {
+            return null;
+        }
+        if (!clientPerThread || j.clients.length == 0) {
+            return new Cursor(j, j.positions);
+        }
+        int thread = JMeterContextService.getContext().getThreadNum();
+        return new Cursor(j, j.clients[thread % j.clients.length]);
+    }
+
+    private void think(final long recordedMillis) {
+        long delay = RecordedThinkTimer.scale(recordedMillis, pacingFactor);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static SampleResult failed(final RMISampleResult res, final String message,
+                                       final Throwable cause) {
+        if (res.getStartTime() == 0) {
+            res.sampleStart();
+        }
+        res.sampleEnd();
+        res.setSuccessful(false);
+        res.setResponseMessage(message);
+        if (cause != null) {
+            res.setReturnValue(cause);
+            log.warn(message, cause);
+        }
+        return res;
+    }
+
+    public RMIRemoteObjectConfig getRemoteObjectConfig() {
+        return remoteObjectConfig;
+    }
+
+    private void setRemoteObjectConfig(RMIRemoteObjectConfig value) {
+        RMIRemoteObjectConfig remoteObj = remoteObjectConfig;
+        if (remoteObj == value) {
+            // Attached again for every sample
+            return;
+        }
+        synchronized (this) {
+            remoteObj = remoteObjectConfig;
+            if (remoteObj == null) {
+                remoteObjectConfig = value;
+            }
+            else if (remoteObj != value) {
+                log.warn(getName() + ": Ignoring " + value.getName() + ", existing remote object "
+                         + remoteObj.getName());
+            }
+        }
+    }
+
+    public String toString() {
+        return super.toString() +  ": " +  getName();
+    }
+
+
+    /**
+     * The journal, read through once to find its calls.
+     */
+    private static final class ReplayJournal {
+        private final JournalReader reader;
+        private final long[] positions;
+        // The positions of each client's calls, in order of first call
+        private final long[][] clients;
+
+        ReplayJournal(final File directory)
+            throws IOException {
+            reader = new JournalReader(directory);
+            Positions all = new Positions();
+            Map<String, Positions> byClient = new LinkedHashMap<>();
+            JournalCall call;
+            while ((call = reader.next()) != null) {
+                long position = reader.getCallPosition();
+                all.add(position);
+                String client = call.getClient() == null ? "" : call.getClient();
+                Positions p = byClient.get(client);
+                if (p == null) {
+                    p = new Positions();
+                    byClient.put(client, p);
+                }
+                p.add(position);
+            }
+            positions = all.toArray();
+            clients = new long[byClient.size()][];
+            int i = 0;
+            for (Positions p: byClient.values()) {
+                clients[i++] = p.toArray();
+            }
+        }
+    }
+
+    private static final class Positions {
+        private long[] found = new long[64];
+        private int count = 0;
+
+        void add(final long position) {
+            if (count == found.length) {
+                found = Arrays.copyOf(found, count * 2);
+            }
+            found[count++] = position;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(found, count);
+        }
+    }
+
+    /**
+     * A thread's place in the journal.
+     */
+    private static final class Cursor {
+        private final ReplayJournal journal;
+        private final long[] positions;
+        private int next = 0;
+        private long lastEndTime = 0;
+        private final Map<String, Remote> handles = new HashMap<>();
+
+        Cursor(final ReplayJournal journal, final long[] positions) {
+            this.journal = journal;
+            this.positions = positions;
+        }
+
+        long nextPosition() {
+            if (next >= positions.length) {
+                next = 0;
+            }
+            if (next == 0) {
+                handles.clear();
+                lastEndTime = 0;
+            }
+            return positions[next++];
+        }
+        /**
+         * @return the recorded time between <code>call</code> and the
+         * end of the previous call in this pass
+         */
+        long thinkTime(final JournalCall call) {
+            long thinkTime = lastEndTime == 0 ? 0 : call.getStartTime() - lastEndTime;
+            lastEndTime = Math.max(lastEndTime, call.getEndTime());
+            return thinkTime;
+        }
+
+        Remote getTarget(final String handle, final RMIRemoteObjectConfig config) {
+            Remote target = handles.get(handle);
+            if (target != null || config == null) {
+                return target;
+            }
+            if (handle == null) {
+                return config.getTarget(null);
+            }
+            // e.g. sessions registered by an RMI Session Pool Config
+            RemoteRegistry registry = config.getRegistry();
+            return registry == null ? null : registry.getTarget(handle);
+        }
+
+        void registerRemotes(final Object retval, final Map<String, String> paths) {
+            for (Map.Entry<String, String> p: paths.entrySet()) {
+                try {
+                    Object remote = ObjectPath.resolve(retval, p.getValue());
+                    if (remote instanceof Remote) {
+                        handles.put(p.getKey(), (Remote) remote);
+                    }
+                }
+                catch (RuntimeException badPath) {
+                    log.warn("Couldn't find remote " + p.getKey() + " at " + p.getValue(), badPath);
+                }
+            }
+        }
+    }
+}
@@ -12,8 +12,12 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.RemoteObject;
 import java.rmi.Naming;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.jmeter.config.ConfigTestElement;
 import org.apache.jmeter.engine.util.NoThreadClone;
 import org.apache.jmeter.testelement.TestStateListener;
@@ -24,6 +28,8 @@ import org.apache.jmeter.testelement.property.StringProperty;
 import org.apache.jmeter.testelement.property.TestElementProperty;
 import org.apache.jmeter.threads.JMeterContext;
 import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.util.JMeterUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -31,6 +37,7 @@ import org.objenesis.Objenesis;
 import org.objenesis.ObjenesisStd;
 
 import com.jmibanez.tools.jmeter.gui.RMIRemoteObjectConfigGUI;
+import com.jmibanez.tools.jmeter.impl.RemoteReferenceTracker;
 import com.jmibanez.tools.jmeter.impl.RemoteRegistry;
 import com.jmibanez.tools.jmeter.impl.SwitchingRemoteRegistry;
 
@@ -53,16 +60,44 @@ public class RMIRemoteObjectConfig
 
     public static final String TARGET_RMI_NAME = "RmiRemoteObjectConfig.target_rmi_name";
     public static final String IS_GLOBAL = "RmiRemoteObjectConfig.is_global";
+    public static final String SCOPE = "RmiRemoteObjectConfig.scope";
+
+    /**
+     * JMeter property: if set, the interval (in ms) used for
+     * <code>sun.rmi.dgc.client.gcInterval</code>, so that stubs
+     * dropped at the end of their scope are collected (and their
+     * leases cleaned) promptly.
+     *
+     * <p>The RMI runtime reads that system property only once, when
+     * it first receives a remote, and for the whole JVM; setting it
+     * at test start is too late after any earlier RMI use (such as
+     * recording, or a previous run in the GUI). Prefer passing
+     * <code>-Dsun.rmi.dgc.client.gcInterval</code> when starting
+     * JMeter.</p>
+     */
+    public static final String DGC_CLIENT_GC_INTERVAL = "rmi.dgc.client_gc_interval";
+    private static final String SUN_DGC_CLIENT_GC_INTERVAL = "sun.rmi.dgc.client.gcInterval";
     public static final String REMOTE_INSTANCES = "RMIRemoteObject.instances";
 
     private static Log log = LogFactory.getLog(RMIRemoteObjectConfig.class);
 
     private transient ThreadLocal<RemoteRegistry> registry = new ThreadLocal<>();
     private transient ThreadLocal<Objenesis> factory = new ThreadLocal<>();
+    private transient ThreadLocal<Integer> registryIteration = new ThreadLocal<>();
+    private transient Set<RemoteRegistry> liveRegistries =
+        Collections.newSetFromMap(new ConcurrentHashMap<RemoteRegistry, Boolean>());
+
+    // Parsed from SCOPE at test start, so samplers don't read the property
+    private transient volatile RegistryScope activeScope;
+    private transient AtomicInteger peakHandleCount = new AtomicInteger();
 
     private transient RemoteRegistry globalRegistry;
     private transient Objenesis globalFactory;
 
+    private transient long testStartTime;
+    private transient long testStartTracked;
+    private transient long testStartCollected;
+
     /**
      * Creates a new <code>RMIRemoteObjectConfig</code> instance.
      *
@@ -94,10 +129,21 @@ public class RMIRemoteObjectConfig
 
     @Override
     public void testStarted() {
+        RemoteReferenceTracker tracker = RemoteReferenceTracker.getInstance();
+        configureDgcClientInterval(tracker);
+
+        testStartTime = System.currentTimeMillis();
+        testStartTracked = tracker.getTrackedCount();
+        testStartCollected = tracker.getCollectedCount();
+
+        activeScope = getScope();
+        peakHandleCount.set(0);
+
         if(isGlobal()) {
             log.debug("RMI Remote Object Config element in global mode");
             globalRegistry = new RemoteRegistry();
             globalFactory = new ObjenesisStd();
+            liveRegistries.add(globalRegistry);
         }
     }
 
@@ -110,17 +156,56 @@ public class RMIRemoteObjectConfig
     public void testEnded() {
         if(isGlobal()) {
             log.debug("Stopping RMI Remote Object Config element in global mode");
+            if (globalRegistry != null) {
+                liveRegistries.remove(globalRegistry);
+                int evicted = globalRegistry.release();
+                scopeEnded(evicted);
+                log.info("Dropping " + evicted + " remote handles at end of test");
+            }
             globalRegistry = null;
             globalFactory = null;
         }
+
+        log.info("Remote handles in " + scope() + " scope at end of test: live="
+                 + getLiveHandleCount() + " peak=" + getPeakHandleCount());
+        activeScope = null;
+
+        log.info("Remote references at end of test: "
+                 + RemoteReferenceTracker.getInstance()
+                 .summarize(testStartTracked, testStartCollected,
+                            System.currentTimeMillis() - testStartTime));
+    }
+
+    private void configureDgcClientInterval(final RemoteReferenceTracker tracker) {
+        String interval = JMeterUtils.getProperty(DGC_CLIENT_GC_INTERVAL);
+        if (interval == null || "".equals(interval.trim())) {
+            return;
+        }
+        String current = System.getProperty(SUN_DGC_CLIENT_GC_INTERVAL);
+        if (current != null) {
+            if (!current.equals(interval.trim())) {
+                log.warn(SUN_DGC_CLIENT_GC_INTERVAL + " already set to " + current + ", ignoring "
+                         + DGC_CLIENT_GC_INTERVAL + "=" + interval.trim());
+            }
+            return;
+        }
+        if (tracker.getTrackedCount() > 0) {
+            log.warn(DGC_CLIENT_GC_INTERVAL + " set after remotes were already received;"
+                     + " it has no effect until JMeter is restarted. Start JMeter with -D"
+                     + SUN_DGC_CLIENT_GC_INTERVAL + "=" + interval.trim() + " instead");
+        }
+        // Only effective if the RMI runtime has not yet started its DGC client
+        System.setProperty(SUN_DGC_CLIENT_GC_INTERVAL, interval.trim());
     }
 
     public void threadStarted() {
         log.info("Configuring remote stub registry for thread");
 
         if(!isGlobal()) {
-            this.registry.set(new RemoteRegistry());
+            RemoteRegistry threadRegistry = new RemoteRegistry();
+            this.registry.set(threadRegistry);
             this.factory.set(new ObjenesisStd());
+            liveRegistries.add(threadRegistry);
         }
         else {
             log.debug("Global registry is " + globalRegistry);
@@ -135,17 +220,76 @@ public class RMIRemoteObjectConfig
 
     public void threadFinished() {
         if(!isGlobal()) {
+            RemoteRegistry threadRegistry = registry.get();
+            if (threadRegistry != null) {
+                liveRegistries.remove(threadRegistry);
+                int evicted = threadRegistry.release();
+                scopeEnded(evicted);
+                if (log.isDebugEnabled()) {
+                    log.debug("Dropping " + evicted + " remote handles at end of thread; "
+                              + getLiveHandleCount() + " live in other threads");
+                }
+            }
             registry.remove();
             factory.remove();
+            registryIteration.remove();
         }
     }
 
     public boolean isGlobal() {
-        return getPropertyAsBoolean(IS_GLOBAL);
+        return scope() == RegistryScope.TEST;
+    }
+
+    /**
+     * @return the scope the running test was started with, or the
+     * configured one outside of a test
+     */
+    private RegistryScope scope() {
+        RegistryScope scope = activeScope;
+        return scope != null ? scope : getScope();
     }
 
     public void setGlobal(boolean isGlobal) {
-        setProperty(new BooleanProperty(IS_GLOBAL, isGlobal));
+        setScope(isGlobal ? RegistryScope.TEST : RegistryScope.THREAD);
+    }
+
+    public RegistryScope getScope() {
+        RegistryScope scope = RegistryScope.fromString(getPropertyAsString(SCOPE));
+        if (scope == null) {
+            // Compat: elements saved before scopes were introduced
+            scope = getPropertyAsBoolean(IS_GLOBAL) ? RegistryScope.TEST : RegistryScope.THREAD;
+        }
+        return scope;
+    }
+
+    public void setScope(final RegistryScope scope) {
+        setProperty(new StringProperty(SCOPE, scope.name()));
+        setProperty(new BooleanProperty(IS_GLOBAL, scope == RegistryScope.TEST));
+    }
+
+    /**
+     * @return the number of non-root remote handles currently held
+     * across all live registries of this element
+     */
+    public int getLiveHandleCount() {
+        int count = 0;
+        for (RemoteRegistry r : liveRegistries) {
+            count += r.getHandleCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the largest number of handles held by one instance of
+     * this element's scope (one iteration, thread or test) when it
+     * ended, since the start of the test
+     */
+    public int getPeakHandleCount() {
+        return peakHandleCount.get();
+    }
+
+    private void scopeEnded(final int handleCount) {
+        peakHandleCount.accumulateAndGet(handleCount, Math::max);
     }
 
     public Objenesis getFactory() {
@@ -193,7 +337,32 @@ public class RMIRemoteObjectConfig
         }
         else {
             log.debug("getRegistry(): return thread local registry");
-            return this.registry.get();
+            RemoteRegistry threadRegistry = this.registry.get();
+            if (threadRegistry != null && scope() == RegistryScope.ITERATION) {
+                evictOnNewIteration(threadRegistry);
+            }
+            return threadRegistry;
+        }
+    }
+
+    private void evictOnNewIteration(final RemoteRegistry threadRegistry) {
+        JMeterVariables vars = JMeterContextService.getContext().getVariables();
+        if (vars == null) {
+            return;
+        }
+        int iteration = vars.getIteration();
+        Integer lastIteration = registryIteration.get();
+        if (lastIteration == null) {
+            registryIteration.set(iteration);
+        }
+        else if (lastIteration.intValue() != iteration) {
+            registryIteration.set(iteration);
+            int evicted = threadRegistry.evictHandles();
+            scopeEnded(evicted);
+            if (log.isDebugEnabled()) {
+                log.debug("Dropped " + evicted + " remote handles at end of iteration "
+                          + lastIteration + "; " + getLiveHandleCount() + " live in other threads");
+            }
         }
     }
 }
@@ -7,8 +7,8 @@ import java.io.OutputStream;
 import org.apache.jmeter.samplers.AbstractSampler;
 import org.apache.jmeter.samplers.Entry;
 import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.Sampler;
 import org.apache.jmeter.testelement.TestElement;
-import org.apache.jmeter.testelement.property.TestElementProperty;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -17,9 +17,9 @@ import java.rmi.server.RemoteObject;
 import java.lang.reflect.Method;
 import java.lang.reflect.InvocationTargetException;
 import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.testelement.ThreadListener;
-import org.apache.jmeter.testelement.property.ObjectProperty;
-import org.apache.jmeter.testelement.property.JMeterProperty;
+import org.apache.jmeter.testelement.property.FunctionProperty;
 import org.apache.jmeter.testelement.property.NullProperty;
 import java.rmi.Remote;
 import com.jmibanez.tools.jmeter.gui.RMISamplerGUI;
@@ -44,6 +44,7 @@ import static com.jmibanez.tools.jmeter.util.ArgumentsUtil.unpackArgs;
 public class RMISampler
     extends AbstractSampler
     implements NoThreadClone,
+               TestStateListener,
                ThreadListener {
 
     public static final long serialVersionUID = 6779L;
@@ -60,6 +61,13 @@ public class RMISampler
 
 
     private transient ThreadLocal<Interpreter> interpreter = new ThreadLocal<Interpreter>();
+    private transient ThreadLocal<Object[]> argumentsOverride = new ThreadLocal<Object[]>();
+
+    private transient volatile SamplerConfig config;
+
+    // Attached by JMeter before every sample; kept out of the shared
+    // property map, which other threads read concurrently
+    private transient volatile RMIRemoteObjectConfig remoteObjectConfig;
 
     /**
      * Creates a new <code>RMISampler</code> instance.
@@ -81,11 +89,32 @@ public class RMISampler
         }
     }
 
+    @Override
+    public void testStarted() {
+        config = new SamplerConfig(this);
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    @Override
+    public void testEnded() {
+        config = null;
+        remoteObjectConfig = null;
+    }
+
+    @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
+
     public void threadStarted() {
         Interpreter argInterpreter = new Interpreter();
         interpreter.set(argInterpreter);
         try {
-            argInterpreter.eval(getArgumentsScript());
+            argInterpreter.eval(getConfig().argumentsScript);
         }
         catch(EvalError evalErr) {
             log.warn(getName() + ": Error initially evaluating script: " + evalErr.getMessage(),
@@ -95,6 +124,7 @@ public class RMISampler
 
     public void threadFinished() {
         interpreter.remove();
+        argumentsOverride.remove();
     }
 
     public void setTargetName(final String value) {
@@ -140,11 +170,20 @@ public class RMISampler
 
     public Object[] getArguments()
         throws EvalError {
+        Object[] arguments = argumentsOverride.get();
+        if (arguments != null) {
+            argumentsOverride.remove();
+            return arguments;
+        }
         return fromArgumentsScript();
     }
 
+    /**
+     * Sets the arguments for the next sample taken by the current
+     * thread, in place of those returned by the arguments script.
+     */
     public void setArguments(Object[] arguments) {
-        setProperty(new ObjectProperty(ARGUMENTS, arguments));
+        argumentsOverride.set(arguments);
     }
 
     private Object[] fromArgumentsScript()
@@ -167,14 +206,21 @@ public class RMISampler
 
     protected SampleResult sample() {
         log.debug("Sample called");
+        SamplerConfig cfg = getConfig();
         RMISampleResult res = new RMISampleResult();
         res.sampleStart();
 
-        RMIRemoteObjectConfig remoteObj = getRemoteObjectConfig();
+        RMIRemoteObjectConfig remoteObj = remoteObjectConfig;
+        if (remoteObj == null) {
+            res.sampleEnd();
+            res.setSuccessful(false);
+            res.setResponseMessage("No RMI Remote Object Config in scope");
+            return res;
+        }
 
-        String targetName = getTargetName();
-        String methodName = getMethodName();
-        res.setSampleLabel(generateSampleLabel(targetName, methodName));
+        String targetName = cfg.targetName;
+        String methodName = cfg.methodName;
+        res.setSampleLabel(cfg.sampleLabel);
 
         log.debug("Getting arguments");
         Object[] args;
@@ -208,8 +254,7 @@ public class RMISampler
 
         try {
             Class<?> targetClass = target.getClass();
-            String actualMethodName = getMethodName(methodName);
-            Method m = targetClass.getMethod(actualMethodName, argTypes);
+            Method m = targetClass.getMethod(cfg.actualMethodName, argTypes);
 
             res.setMethod(m);
             res.setArguments(args);
@@ -237,7 +282,7 @@ public class RMISampler
             res.sampleEnd();
             res.setReturnValue(actualEx);
 
-            if(!isExceptionsIgnored()) {
+            if(!cfg.exceptionsIgnored) {
                 res.setSuccessful(false);
             }
         }
@@ -245,7 +290,18 @@ public class RMISampler
         return res;
     }
 
-    private String getMethodName(String methodNameAndArgs) {
+    private SamplerConfig getConfig() {
+        SamplerConfig cfg = config;
+        if (cfg == null || cfg.functional) {
+            // Not started through a test run, or holding functions or
+            // variables to evaluate for this sample; read the
+            // properties as they are now
+            cfg = new SamplerConfig(this);
+        }
+        return cfg;
+    }
+
+    private static String getMethodName(String methodNameAndArgs) {
         if(methodNameAndArgs.indexOf(":") > -1) {
             return methodNameAndArgs.substring(0, methodNameAndArgs.indexOf(":"));
         }
@@ -253,27 +309,49 @@ public class RMISampler
         return methodNameAndArgs;
     }
 
-    private RMIRemoteObjectConfig getRemoteObjectConfig() {
-        return (RMIRemoteObjectConfig) getProperty(REMOTE_OBJECT_CONFIG).getObjectValue();
+    public RMIRemoteObjectConfig getRemoteObjectConfig() {
+        return remoteObjectConfig;
+    }
+
+    /**
+     * @return the remote object config attached to
+     * <code>sampler</code>, an RMI Sampler, RMI Journal Replay
+     * Sampler, or another sampler keeping it in its {@link
+     * #REMOTE_OBJECT_CONFIG} property
+     */
+    public static RMIRemoteObjectConfig getRemoteObjectConfig(final Sampler sampler) {
+        if (sampler instanceof RMISampler) {
+            return ((RMISampler) sampler).getRemoteObjectConfig();
+        }
+        if (sampler instanceof RMIJournalReplaySampler) {
+            return ((RMIJournalReplaySampler) sampler).getRemoteObjectConfig();
+        }
+        return (RMIRemoteObjectConfig) sampler.getProperty(REMOTE_OBJECT_CONFIG).getObjectValue();
     }
 
     private void setRemoteObjectConfig(RMIRemoteObjectConfig value) {
-        RMIRemoteObjectConfig remoteObj = getRemoteObjectConfig();
-        if (remoteObj != null && remoteObj != value) {
-            log.warn(getName() + "Ignoring " + value.getName() + ", existing remote object " + remoteObj.getName(), new Exception());
+        RMIRemoteObjectConfig remoteObj = remoteObjectConfig;
+        if (remoteObj == value) {
+            // Attached again for every sample
             return;
         }
-        JMeterProperty remoteObjProp = new TestElementProperty(REMOTE_OBJECT_CONFIG, value);
-        setProperty(remoteObjProp);
-        setTemporary(remoteObjProp);
+        synchronized (this) {
+            remoteObj = remoteObjectConfig;
+            if (remoteObj == null) {
+                remoteObjectConfig = value;
+            }
+            else if (remoteObj != value) {
+                log.warn(getName() + "Ignoring " + value.getName() + ", existing remote object " + remoteObj.getName(), new Exception());
+            }
+        }
     }
 
     private Interpreter getInterpreter() {
         return interpreter.get();
     }
 
-    private String generateSampleLabel(final String targetName,
-                                       final String methodName) {
+    private static String generateSampleLabel(final String targetName,
+                                              final String methodName) {
         String instanceName = targetName;
         if (instanceName == null) {
             instanceName = "(root)";
@@ -285,4 +363,38 @@ public class RMISampler
     public String toString() {
         return super.toString() +  ": " +  getName();
     }
+
+
+    /**
+     * Immutable snapshot of the sampler's configuration, taken at test
+     * start so that the shared sampler's property map is not read (or
+     * written) on every sample. If the target, method or ignore
+     * exceptions flag holds a function or variable, the snapshot is
+     * taken again for every sample instead.
+     */
+    private static final class SamplerConfig {
+        private final String targetName;
+        private final String methodName;
+        private final String actualMethodName;
+        private final String argumentsScript;
+        private final String sampleLabel;
+        private final boolean exceptionsIgnored;
+        private final boolean functional;
+
+        SamplerConfig(final RMISampler sampler) {
+            this.targetName = sampler.getTargetName();
+            this.methodName = sampler.getMethodName();
+            this.actualMethodName = getMethodName(methodName);
+            this.argumentsScript = sampler.getArgumentsScript();
+            this.sampleLabel = generateSampleLabel(targetName, methodName);
+            this.exceptionsIgnored = sampler.isExceptionsIgnored();
+            this.functional = isFunction(sampler, TARGET_NAME)
+                || isFunction(sampler, METHOD_NAME)
+                || isFunction(sampler, IGNORE_EXCEPTIONS);
+        }
+
+        private static boolean isFunction(final RMISampler sampler, final String name) {
+            return sampler.getProperty(name) instanceof FunctionProperty;
+        }
+    }
 }
@@ -0,0 +1,365 @@
+package com.jmibanez.tools.jmeter;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.rmi.Naming;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jmeter.testelement.property.IntegerProperty;
+import org.apache.jmeter.testelement.property.LongProperty;
+import org.apache.jmeter.testelement.property.StringProperty;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+
+import bsh.EvalError;
+import bsh.Interpreter;
+
+import com.jmibanez.tools.jmeter.impl.RemoteReferenceTracker;
+import com.jmibanez.tools.jmeter.impl.RemoteRegistry;
+
+/**
+ * An RMI Remote Object Config that establishes a pool of session
+ * remotes at test start, and leases one to each thread iteration
+ * under a fixed handle.
+ *
+ * <p>Sessions are created by a BeanShell script that must define a
+ * method named <code>createSession</code>, returning the session
+ * <code>Remote</code>; the root remote is available to the script as
+ * <code>root</code>, and the session number as <code>index</code>.
+ * If a validation method is configured, it is invoked (with no
+ * arguments) on each session before it is leased, and sessions that
+ * fail validation are re-created. If re-creating one fails, its slot
+ * stays in the pool, and the session is created by the next lease
+ * instead.</p>
+ */
+public class RMISessionPoolConfig
+    extends RMIRemoteObjectConfig {
+
+    public static final long serialVersionUID = 43340L;
+
+    public static final String POOL_SIZE = "RmiSessionPool.size";
+    public static final String SESSION_HANDLE = "RmiSessionPool.handle";
+    public static final String SESSION_SCRIPT = "RmiSessionPool.session_script";
+    public static final String VALIDATION_METHOD = "RmiSessionPool.validation_method";
+    public static final String LEASE_TIMEOUT = "RmiSessionPool.lease_timeout";
+
+    public static final long DEFAULT_LEASE_TIMEOUT = 60000L;
+
+    private static Log log = LogFactory.getLog(RMISessionPoolConfig.class);
+
+    // Pool slot of a session still to be (re-)created
+    private static final Remote NO_SESSION = new Remote() {
+        };
+
+    private transient BlockingQueue<Remote> sessions;
+    private transient RemoteRegistry sessionBindings;
+    private transient ThreadLocal<Lease> currentLease = new ThreadLocal<>();
+
+    private transient AtomicInteger sessionCount = new AtomicInteger();
+    private transient AtomicLong leases = new AtomicLong();
+    private transient AtomicLong totalWaitNanos = new AtomicLong();
+    private transient AtomicLong maxWaitNanos = new AtomicLong();
+    private transient AtomicInteger recreated = new AtomicInteger();
+
+    public RMISessionPoolConfig() {
+    }
+
+    @Override
+    public Class<?> getGuiClass() {
+        return com.jmibanez.tools.jmeter.gui.RMISessionPoolConfigGUI.class;
+    }
+
+    @Override
+    public void testStarted() {
+        super.testStarted();
+
+        leases.set(0);
+        totalWaitNanos.set(0);
+        maxWaitNanos.set(0);
+        recreated.set(0);
+        sessionCount.set(0);
+
+        sessions = new LinkedBlockingQueue<>();
+        sessionBindings = new RemoteRegistry();
+
+        Remote root = lookupRoot();
+        int poolSize = getPoolSize();
+        log.info("Creating " + poolSize + " sessions for " + getSessionHandle());
+        for (int i = 0; i < poolSize; i++) {
+            sessions.add(createSession(root));
+        }
+    }
+
+    @Override
+    public void testEnded() {
+        if (sessions != null) {
+            Remote s;
+            while ((s = sessions.poll()) != null) {
+                if (s != NO_SESSION) {
+                    RemoteReferenceTracker.getInstance().release(s);
+                }
+            }
+        }
+        sessions = null;
+        sessionBindings = null;
+
+        log.info(String.format("Session pool %1$s: %2$d leases, wait avg %3$.3f ms, max %4$.3f ms, %5$d sessions re-created",
+                               getSessionHandle(), leases.get(),
+                               getAverageWaitMillis(),
+                               maxWaitNanos.get() / 1e6,
+                               recreated.get()));
+        super.testEnded();
+    }
+
+    @Override
+    public void threadFinished() {
+        Lease lease = currentLease.get();
+        if (lease != null) {
+            returnSession(lease.session);
+            currentLease.remove();
+        }
+        super.threadFinished();
+    }
+
+    @Override
+    public Remote getTarget(final String targetName) {
+        if (isSessionHandle(targetName)) {
+            return leaseForIteration();
+        }
+        return super.getTarget(targetName);
+    }
+
+    @Override
+    public Class<?>[] getArgumentTypes(final String targetName, final String methodName) {
+        if (isSessionHandle(targetName)) {
+            return sessionBindings.getArgumentTypes(targetName, methodName);
+        }
+        return super.getArgumentTypes(targetName, methodName);
+    }
+
+    @Override
+    public void setArgumentTypes(String targetName, String methodName, Class<?>[] argTypes) {
+        if (isSessionHandle(targetName)) {
+            sessionBindings.setArgumentTypes(targetName, methodName, argTypes);
+            return;
+        }
+        super.setArgumentTypes(targetName, methodName, argTypes);
+    }
+
+    /**
+     * @return the average time threads waited for a session lease,
+     * in milliseconds
+     */
+    public double getAverageWaitMillis() {
+        long leaseCount = leases.get();
+        return leaseCount == 0 ? 0.0 : totalWaitNanos.get() / 1e6 / leaseCount;
+    }
+
+    public int getAvailableSessions() {
+        return sessions == null ? 0 : sessions.size();
+    }
+
+    private boolean isSessionHandle(final String targetName) {
+        return targetName != null && targetName.equals(getSessionHandle());
+    }
+
+    private Remote leaseForIteration() {
+        JMeterVariables vars = JMeterContextService.getContext().getVariables();
+        int iteration = vars != null ? vars.getIteration() : 0;
+
+        Lease lease = currentLease.get();
+        if (lease != null) {
+            if (lease.iteration == iteration) {
+                return lease.session;
+            }
+            returnSession(lease.session);
+            currentLease.remove();
+        }
+
+        Remote session = borrowSession();
+        currentLease.set(new Lease(session, iteration));
+        return session;
+    }
+
+    private Remote borrowSession() {
+        if (sessions == null) {
+            throw new IllegalStateException("Session pool " + getSessionHandle() + " not started");
+        }
+
+        long start = System.nanoTime();
+        Remote session;
+        try {
+            session = sessions.poll(getLeaseTimeout(), TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for session " + getSessionHandle());
+        }
+        long waited = System.nanoTime() - start;
+
+        leases.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        long max;
+        while (waited > (max = maxWaitNanos.get())
+               && !maxWaitNanos.compareAndSet(max, waited)) {
+        }
+
+        if (session == null) {
+            throw new IllegalStateException("Timed out waiting for session " + getSessionHandle());
+        }
+
+        if (session == NO_SESSION || !isValid(session)) {
+            if (session != NO_SESSION) {
+                log.info("Session " + getSessionHandle() + " failed validation, re-creating");
+                RemoteReferenceTracker.getInstance().release(session);
+            }
+            recreated.incrementAndGet();
+            try {
+                session = createSession(lookupRoot());
+            }
+            catch(RuntimeException createEx) {
+                // Keep the slot, so that the pool doesn't shrink
+                // while the server is unavailable
+                sessions.offer(NO_SESSION);
+                throw createEx;
+            }
+        }
+        return session;
+    }
+
+    private Remote lookupRoot() {
+        try {
+            return Naming.lookup(getTargetRmiName());
+        }
+        catch(Exception lookupEx) {
+            throw new RuntimeException(lookupEx);
+        }
+    }
+
+    private void returnSession(final Remote session) {
+        BlockingQueue<Remote> pool = sessions;
+        if (pool != null) {
+            pool.offer(session);
+        }
+    }
+
+    private boolean isValid(final Remote session) {
+        String validationMethod = getValidationMethod();
+        if (validationMethod == null || "".equals(validationMethod.trim())) {
+            return true;
+        }
+
+        try {
+            Method m = session.getClass().getMethod(validationMethod.trim());
+            m.invoke(session);
+            return true;
+        }
+        catch(InvocationTargetException invokEx) {
+            log.debug("Session validation failed", invokEx.getCause());
+            return false;
+        }
+        catch(NoSuchMethodException | IllegalAccessException ex) {
+            log.warn("Couldn't invoke session validation method " + validationMethod, ex);
+            return true;
+        }
+    }
+
+    /**
+     * Not synchronized, so that a slow login only holds up the thread
+     * waiting for it; <code>sessionBindings</code> is safe to share.
+     */
+    private Remote createSession(final Remote root) {
+        int index = sessionCount.getAndIncrement();
+        Interpreter interpreter = new Interpreter();
+        Object session;
+        try {
+            interpreter.set("root", root);
+            interpreter.set("index", index);
+            interpreter.eval(getSessionScript());
+            session = interpreter.eval("createSession();");
+        }
+        catch(EvalError evalErr) {
+            log.error(getName() + ": Error evaluating session script: " + evalErr.getMessage(),
+                      evalErr);
+            throw new RuntimeException(evalErr);
+        }
+
+        if (!(session instanceof Remote)) {
+            throw new IllegalStateException("Session script for " + getSessionHandle()
+                                            + " did not return a Remote: " + session);
+        }
+
+        Remote remote = (Remote) session;
+        try {
+            if (sessionBindings.getTarget(getSessionHandle()) == null) {
+                sessionBindings.registerRmiInstance(getSessionHandle(), remote);
+            }
+            else {
+                RemoteReferenceTracker.getInstance().track(remote);
+            }
+        }
+        catch(RemoteException remoteEx) {
+            throw new RuntimeException(remoteEx);
+        }
+        return remote;
+    }
+
+    public int getPoolSize() {
+        return getPropertyAsInt(POOL_SIZE, 1);
+    }
+
+    public void setPoolSize(final int poolSize) {
+        setProperty(new IntegerProperty(POOL_SIZE, poolSize));
+    }
+
+    public String getSessionHandle() {
+        return getPropertyAsString(SESSION_HANDLE);
+    }
+
+    public void setSessionHandle(final String handle) {
+        setProperty(new StringProperty(SESSION_HANDLE, handle));
+    }
+
+    public String getSessionScript() {
+        return getPropertyAsString(SESSION_SCRIPT);
+    }
+
+    public void setSessionScript(final String script) {
+        setProperty(new StringProperty(SESSION_SCRIPT, script));
+    }
+
+    public String getValidationMethod() {
+        return getPropertyAsString(VALIDATION_METHOD);
+    }
+
+    public void setValidationMethod(final String method) {
+        setProperty(new StringProperty(VALIDATION_METHOD, method));
+    }
+
+    public long getLeaseTimeout() {
+        return getPropertyAsLong(LEASE_TIMEOUT, DEFAULT_LEASE_TIMEOUT);
+    }
+
+    public void setLeaseTimeout(final long timeout) {
+        setProperty(new LongProperty(LEASE_TIMEOUT, timeout));
+    }
+
+
+    private static final class Lease {
+        private final Remote session;
+        private final int iteration;
+
+        Lease(final Remote session, final int iteration) {
+            this.session = session;
+            this.iteration = iteration;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.jmibanez.tools.jmeter;
+
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.testelement.property.LongProperty;
+import org.apache.jmeter.timers.Timer;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * Waits for the think time recorded before a call, i.e. the time
+ * between the end of the previous recorded call and the start of this
+ * one, divided by the pacing factor.
+ */
+public class RecordedThinkTimer
+    extends AbstractTestElement
+    implements Timer {
+
+    public static final long serialVersionUID = 6781L;
+
+    public static final String THINK_TIME = "RecordedThinkTimer.think_time";
+
+    /**
+     * JMeter property: recorded think times are divided by this, so
+     * 1 replays in real time and 10 ten times faster. 0 replays
+     * without think time.
+     */
+    public static final String PACING_FACTOR = "rmiReplay.pacingFactor";
+    public static final float DEFAULT_PACING_FACTOR = 1.0f;
+
+    public RecordedThinkTimer() {
+    }
+
+    public long getThinkTime() {
+        return getPropertyAsLong(THINK_TIME);
+    }
+
+    public void setThinkTime(long millis) {
+        setProperty(new LongProperty(THINK_TIME, millis));
+    }
+
+    public long delay() {
+        return scale(getThinkTime(), getPacingFactor());
+    }
+
+    public static float getPacingFactor() {
+        return JMeterUtils.getPropDefault(PACING_FACTOR, DEFAULT_PACING_FACTOR);
+    }
+
+    /**
+     * @return <code>millis</code> of recorded think time, paced by
+     * <code>factor</code>
+     */
+    public static long scale(final long millis, final float factor) {
+        if (millis <= 0 || factor <= 0 || Float.isNaN(factor)) {
+            return 0;
+        }
+        return Math.round(millis / (double) factor);
+    }
+}
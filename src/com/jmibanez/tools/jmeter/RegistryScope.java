@@ -0,0 +1,22 @@
+package com.jmibanez.tools.jmeter;
+
+/**
+ * Lifetime of the remote handles registered with an
+ * <code>RMIRemoteObjectConfig</code>. Handles (other than the root
+ * remote) are dropped from the registry once their scope ends.
+ */
+public enum RegistryScope {
+    /** One registry shared by all threads, dropped at test end */
+    TEST,
+    /** One registry per thread, dropped when the thread finishes */
+    THREAD,
+    /** One registry per thread, emptied at each new iteration */
+    ITERATION;
+
+    public static RegistryScope fromString(final String value) {
+        if (value == null || "".equals(value.trim())) {
+            return null;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+}
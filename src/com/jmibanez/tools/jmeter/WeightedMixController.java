@@ -0,0 +1,207 @@
+package com.jmibanez.tools.jmeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jmeter.control.InterleaveControl;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.testelement.property.StringProperty;
+
+import com.jmibanez.tools.jmeter.journal.RecordingJournal;
+import com.jmibanez.tools.jmeter.journal.WorkloadAnalyzer;
+import com.jmibanez.tools.jmeter.util.AliasTable;
+
+/**
+ * Runs one of its children per iteration, picked at random in
+ * proportion to its weight.
+ *
+ * <p>Weights are given by child name, one <code>name=weight</code>
+ * per line. If a recording journal is given, RMI samplers without a
+ * weight are weighted by how often their method was called in the
+ * recording; other children weigh 1.</p>
+ *
+ * <p>Each thread has its own copy of the controller, and picks with
+ * {@link ThreadLocalRandom}, so threads share no state.</p>
+ */
+public class WeightedMixController
+    extends InterleaveControl {
+
+    public static final long serialVersionUID = 6782L;
+
+    public static final String WEIGHTS = "WeightedMixController.weights";
+    public static final String JOURNAL_DIRECTORY = "WeightedMixController.journal_directory";
+
+    public static final double DEFAULT_WEIGHT = 1.0;
+
+    private static Log log = LogFactory.getLog(WeightedMixController.class);
+
+    // Call counts per method in the journals read so far, by
+    // directory; read again if the journal's segments change
+    private static final Map<String, RecordedMix> recordedMixes = new ConcurrentHashMap<>();
+
+    private transient AliasTable table;
+
+    public WeightedMixController() {
+    }
+
+    public String getWeights() {
+        return getPropertyAsString(WEIGHTS);
+    }
+
+    public void setWeights(String weights) {
+        setProperty(new StringProperty(WEIGHTS, weights));
+    }
+
+    public String getJournalDirectory() {
+        return getPropertyAsString(JOURNAL_DIRECTORY);
+    }
+
+    public void setJournalDirectory(String directory) {
+        setProperty(new StringProperty(JOURNAL_DIRECTORY, directory));
+    }
+
+    @Override
+    protected void resetCurrent() {
+        current = pick();
+    }
+
+    @Override
+    protected void incrementCurrent() {
+        super.incrementCurrent();
+        current = pick();
+    }
+
+    private int pick() {
+        List<TestElement> children = getSubControllers();
+        if (children.isEmpty()) {
+            return 0;
+        }
+        if (table == null || table.size() != children.size()) {
+            table = new AliasTable(weightsOf(children));
+        }
+        return table.next(ThreadLocalRandom.current());
+    }
+
+    /**
+     * @return the weight of each of <code>children</code>
+     */
+    double[] weightsOf(final List<TestElement> children) {
+        Map<String, Double> given = parseWeights(getWeights());
+        Map<String, Long> recorded = recordedMix(getJournalDirectory());
+
+        double[] weights = new double[children.size()];
+        for (int i = 0; i < weights.length; i++) {
+            TestElement child = children.get(i);
+            Double weight = given.get(child.getName());
+            if (weight == null && recorded != null && child instanceof RMISampler) {
+                Long calls = recorded.get(((RMISampler) child).getMethodName());
+                weight = calls == null ? 0.0 : calls.doubleValue();
+            }
+            weights[i] = weight == null ? DEFAULT_WEIGHT : weight;
+        }
+        return weights;
+    }
+
+    /**
+     * Lines that can't be parsed, or have negative weights, are
+     * logged and ignored.
+     */
+    static Map<String, Double> parseWeights(final String weights) {
+        Map<String, Double> parsed = new HashMap<>();
+        if (weights == null) {
+            return parsed;
+        }
+        for (String line: weights.split("\r?\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("//")) {
+                continue;
+            }
+            int eq = line.lastIndexOf('=');
+            try {
+                if (eq <= 0) {
+                    throw new NumberFormatException("no weight");
+                }
+                double weight = Double.parseDouble(line.substring(eq + 1).trim());
+                if (!(weight >= 0) || Double.isInfinite(weight)) {
+                    throw new NumberFormatException("bad weight");
+                }
+                parsed.put(line.substring(0, eq).trim(), weight);
+            }
+            catch (NumberFormatException badLine) {
+                log.warn("Ignoring weight \"" + line + "\": " + badLine.getMessage());
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * @return call counts by mangled method name, or null if there is
+     * no journal or it can't be read
+     */
+    private static Map<String, Long> recordedMix(final String directory) {
+        if (directory == null || directory.trim().isEmpty()) {
+            return null;
+        }
+        String key = new File(directory.trim()).getAbsolutePath();
+        String stamp = journalStamp(new File(key));
+        RecordedMix mix = recordedMixes.get(key);
+        if (mix != null && mix.stamp.equals(stamp)) {
+            return mix.counts;
+        }
+        // Every thread starts by asking for the same journal; read it once
+        synchronized (recordedMixes) {
+            mix = recordedMixes.get(key);
+            if (mix != null && mix.stamp.equals(stamp)) {
+                return mix.counts;
+            }
+            try {
+                WorkloadAnalyzer analyzer = WorkloadAnalyzer.analyze(new File(key));
+                Map<String, Long> counts = new HashMap<>();
+                for (String method: analyzer.getMethods()) {
+                    counts.put(method, analyzer.getCallCount(method));
+                }
+                mix = new RecordedMix(stamp, Collections.unmodifiableMap(counts));
+                recordedMixes.put(key, mix);
+                return mix.counts;
+            }
+            catch (IOException ioEx) {
+                log.error("Couldn't read recorded mix from " + key + ", using default weights", ioEx);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the names, sizes and modification times of the segments
+     * of the journal in <code>directory</code>, which change whenever
+     * it is recorded again
+     */
+    private static String journalStamp(final File directory) {
+        StringBuilder stamp = new StringBuilder();
+        for (File f: RecordingJournal.listSegments(directory)) {
+            stamp.append(f.getName()).append(' ')
+                .append(f.length()).append(' ')
+                .append(f.lastModified()).append('\n');
+        }
+        return stamp.toString();
+    }
+
+
+    private static final class RecordedMix {
+        private final String stamp;
+        private final Map<String, Long> counts;
+
+        RecordedMix(final String stamp, final Map<String, Long> counts) {
+            this.stamp = stamp;
+            this.counts = counts;
+        }
+    }
+}
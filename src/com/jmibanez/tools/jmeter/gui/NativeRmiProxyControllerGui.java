@@ -32,6 +32,11 @@ import org.apache.jmeter.util.JMeterUtils;
 import java.util.Arrays;
 import org.apache.jmeter.gui.util.MenuFactory;
 import javax.swing.JTextField;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import com.jmibanez.tools.jmeter.impl.AsyncMethodRecorder;
 import java.awt.event.KeyListener;
 import javax.swing.JLabel;
 import java.awt.event.KeyListener;
@@ -59,6 +64,20 @@ public class NativeRmiProxyControllerGui extends LogicControllerGui implements K
     private static final String PROXYPORT_FIELD = "proxyPort";
     private static final String SAMPLERNAMEFORMAT_FIELD = "samplerNameFormat";
     private static final String BINDINGSCRIPT_FIELD = "bindingScript";
+    private static final String FORWARDORIGINALARGS_FIELD = "forwardOriginalArguments";
+    private static final String INCLUDES_FIELD = "recordingIncludes";
+    private static final String EXCLUDES_FIELD = "recordingExcludes";
+    private static final String SAMPLING_FIELD = "recordingSampling";
+    private static final String JOURNALDIR_FIELD = "journalDirectory";
+    private static final String GENERATESAMPLERS_FIELD = "generateSamplers";
+    private static final String ADDTHINKTIMERS_FIELD = "addThinkTimers";
+    private static final String GROUPBYCLIENT_FIELD = "groupByClient";
+    private static final String QUEUESIZE_FIELD = "recordingQueueSize";
+    private static final String OVERFLOWPOLICY_FIELD = "recordingOverflowPolicy";
+    private static final String FLIGHTRECORDERSIZE_FIELD = "flightRecorderSize";
+    private static final String FLIGHTRECORDERLATENCY_FIELD = "flightRecorderLatencyTrigger";
+    private static final String FLIGHTRECORDERERROR_FIELD = "flightRecorderErrorTrigger";
+    private static final String CONTROLPORT_FIELD = "controlPort";
 
     private static final String START = "start";
     private static final String STOP = "stop";
@@ -69,6 +88,20 @@ public class NativeRmiProxyControllerGui extends LogicControllerGui implements K
     private JTextField proxyNamingPort;
     private JTextField proxyPort;
     private JTextField samplerNameFormat;
+    private JCheckBox forwardOriginalArguments;
+    private JTextArea recordingIncludes;
+    private JTextArea recordingExcludes;
+    private JTextArea recordingSampling;
+    private JTextField journalDirectory;
+    private JCheckBox generateSamplers;
+    private JCheckBox addThinkTimers;
+    private JCheckBox groupByClient;
+    private JTextField recordingQueueSize;
+    private JComboBox<AsyncMethodRecorder.OverflowPolicy> recordingOverflowPolicy;
+    private JTextField flightRecorderSize;
+    private JTextField flightRecorderLatencyTrigger;
+    private JCheckBox flightRecorderErrorTrigger;
+    private JTextField controlPort;
     private JSyntaxTextArea bindingScript;
     private JTextScrollPane scroller;
 
@@ -109,8 +142,10 @@ public class NativeRmiProxyControllerGui extends LogicControllerGui implements K
     public void keyReleased(KeyEvent e) {
         String fieldName = e.getComponent().getName();
 
-        if (fieldName.equals(PROXYPORT_FIELD) || fieldName.equals(PROXYNAMINGPORT_FIELD)) {
-            JTextField field = fieldName.equals(PROXYNAMINGPORT_FIELD) ? proxyNamingPort : proxyPort;
+        if (fieldName.equals(PROXYPORT_FIELD) || fieldName.equals(PROXYNAMINGPORT_FIELD)
+            || fieldName.equals(QUEUESIZE_FIELD) || fieldName.equals(FLIGHTRECORDERSIZE_FIELD)
+            || fieldName.equals(FLIGHTRECORDERLATENCY_FIELD) || fieldName.equals(CONTROLPORT_FIELD)) {
+            JTextField field = (JTextField) e.getComponent();
 
             try {
                 Integer.parseInt(field.getText());
@@ -165,6 +200,14 @@ public class NativeRmiProxyControllerGui extends LogicControllerGui implements K
 
                 model.bindProxy();
             }
+            catch(IllegalArgumentException badFilter) {
+                start.setEnabled(true);
+                stop.setEnabled(false);
+                JOptionPane.showMessageDialog(this,
+                                              badFilter.getMessage(),
+                                              "Invalid recording filter",
+                                              JOptionPane.ERROR_MESSAGE);
+            }
             catch(InvalidVariableException e) {
                 JOptionPane.showMessageDialog(this,
                                               JMeterUtils.getResString("invalid_variables"),
@@ -243,6 +286,26 @@ public class NativeRmiProxyControllerGui extends LogicControllerGui implements K
             model.setProxyNamingPort(proxyNamingPort.getText());
             model.setProxyPort(proxyPort.getText());
             model.setSamplerNameFormat(samplerNameFormat.getText());
+            model.setForwardOriginalArguments(forwardOriginalArguments.isSelected());
+            model.setJournalDirectory(journalDirectory.getText());
+            model.setGenerateSamplers(generateSamplers.isSelected());
+            model.setAddThinkTimers(addThinkTimers.isSelected());
+            model.setGroupByClient(groupByClient.isSelected());
+            model.setRecordingIncludes(recordingIncludes.getText());
+            model.setRecordingExcludes(recordingExcludes.getText());
+            model.setRecordingSampling(recordingSampling.getText());
+            try {
+                model.setRecordingQueueSize(Integer.parseInt(recordingQueueSize.getText().trim()));
+            }
+            catch(NumberFormatException nfe) {
+                model.setRecordingQueueSize(AsyncMethodRecorder.DEFAULT_QUEUE_SIZE);
+            }
+            model.setRecordingOverflowPolicy((AsyncMethodRecorder.OverflowPolicy)
+                                             recordingOverflowPolicy.getSelectedItem());
+            model.setFlightRecorderSize(parseInt(flightRecorderSize.getText()));
+            model.setFlightRecorderLatencyTrigger(parseInt(flightRecorderLatencyTrigger.getText()));
+            model.setFlightRecorderErrorTrigger(flightRecorderErrorTrigger.isSelected());
+            model.setControlPort(parseInt(controlPort.getText()));
             model.setBindingScript(bindingScript.getText());
         }
     }
@@ -259,10 +322,36 @@ public class NativeRmiProxyControllerGui extends LogicControllerGui implements K
         proxyNamingPort.setText(Integer.toString(model.getProxyNamingPort()));
         proxyPort.setText(Integer.toString(model.getProxyPort()));
         samplerNameFormat.setText(model.getSamplerNameFormat());
+        forwardOriginalArguments.setSelected(model.isForwardOriginalArguments());
+        journalDirectory.setText(model.getJournalDirectory());
+        generateSamplers.setSelected(model.isGenerateSamplers());
+        addThinkTimers.setSelected(model.isAddThinkTimers());
+        groupByClient.setSelected(model.isGroupByClient());
+        recordingIncludes.setText(model.getRecordingIncludes());
+        recordingExcludes.setText(model.getRecordingExcludes());
+        recordingSampling.setText(model.getRecordingSampling());
+        recordingQueueSize.setText(Integer.toString(model.getRecordingQueueSize()));
+        recordingOverflowPolicy.setSelectedItem(model.getRecordingOverflowPolicy());
+        flightRecorderSize.setText(Integer.toString(model.getFlightRecorderSize()));
+        flightRecorderLatencyTrigger.setText(Integer.toString(model.getFlightRecorderLatencyTrigger()));
+        flightRecorderErrorTrigger.setSelected(model.isFlightRecorderErrorTrigger());
+        controlPort.setText(Integer.toString(model.getControlPort()));
         bindingScript.setText(model.getBindingScript());
     }
 
 
+    /**
+     * @return <code>text</code> as a number, or 0 if it isn't one
+     */
+    private static int parseInt(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        }
+        catch(NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
     /**
      * Describe <code>clearGui</code> method here.
      *
@@ -308,12 +397,82 @@ public class NativeRmiProxyControllerGui extends LogicControllerGui implements K
         JLabel samplerNameFormatLabel = new JLabel("Sampler Name Format [1: Target; 2: Call Index; 3: Method; 4: Args]");
         samplerNameFormatLabel.setLabelFor(samplerNameFormat);
 
+        forwardOriginalArguments = new JCheckBox("Forward original arguments (don't copy before calling server)");
+        forwardOriginalArguments.setName(FORWARDORIGINALARGS_FIELD);
+
+        recordingIncludes = new JTextArea(3, 20);
+        recordingIncludes.setName(INCLUDES_FIELD);
+        JLabel includesLabel = new JLabel("Record Only [target#]method");
+        includesLabel.setLabelFor(recordingIncludes);
+
+        recordingExcludes = new JTextArea(3, 20);
+        recordingExcludes.setName(EXCLUDES_FIELD);
+        JLabel excludesLabel = new JLabel("Don't Record [target#]method");
+        excludesLabel.setLabelFor(recordingExcludes);
+
+        recordingSampling = new JTextArea(3, 20);
+        recordingSampling.setName(SAMPLING_FIELD);
+        JLabel samplingLabel = new JLabel("Sample [target#]method=ratio");
+        samplingLabel.setLabelFor(recordingSampling);
+
+        journalDirectory = new JTextField("", 40);
+        journalDirectory.setName(JOURNALDIR_FIELD);
+
+        JLabel journalLabel = new JLabel("Journal Directory (empty: no journal)");
+        journalLabel.setLabelFor(journalDirectory);
+
+        generateSamplers = new JCheckBox("Generate samplers", true);
+        generateSamplers.setName(GENERATESAMPLERS_FIELD);
+
+        addThinkTimers = new JCheckBox("Add timers with recorded think time");
+        addThinkTimers.setName(ADDTHINKTIMERS_FIELD);
+
+        groupByClient = new JCheckBox("Group samplers by client");
+        groupByClient.setName(GROUPBYCLIENT_FIELD);
+
+        recordingQueueSize = new JTextField(Integer.toString(AsyncMethodRecorder.DEFAULT_QUEUE_SIZE), 5);
+        recordingQueueSize.setName(QUEUESIZE_FIELD);
+        recordingQueueSize.addKeyListener(this);
+
+        JLabel queueSizeLabel = new JLabel("Recording Queue Size");
+        queueSizeLabel.setLabelFor(recordingQueueSize);
+
+        recordingOverflowPolicy = new JComboBox<>(AsyncMethodRecorder.OverflowPolicy.values());
+        recordingOverflowPolicy.setName(OVERFLOWPOLICY_FIELD);
+
+        JLabel overflowLabel = new JLabel("When Queue Is Full");
+        overflowLabel.setLabelFor(recordingOverflowPolicy);
+
+        flightRecorderSize = new JTextField("0", 5);
+        flightRecorderSize.setName(FLIGHTRECORDERSIZE_FIELD);
+        flightRecorderSize.addKeyListener(this);
+
+        JLabel flightRecorderSizeLabel = new JLabel("Flight Recorder MB (0: record all)");
+        flightRecorderSizeLabel.setLabelFor(flightRecorderSize);
+
+        flightRecorderLatencyTrigger = new JTextField("0", 5);
+        flightRecorderLatencyTrigger.setName(FLIGHTRECORDERLATENCY_FIELD);
+        flightRecorderLatencyTrigger.addKeyListener(this);
+
+        JLabel flightRecorderLatencyLabel = new JLabel("Dump When a Call Takes ms (0: never)");
+        flightRecorderLatencyLabel.setLabelFor(flightRecorderLatencyTrigger);
+
+        flightRecorderErrorTrigger = new JCheckBox("Dump when a call throws");
+        flightRecorderErrorTrigger.setName(FLIGHTRECORDERERROR_FIELD);
+
+        controlPort = new JTextField("0", 5);
+        controlPort.setName(CONTROLPORT_FIELD);
+        controlPort.addKeyListener(this);
+
+        JLabel controlPortLabel = new JLabel("Control Port (0: none)");
+        controlPortLabel.setLabelFor(controlPort);
+
         JPanel configBox = new HorizontalPanel();
 
         JPanel configLeftBox = new VerticalPanel();
-        configLeftBox.setPreferredSize(new Dimension(400, 120));
+        configLeftBox.setPreferredSize(new Dimension(400, 300));
         JPanel configRightBox = new VerticalPanel();
-        configRightBox.setPreferredSize(new Dimension(0, 120));
+        configRightBox.setPreferredSize(new Dimension(0, 300));
 
         JPanel targetRmiPanel = new VerticalPanel();
         targetRmiPanel.add(label);
@@ -324,6 +483,15 @@ public class NativeRmiProxyControllerGui extends LogicControllerGui implements K
         samplerNameFormatPanel.add(samplerNameFormatLabel);
         samplerNameFormatPanel.add(samplerNameFormat);
         configLeftBox.add(samplerNameFormatPanel);
+        configLeftBox.add(forwardOriginalArguments);
+
+        JPanel journalPanel = new VerticalPanel();
+        journalPanel.add(journalLabel);
+        journalPanel.add(journalDirectory);
+        journalPanel.add(generateSamplers);
+        journalPanel.add(addThinkTimers);
+        journalPanel.add(groupByClient);
+        configLeftBox.add(journalPanel);
 
         JPanel proxyNamingPortPanel = new VerticalPanel();
         proxyNamingPortPanel.add(nPortLabel);
@@ -335,9 +503,40 @@ public class NativeRmiProxyControllerGui extends LogicControllerGui implements K
         proxyPortPanel.add(proxyPort);
         configRightBox.add(proxyPortPanel);
 
+        JPanel recordingQueuePanel = new VerticalPanel();
+        recordingQueuePanel.add(queueSizeLabel);
+        recordingQueuePanel.add(recordingQueueSize);
+        recordingQueuePanel.add(overflowLabel);
+        recordingQueuePanel.add(recordingOverflowPolicy);
+        configRightBox.add(recordingQueuePanel);
+
+        JPanel flightRecorderPanel = new VerticalPanel();
+        flightRecorderPanel.add(flightRecorderSizeLabel);
+        flightRecorderPanel.add(flightRecorderSize);
+        flightRecorderPanel.add(flightRecorderLatencyLabel);
+        flightRecorderPanel.add(flightRecorderLatencyTrigger);
+        flightRecorderPanel.add(flightRecorderErrorTrigger);
+        flightRecorderPanel.add(controlPortLabel);
+        flightRecorderPanel.add(controlPort);
+        configRightBox.add(flightRecorderPanel);
+
         configBox.add(configLeftBox);
         configBox.add(configRightBox);
 
+        JPanel filterBox = new HorizontalPanel();
+        JPanel includesPanel = new VerticalPanel();
+        includesPanel.add(includesLabel);
+        includesPanel.add(new JScrollPane(recordingIncludes));
+        filterBox.add(includesPanel);
+        JPanel excludesPanel = new VerticalPanel();
+        excludesPanel.add(excludesLabel);
+        excludesPanel.add(new JScrollPane(recordingExcludes));
+        filterBox.add(excludesPanel);
+        JPanel samplingPanel = new VerticalPanel();
+        samplingPanel.add(samplingLabel);
+        samplingPanel.add(new JScrollPane(recordingSampling));
+        filterBox.add(samplingPanel);
+
         bindingScript = JSyntaxTextArea.getInstance(20, 20);
         scroller = JTextScrollPane.getInstance(bindingScript, true);
         bindingScript.discardAllEdits();
@@ -351,6 +550,7 @@ public class NativeRmiProxyControllerGui extends LogicControllerGui implements K
 
         JPanel configPanel = new VerticalPanel();
         configPanel.add(configBox, BorderLayout.NORTH);
+        configPanel.add(filterBox);
         configPanel.add(bindScriptPanel, BorderLayout.CENTER);
         add(configPanel, BorderLayout.CENTER);
 
@@ -0,0 +1,98 @@
+package com.jmibanez.tools.jmeter.gui;
+
+import java.awt.BorderLayout;
+import javax.swing.Box;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+
+import org.apache.jmeter.gui.util.VerticalPanel;
+import org.apache.jmeter.samplers.gui.AbstractSamplerGui;
+import org.apache.jmeter.testelement.TestElement;
+
+import com.jmibanez.tools.jmeter.RMIJournalReplaySampler;
+
+public class RMIJournalReplaySamplerGUI extends AbstractSamplerGui {
+
+    public static final long serialVersionUID = 1112231L;
+
+    private static final String JOURNALDIR_FIELD = "journalDirectory";
+
+    private JTextField journalDirectory;
+    private JCheckBox ignExceptions;
+    private JCheckBox replayThinkTime;
+    private JCheckBox clientPerThread;
+
+    private RMIJournalReplaySampler model;
+
+    public RMIJournalReplaySamplerGUI() {
+        super();
+        journalDirectory = new JTextField("", 40);
+        ignExceptions = new JCheckBox("Ignore Exceptions");
+        replayThinkTime = new JCheckBox("Replay think time");
+        clientPerThread = new JCheckBox("One recorded client per thread");
+
+        init();
+    }
+
+    @Override
+    public void configure(TestElement e) {
+        super.configure(e);
+        model = (RMIJournalReplaySampler) e;
+        journalDirectory.setText(model.getJournalDirectory());
+        ignExceptions.setSelected(model.isExceptionsIgnored());
+        replayThinkTime.setSelected(model.isThinkTimeReplayed());
+        clientPerThread.setSelected(model.isClientPerThread());
+    }
+
+    public void modifyTestElement(TestElement element) {
+        super.configureTestElement(element);
+        if(element instanceof RMIJournalReplaySampler) {
+            model = (RMIJournalReplaySampler) element;
+            model.setJournalDirectory(journalDirectory.getText());
+            model.setExceptionsIgnored(ignExceptions.isSelected());
+            model.setThinkTimeReplayed(replayThinkTime.isSelected());
+            model.setClientPerThread(clientPerThread.isSelected());
+        }
+    }
+
+    public TestElement createTestElement() {
+        RMIJournalReplaySampler sampler = new RMIJournalReplaySampler();
+        modifyTestElement(sampler);
+        return sampler;
+    }
+
+    public String getLabelResource() {
+        return "rmi_journal_replay_sampler";
+    }
+
+    public String getStaticLabel() {
+        return "RMI Journal Replay Sampler";
+    }
+
+
+    private void init() {
+        setLayout(new BorderLayout(0, 5));
+        setBorder(makeBorder());
+
+        add(makeTitlePanel(), BorderLayout.NORTH);
+
+        journalDirectory.setName(JOURNALDIR_FIELD);
+
+        JLabel journalLabel = new JLabel("Journal directory");
+        journalLabel.setLabelFor(journalDirectory);
+
+        Box b = Box.createHorizontalBox();
+        b.add(journalLabel);
+        b.add(journalDirectory);
+        b.add(ignExceptions);
+        b.add(replayThinkTime);
+        b.add(clientPerThread);
+
+        JPanel configPanel = new VerticalPanel();
+        configPanel.add(b, BorderLayout.NORTH);
+
+        add(configPanel, BorderLayout.CENTER);
+    }
+}
@@ -12,7 +12,8 @@ import org.apache.jmeter.testelement.TestElement;
 import java.awt.BorderLayout;
 import javax.swing.Box;
 import com.jmibanez.tools.jmeter.RMIRemoteObjectConfig;
-import javax.swing.JCheckBox;
+import com.jmibanez.tools.jmeter.RegistryScope;
+import javax.swing.JComboBox;
 import javax.swing.JTextField;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -32,10 +33,10 @@ public class RMIRemoteObjectConfigGUI extends AbstractConfigGui {
     public static final long serialVersionUID = 98030L;
 
     private static final String TARGETNAME_FIELD = "targetRmiName";
-    private static final String ISGLOBAL_FIELD = "isGlobal";
+    private static final String SCOPE_FIELD = "scope";
 
     private JTextField targetRmiName;
-    private JCheckBox isGlobal;
+    private JComboBox<RegistryScope> scope;
 
     private RMIRemoteObjectConfig model;
 
@@ -61,7 +62,7 @@ public class RMIRemoteObjectConfigGUI extends AbstractConfigGui {
         if(element instanceof RMIRemoteObjectConfig) {
             model = (RMIRemoteObjectConfig) element;
             model.setTargetRmiName(targetRmiName.getText());
-            model.setGlobal(isGlobal.isSelected());
+            model.setScope((RegistryScope) scope.getSelectedItem());
         }
     }
 
@@ -76,7 +77,7 @@ public class RMIRemoteObjectConfigGUI extends AbstractConfigGui {
         super.configure(e);
         model = (RMIRemoteObjectConfig) e;
         targetRmiName.setText(model.getTargetRmiName());
-        isGlobal.setSelected(model.isGlobal());
+        scope.setSelectedItem(model.getScope());
     }
 
     private void init() {
@@ -93,10 +94,15 @@ public class RMIRemoteObjectConfigGUI extends AbstractConfigGui {
         JLabel targetLabel = new JLabel("Target RMI name");
         targetLabel.setLabelFor(targetRmiName);
 
-        isGlobal = new JCheckBox("Shared across threads");
-        isGlobal.setName(ISGLOBAL_FIELD);
+        scope = new JComboBox<>(RegistryScope.values());
+        scope.setName(SCOPE_FIELD);
+        scope.setSelectedItem(RegistryScope.THREAD);
 
-        config.add(isGlobal);
+        JLabel scopeLabel = new JLabel("Remote handle scope");
+        scopeLabel.setLabelFor(scope);
+
+        config.add(scopeLabel);
+        config.add(scope);
         config.add(targetLabel);
         config.add(targetRmiName);
 
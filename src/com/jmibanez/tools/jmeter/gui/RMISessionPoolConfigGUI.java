@@ -0,0 +1,166 @@
+package com.jmibanez.tools.jmeter.gui;
+
+import java.awt.BorderLayout;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+
+import org.apache.jmeter.config.gui.AbstractConfigGui;
+import org.apache.jmeter.gui.util.JSyntaxTextArea;
+import org.apache.jmeter.gui.util.JTextScrollPane;
+import org.apache.jmeter.gui.util.VerticalPanel;
+import org.apache.jmeter.testelement.TestElement;
+
+import com.jmibanez.tools.jmeter.RMISessionPoolConfig;
+import com.jmibanez.tools.jmeter.RegistryScope;
+
+/**
+ * GUI for {@link RMISessionPoolConfig}.
+ */
+public class RMISessionPoolConfigGUI extends AbstractConfigGui {
+
+    public static final long serialVersionUID = 98031L;
+
+    private static final String TARGETNAME_FIELD = "targetRmiName";
+    private static final String SCOPE_FIELD = "scope";
+    private static final String HANDLE_FIELD = "sessionHandle";
+    private static final String POOLSIZE_FIELD = "poolSize";
+    private static final String VALIDATION_FIELD = "validationMethod";
+    private static final String TIMEOUT_FIELD = "leaseTimeout";
+
+    private JTextField targetRmiName;
+    private JComboBox<RegistryScope> scope;
+    private JTextField sessionHandle;
+    private JTextField poolSize;
+    private JTextField validationMethod;
+    private JTextField leaseTimeout;
+    private JSyntaxTextArea sessionScript;
+    private JTextScrollPane scroller;
+
+    private RMISessionPoolConfig model;
+
+    public RMISessionPoolConfigGUI() {
+        super();
+        init();
+    }
+
+    public String getLabelResource() {
+        return "rmi_session_pool_config";
+    }
+
+    public String getStaticLabel() {
+        return "RMI Session Pool config";
+    }
+
+    public void modifyTestElement(TestElement element) {
+        super.configureTestElement(element);
+        if(element instanceof RMISessionPoolConfig) {
+            model = (RMISessionPoolConfig) element;
+            model.setTargetRmiName(targetRmiName.getText());
+            model.setScope((RegistryScope) scope.getSelectedItem());
+            model.setSessionHandle(sessionHandle.getText());
+            model.setPoolSize(parseInt(poolSize.getText(), 1));
+            model.setValidationMethod(validationMethod.getText());
+            model.setLeaseTimeout(parseInt(leaseTimeout.getText(),
+                                           (int) RMISessionPoolConfig.DEFAULT_LEASE_TIMEOUT));
+            model.setSessionScript(sessionScript.getText());
+        }
+    }
+
+    public TestElement createTestElement() {
+        RMISessionPoolConfig cfg = new RMISessionPoolConfig();
+        modifyTestElement(cfg);
+        return cfg;
+    }
+
+    @Override
+    public void configure(TestElement e) {
+        super.configure(e);
+        model = (RMISessionPoolConfig) e;
+        targetRmiName.setText(model.getTargetRmiName());
+        scope.setSelectedItem(model.getScope());
+        sessionHandle.setText(model.getSessionHandle());
+        poolSize.setText(Integer.toString(model.getPoolSize()));
+        validationMethod.setText(model.getValidationMethod());
+        leaseTimeout.setText(Long.toString(model.getLeaseTimeout()));
+        sessionScript.setInitialText(model.getSessionScript());
+    }
+
+    private static int parseInt(final String value, final int defaultValue) {
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch(NumberFormatException nfe) {
+            return defaultValue;
+        }
+    }
+
+    private void init() {
+        setLayout(new BorderLayout());
+        setBorder(makeBorder());
+
+        add(makeTitlePanel(), BorderLayout.NORTH);
+
+        JPanel config = new VerticalPanel();
+
+        targetRmiName = new JTextField("", 40);
+        targetRmiName.setName(TARGETNAME_FIELD);
+        JLabel targetLabel = new JLabel("Target RMI name");
+        targetLabel.setLabelFor(targetRmiName);
+
+        scope = new JComboBox<>(RegistryScope.values());
+        scope.setName(SCOPE_FIELD);
+        scope.setSelectedItem(RegistryScope.THREAD);
+        JLabel scopeLabel = new JLabel("Remote handle scope");
+        scopeLabel.setLabelFor(scope);
+
+        sessionHandle = new JTextField("", 40);
+        sessionHandle.setName(HANDLE_FIELD);
+        JLabel handleLabel = new JLabel("Session handle");
+        handleLabel.setLabelFor(sessionHandle);
+
+        poolSize = new JTextField("1", 10);
+        poolSize.setName(POOLSIZE_FIELD);
+        JLabel poolSizeLabel = new JLabel("Pool size");
+        poolSizeLabel.setLabelFor(poolSize);
+
+        validationMethod = new JTextField("", 40);
+        validationMethod.setName(VALIDATION_FIELD);
+        JLabel validationLabel = new JLabel("Validation method (no arguments)");
+        validationLabel.setLabelFor(validationMethod);
+
+        leaseTimeout = new JTextField(Long.toString(RMISessionPoolConfig.DEFAULT_LEASE_TIMEOUT), 10);
+        leaseTimeout.setName(TIMEOUT_FIELD);
+        JLabel timeoutLabel = new JLabel("Lease timeout (ms)");
+        timeoutLabel.setLabelFor(leaseTimeout);
+
+        config.add(scopeLabel);
+        config.add(scope);
+        config.add(targetLabel);
+        config.add(targetRmiName);
+        config.add(handleLabel);
+        config.add(sessionHandle);
+        config.add(poolSizeLabel);
+        config.add(poolSize);
+        config.add(validationLabel);
+        config.add(validationMethod);
+        config.add(timeoutLabel);
+        config.add(leaseTimeout);
+
+        sessionScript = JSyntaxTextArea.getInstance(20, 20);
+        scroller = JTextScrollPane.getInstance(sessionScript, true);
+        JLabel scriptLabel = new JLabel("Session script");
+        scriptLabel.setLabelFor(scroller);
+
+        JPanel editorPanel = new VerticalPanel();
+        editorPanel.add(scriptLabel, BorderLayout.NORTH);
+        editorPanel.add(scroller, BorderLayout.CENTER);
+
+        JPanel configPanel = new VerticalPanel();
+        configPanel.add(config, BorderLayout.NORTH);
+        configPanel.add(editorPanel, BorderLayout.CENTER);
+
+        add(configPanel, BorderLayout.CENTER);
+    }
+}
@@ -0,0 +1,90 @@
+package com.jmibanez.tools.jmeter.gui;
+
+import java.awt.BorderLayout;
+import javax.swing.Box;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+
+import org.apache.jmeter.gui.util.VerticalPanel;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.timers.gui.AbstractTimerGui;
+
+import com.jmibanez.tools.jmeter.RecordedThinkTimer;
+
+public class RecordedThinkTimerGui extends AbstractTimerGui {
+
+    public static final long serialVersionUID = 1112232L;
+
+    private static final String THINKTIME_FIELD = "thinkTime";
+
+    private JTextField thinkTime;
+
+    public RecordedThinkTimerGui() {
+        super();
+        thinkTime = new JTextField("0", 10);
+        init();
+    }
+
+    @Override
+    public void configure(TestElement e) {
+        super.configure(e);
+        thinkTime.setText(Long.toString(((RecordedThinkTimer) e).getThinkTime()));
+    }
+
+    public void modifyTestElement(TestElement element) {
+        super.configureTestElement(element);
+        if (element instanceof RecordedThinkTimer) {
+            RecordedThinkTimer timer = (RecordedThinkTimer) element;
+            try {
+                timer.setThinkTime(Long.parseLong(thinkTime.getText().trim()));
+            }
+            catch (NumberFormatException nfe) {
+                timer.setThinkTime(0);
+            }
+        }
+    }
+
+    public TestElement createTestElement() {
+        RecordedThinkTimer timer = new RecordedThinkTimer();
+        modifyTestElement(timer);
+        return timer;
+    }
+
+    @Override
+    public void clearGui() {
+        super.clearGui();
+        thinkTime.setText("0");
+    }
+
+    public String getLabelResource() {
+        return "recorded_think_timer";
+    }
+
+    public String getStaticLabel() {
+        return "Recorded Think Timer";
+    }
+
+
+    private void init() {
+        setLayout(new BorderLayout(0, 5));
+        setBorder(makeBorder());
+
+        add(makeTitlePanel(), BorderLayout.NORTH);
+
+        thinkTime.setName(THINKTIME_FIELD);
+
+        JLabel thinkTimeLabel = new JLabel("Recorded think time (ms), divided by the "
+                                           + RecordedThinkTimer.PACING_FACTOR + " property");
+        thinkTimeLabel.setLabelFor(thinkTime);
+
+        Box b = Box.createHorizontalBox();
+        b.add(thinkTimeLabel);
+        b.add(thinkTime);
+
+        JPanel configPanel = new VerticalPanel();
+        configPanel.add(b, BorderLayout.NORTH);
+
+        add(configPanel, BorderLayout.CENTER);
+    }
+}
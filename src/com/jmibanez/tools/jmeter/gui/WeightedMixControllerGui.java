@@ -0,0 +1,94 @@
+package com.jmibanez.tools.jmeter.gui;
+
+import java.awt.BorderLayout;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+
+import org.apache.jmeter.control.gui.AbstractControllerGui;
+import org.apache.jmeter.gui.util.VerticalPanel;
+import org.apache.jmeter.testelement.TestElement;
+
+import com.jmibanez.tools.jmeter.WeightedMixController;
+
+public class WeightedMixControllerGui extends AbstractControllerGui {
+
+    public static final long serialVersionUID = 1112233L;
+
+    private static final String WEIGHTS_FIELD = "weights";
+    private static final String JOURNALDIR_FIELD = "journalDirectory";
+
+    private JTextArea weights;
+    private JTextField journalDirectory;
+
+    public WeightedMixControllerGui() {
+        super();
+        weights = new JTextArea(10, 40);
+        journalDirectory = new JTextField("", 40);
+        init();
+    }
+
+    @Override
+    public void configure(TestElement e) {
+        super.configure(e);
+        WeightedMixController model = (WeightedMixController) e;
+        weights.setText(model.getWeights());
+        journalDirectory.setText(model.getJournalDirectory());
+    }
+
+    public void modifyTestElement(TestElement element) {
+        super.configureTestElement(element);
+        if (element instanceof WeightedMixController) {
+            WeightedMixController model = (WeightedMixController) element;
+            model.setWeights(weights.getText());
+            model.setJournalDirectory(journalDirectory.getText());
+        }
+    }
+
+    public TestElement createTestElement() {
+        WeightedMixController controller = new WeightedMixController();
+        modifyTestElement(controller);
+        return controller;
+    }
+
+    @Override
+    public void clearGui() {
+        super.clearGui();
+        weights.setText("");
+        journalDirectory.setText("");
+    }
+
+    public String getLabelResource() {
+        return "weighted_mix_controller";
+    }
+
+    public String getStaticLabel() {
+        return "Weighted Mix Controller";
+    }
+
+
+    private void init() {
+        setLayout(new BorderLayout(0, 5));
+        setBorder(makeBorder());
+
+        add(makeTitlePanel(), BorderLayout.NORTH);
+
+        weights.setName(WEIGHTS_FIELD);
+        JLabel weightsLabel = new JLabel("Weights (child name=weight, one per line; others weigh 1)");
+        weightsLabel.setLabelFor(weights);
+
+        journalDirectory.setName(JOURNALDIR_FIELD);
+        JLabel journalLabel = new JLabel("Weigh other RMI samplers by calls recorded in journal");
+        journalLabel.setLabelFor(journalDirectory);
+
+        JPanel configPanel = new VerticalPanel();
+        configPanel.add(weightsLabel);
+        configPanel.add(new JScrollPane(weights));
+        configPanel.add(journalLabel);
+        configPanel.add(journalDirectory);
+
+        add(configPanel, BorderLayout.CENTER);
+    }
+}
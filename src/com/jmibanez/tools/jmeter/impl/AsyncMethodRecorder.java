@@ -0,0 +1,362 @@
+package com.jmibanez.tools.jmeter.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.RemoteServer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jmeter.util.JMeterUtils;
+
+import com.jmibanez.tools.jmeter.MethodCallRecord;
+import com.jmibanez.tools.jmeter.MethodRecorder;
+
+/**
+ * A {@link MethodRecorder} that hands records to a background worker
+ * through a bounded queue, so that recording doesn't add to the
+ * latency of the proxied call.
+ *
+ * <p>What happens when the queue is full is set by the {@link
+ * OverflowPolicy}. Records are delivered to the wrapped recorder in
+ * the order they were made, except for those dropped.</p>
+ */
+public class AsyncMethodRecorder
+    implements MethodRecorder, Closeable
+{
+    private static Log log = LogFactory.getLog(AsyncMethodRecorder.class);
+
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    /** Minimum ms between recording failures reported to the user */
+    public static final long FAILURE_REPORT_INTERVAL = 10000;
+
+    public enum OverflowPolicy {
+        /** Make the proxied call wait for room in the queue */
+        BLOCK,
+        /** Discard the oldest queued record */
+        DROP_OLDEST,
+        /** Write records to a temporary file until the queue drains */
+        SPILL;
+
+        public static OverflowPolicy fromString(final String value) {
+            if (value == null || "".equals(value.trim())) {
+                return BLOCK;
+            }
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private final MethodRecorder delegate;
+    private final OverflowPolicy policy;
+    private final BlockingQueue<MethodCallRecord> queue;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    private final Object spillLock = new Object();
+    private File spillFile;
+    private ObjectOutputStream spillOut;
+    private ObjectInputStream spillIn;
+    private long spillPending = 0;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Only touched by the worker
+    private long lastFailureReport = 0;
+    private long failedSinceReport = 0;
+
+    public AsyncMethodRecorder(final MethodRecorder delegate) {
+        this(delegate, DEFAULT_QUEUE_SIZE, OverflowPolicy.BLOCK);
+    }
+
+    public AsyncMethodRecorder(final MethodRecorder delegate, final int queueSize,
+                               final OverflowPolicy policy) {
+        this.delegate = delegate;
+        this.policy = policy;
+        this.queue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+        this.worker = new Thread(new Runnable() {
+                public void run() {
+                    drain();
+                }
+            }, "RMI proxy recorder");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public MethodRecorder getDelegate() {
+        return delegate;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of records waiting in memory
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of records waiting in the spill file
+     */
+    public long getSpillDepth() {
+        synchronized (spillLock) {
+            return spillPending;
+        }
+    }
+
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    /**
+     * @return the number of records the wrapped recorder failed on
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public void recordCall(final MethodCallRecord r) {
+        if (!running) {
+            log.warn("Recorder closed, dropping call " + r.getIndex());
+            dropped.incrementAndGet();
+            return;
+        }
+
+        switch (policy) {
+        case DROP_OLDEST:
+            while (!queue.offer(r)) {
+                if (queue.poll() != null) {
+                    dropped.incrementAndGet();
+                }
+            }
+            break;
+
+        case SPILL:
+            synchronized (spillLock) {
+                // Once spilling, keep spilling until the file is read
+                // back, so records stay in order
+                if (spillPending > 0 || !queue.offer(r)) {
+                    spill(r);
+                }
+            }
+            break;
+
+        default:
+            try {
+                queue.put(r);
+            }
+            catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                dropped.incrementAndGet();
+            }
+            break;
+        }
+    }
+
+    /**
+     * Deliver everything still queued or spilled, then stop the
+     * worker.
+     */
+    public void close() {
+        running = false;
+        try {
+            worker.join();
+        }
+        catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        log.info(String.format("Recording queue closed: %1$d recorded, %2$d dropped, %3$d spilled, %4$d failed",
+                               recorded.get(), dropped.get(), spilled.get(), failed.get()));
+
+        if (delegate instanceof Closeable) {
+            try {
+                ((Closeable) delegate).close();
+            }
+            catch (IOException ioEx) {
+                log.warn("Exception closing recorder:", ioEx);
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            MethodCallRecord r = null;
+            try {
+                r = queue.poll(100, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (r == null) {
+                r = unspill();
+            }
+            if (r != null) {
+                deliver(r);
+                continue;
+            }
+            if (!running || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    private void deliver(final MethodCallRecord r) {
+        try {
+            delegate.recordCall(r);
+            recorded.incrementAndGet();
+        }
+        catch (Exception suppress) {
+            log.error("Suppressed exception when recording call:", suppress);
+            failed.incrementAndGet();
+            reportFailure(suppress);
+        }
+    }
+
+    /**
+     * Tell the user, at most once per {@link #FAILURE_REPORT_INTERVAL},
+     * so that a recorder failing on every call doesn't flood the GUI.
+     */
+    private void reportFailure(final Exception suppress) {
+        failedSinceReport++;
+        long now = System.currentTimeMillis();
+        if (now - lastFailureReport < FAILURE_REPORT_INTERVAL) {
+            return;
+        }
+        String more = failedSinceReport > 1
+            ? " (" + (failedSinceReport - 1) + " more since the last report)"
+            : "";
+        lastFailureReport = now;
+        failedSinceReport = 0;
+        try {
+            JMeterUtils.reportErrorToUser("Suppressed exception when recording call:"
+                                          + suppress.getMessage() + more);
+        }
+        catch (RuntimeException reportEx) {
+            // JMeter not initialized (e.g. outside JMeter); must not stop the worker
+            log.debug("Couldn't report recording failure to user", reportEx);
+        }
+    }
+
+    private void spill(final MethodCallRecord r) {
+        try {
+            if (spillOut == null) {
+                spillFile = File.createTempFile("rmi-recording-", ".spill");
+                spillFile.deleteOnExit();
+                spillOut = new SpillOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+            }
+            spillOut.writeObject(r);
+            spillOut.reset();
+            spillOut.flush();
+            spillPending++;
+            spilled.incrementAndGet();
+        }
+        catch (IOException ioEx) {
+            log.warn("Couldn't spill call " + r.getIndex() + ", dropping it", ioEx);
+            dropped.incrementAndGet();
+        }
+    }
+
+    private MethodCallRecord unspill() {
+        synchronized (spillLock) {
+            if (spillPending == 0) {
+                return null;
+            }
+            try {
+                if (spillIn == null) {
+                    spillIn = new ObjectInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+                }
+                spillPending--;
+                return (MethodCallRecord) spillIn.readObject();
+            }
+            catch (IOException | ClassNotFoundException readEx) {
+                log.error("Couldn't read back spilled calls, dropping " + (spillPending + 1), readEx);
+                dropped.addAndGet(spillPending + 1);
+                spillPending = 0;
+                return null;
+            }
+            finally {
+                if (spillPending == 0) {
+                    closeSpill();
+                }
+            }
+        }
+    }
+
+    private void closeSpill() {
+        try {
+            if (spillIn != null) {
+                spillIn.close();
+            }
+            if (spillOut != null) {
+                spillOut.close();
+            }
+        }
+        catch (IOException ioEx) {
+            log.debug("Error closing spill file", ioEx);
+        }
+        spillIn = null;
+        spillOut = null;
+        if (spillFile != null && !spillFile.delete()) {
+            log.debug("Couldn't delete spill file " + spillFile);
+        }
+        spillFile = null;
+    }
+
+
+    /**
+     * Writes exported remotes (i.e. the proxies left in return values)
+     * as their stubs.
+     */
+    private static final class SpillOutputStream
+        extends ObjectOutputStream {
+
+        SpillOutputStream(final OutputStream out)
+            throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(final Object obj)
+            throws IOException {
+            if (obj instanceof RemoteServer) {
+                try {
+                    return RemoteObject.toStub((Remote) obj);
+                }
+                catch (NoSuchObjectException notExported) {
+                    return obj;
+                }
+            }
+            return obj;
+        }
+    }
+}
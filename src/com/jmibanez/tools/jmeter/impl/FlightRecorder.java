@@ -0,0 +1,466 @@
+package com.jmibanez.tools.jmeter.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jmeter.util.JMeterUtils;
+
+import com.jmibanez.tools.jmeter.MethodCallRecord;
+import com.jmibanez.tools.jmeter.MethodRecorder;
+import com.jmibanez.tools.jmeter.journal.JournalCall;
+import com.jmibanez.tools.jmeter.journal.JournalWriter;
+import com.jmibanez.tools.jmeter.journal.RecordingJournal;
+
+/**
+ * A {@link MethodRecorder} that keeps only the most recent calls, in
+ * a fixed-size ring buffer outside the Java heap, and writes them to
+ * a new recording journal when asked to, or when a call is slower
+ * than the latency trigger or throws.
+ *
+ * <p>Calls are kept as compact records (with their serialized
+ * arguments, but without a return value digest); the oldest are
+ * overwritten as new ones come in. Strings (handles, method names,
+ * clients) are kept in the records too, so memory use doesn't grow
+ * with the traffic recorded.</p>
+ *
+ * <p>A dump copies records out of the buffer a batch at a time, so
+ * recording goes on while it is written; records overwritten before
+ * they are reached are left out of it.</p>
+ *
+ * <p>A triggered dump is written {@link #TRIGGER_DELAY} ms after the
+ * trigger, to also capture the calls that followed it; further
+ * triggers until then are part of the same dump.</p>
+ */
+public class FlightRecorder
+    implements MethodRecorder, Closeable
+{
+    private static Log log = LogFactory.getLog(FlightRecorder.class);
+
+    /** JMeter property: ms to wait after a trigger before dumping */
+    public static final String TRIGGER_DELAY = "rmiProxy.flightRecorder.triggerDelay";
+    public static final long DEFAULT_TRIGGER_DELAY = 5000;
+
+    public static final String DUMP_PREFIX = "flight-";
+
+    // int index, long start, long duration, byte flags, int path
+    // count, int argument length; then target, method and client,
+    // handle and path per path, and arguments. Strings are an int
+    // length (NO_STRING for null) and UTF-8 bytes.
+    private static final int RECORD_FIXED_SIZE = 4 + 8 + 8 + 1 + 4 + 4;
+    private static final int WRAP = -1;
+    private static final int NO_ARGS = -1;
+    private static final int NO_STRING = -1;
+
+    // Bytes of records copied out of the buffer at a time while dumping
+    private static final int DUMP_BATCH_SIZE = 1024 * 1024;
+
+    private final ByteBuffer ring;
+    private final int capacity;
+    private int head = 0;
+    private int tail = 0;
+    private int count = 0;
+    // Records overwritten so far; the record at head is the
+    // droppedCount-th recorded
+    private long droppedCount = 0;
+
+    private final File directory;
+    private final MethodRecorder delegate;
+
+    private long latencyTriggerNanos = 0;
+    private boolean errorTriggered = false;
+    private long triggerDelay;
+    private boolean dumpPending = false;
+    private String pendingReason;
+
+    private long recordedCount = 0;
+    private long truncatedCount = 0;
+    private int dumpCount = 0;
+
+    private final ScheduledThreadPoolExecutor dumper;
+
+    /**
+     * @param capacity size of the ring buffer, in bytes
+     * @param directory where dumped journals are written
+     * @param delegate recorder to pass calls on to; may be null
+     */
+    public FlightRecorder(final int capacity, final File directory,
+                          final MethodRecorder delegate) {
+        if (capacity < 1024) {
+            throw new IllegalArgumentException("Flight recorder buffer too small: " + capacity);
+        }
+        this.capacity = capacity;
+        this.ring = ByteBuffer.allocateDirect(capacity);
+        this.directory = directory;
+        this.delegate = delegate;
+        this.triggerDelay = JMeterUtils.getPropDefault(TRIGGER_DELAY, DEFAULT_TRIGGER_DELAY);
+        this.dumper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Flight recorder dump");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        this.dumper.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized long getLatencyTrigger() {
+        return latencyTriggerNanos / 1000000L;
+    }
+
+    /**
+     * @param millis dump when a call takes at least this long; 0 for
+     * never
+     */
+    public synchronized void setLatencyTrigger(final long millis) {
+        this.latencyTriggerNanos = Math.max(0, millis) * 1000000L;
+    }
+
+    public synchronized boolean isErrorTriggered() {
+        return errorTriggered;
+    }
+
+    /**
+     * @param triggered whether to dump when a call throws
+     */
+    public synchronized void setErrorTriggered(final boolean triggered) {
+        this.errorTriggered = triggered;
+    }
+
+    public synchronized long getTriggerDelay() {
+        return triggerDelay;
+    }
+
+    public synchronized void setTriggerDelay(final long millis) {
+        this.triggerDelay = Math.max(0, millis);
+    }
+
+    /**
+     * @return the number of calls in the buffer
+     */
+    public synchronized int getBufferedCount() {
+        return count;
+    }
+
+    public synchronized long getRecordedCount() {
+        return recordedCount;
+    }
+
+    /**
+     * @return the number of calls kept without their arguments,
+     * because they wouldn't fit in the buffer
+     */
+    public synchronized long getTruncatedCount() {
+        return truncatedCount;
+    }
+
+    public synchronized int getDumpCount() {
+        return dumpCount;
+    }
+
+    public void recordCall(final MethodCallRecord r)
+        throws RemoteException {
+        String trigger = null;
+        synchronized (this) {
+            append(r);
+            recordedCount++;
+            if (errorTriggered && r.isException()) {
+                trigger = "error";
+            }
+            else if (latencyTriggerNanos > 0 && r.getDurationNanos() >= latencyTriggerNanos) {
+                trigger = "latency";
+            }
+            if (trigger != null) {
+                scheduleDump(trigger + "-" + r.getIndex());
+            }
+        }
+        if (delegate != null) {
+            delegate.recordCall(r);
+        }
+    }
+
+    /**
+     * Write the calls in the buffer to a new journal now.
+     *
+     * @param reason added to the journal's directory name; may be null
+     * @return the journal's directory
+     */
+    public File dump(final String reason)
+        throws IOException {
+        long next;
+        long end;
+        int pos;
+        String name;
+        synchronized (this) {
+            next = droppedCount;
+            end = droppedCount + count;
+            pos = head;
+            name = DUMP_PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date())
+                + "-" + (++dumpCount);
+        }
+        if (reason != null && !reason.trim().isEmpty()) {
+            name += "-" + reason.trim().replaceAll("[^A-Za-z0-9_.-]", "_");
+        }
+
+        File journal = new File(directory, name);
+        long lost = 0;
+        List<JournalCall> batch = new ArrayList<>();
+        try (JournalWriter out = new JournalWriter(journal)) {
+            while (next < end) {
+                batch.clear();
+                synchronized (this) {
+                    if (next < droppedCount) {
+                        // Overwritten since the last batch
+                        lost += Math.min(end, droppedCount) - next;
+                        next = droppedCount;
+                        pos = head;
+                    }
+                    int size = 0;
+                    while (next < end && size < DUMP_BATCH_SIZE) {
+                        int length = ring.getInt(pos);
+                        batch.add(readRecord(pos));
+                        pos += 4 + length;
+                        size += 4 + length;
+                        // Follow the wrap while it is still there: the
+                        // records before it may be overwritten, marker
+                        // and all, before the next batch
+                        if (++next < end && (capacity - pos < 4 || ring.getInt(pos) == WRAP)) {
+                            pos = 0;
+                        }
+                    }
+                }
+                for (JournalCall c: batch) {
+                    out.append(c);
+                }
+            }
+            log.info("Flight recorder dumped " + out.getCallCount() + " calls to " + journal
+                     + (lost > 0 ? " (" + lost + " overwritten while dumping)" : ""));
+        }
+        return journal;
+    }
+
+    /**
+     * Stop recording. A dump waiting on a trigger is written first,
+     * and one being written is waited for.
+     */
+    public void close()
+        throws IOException {
+        boolean pending;
+        String reason;
+        synchronized (this) {
+            pending = dumpPending;
+            reason = pendingReason;
+            dumpPending = false;
+        }
+        // Interrupting a dump would close its journal's channels
+        dumper.shutdown();
+        try {
+            dumper.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (pending) {
+                dump(reason);
+            }
+        }
+        finally {
+            if (delegate instanceof Closeable) {
+                ((Closeable) delegate).close();
+            }
+        }
+    }
+
+    private void scheduleDump(final String reason) {
+        if (dumpPending || dumper.isShutdown()) {
+            return;
+        }
+        dumpPending = true;
+        pendingReason = reason;
+        log.info("Flight recorder triggered by call " + reason + "; dumping in " + triggerDelay + " ms");
+        dumper.schedule(new Runnable() {
+                public void run() {
+                    String dumpReason;
+                    synchronized (FlightRecorder.this) {
+                        if (!dumpPending) {
+                            return;
+                        }
+                        dumpPending = false;
+                        dumpReason = pendingReason;
+                    }
+                    try {
+                        dump(dumpReason);
+                    }
+                    catch (IOException | RuntimeException dumpEx) {
+                        log.error("Couldn't dump flight recorder", dumpEx);
+                    }
+                }
+            }, triggerDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void append(final MethodCallRecord r) {
+        Map<String, String> paths = r.getRemotePathsInReturn();
+        byte[][] strings = new byte[3 + paths.size() * 2][];
+        strings[0] = utf8(r.getTarget());
+        strings[1] = utf8(r.getMangledMethodName());
+        strings[2] = utf8(r.getClient());
+        int s = 3;
+        for (Map.Entry<String, String> e: paths.entrySet()) {
+            strings[s++] = utf8(e.getKey());
+            strings[s++] = utf8(e.getValue());
+        }
+        int length = RECORD_FIXED_SIZE;
+        for (byte[] bytes: strings) {
+            length += 4 + (bytes == null ? 0 : bytes.length);
+        }
+        if (4 + length > capacity) {
+            log.warn("Call " + r.getIndex() + " has too many remotes in its return value"
+                     + " for the flight recorder buffer");
+            return;
+        }
+
+        byte[] args = r.getPackedArguments();
+        if (args != null && 4 + length + args.length <= capacity / 2) {
+            length += args.length;
+        }
+        else if (args != null) {
+            args = null;
+            truncatedCount++;
+        }
+        makeRoom(4 + length);
+
+        byte flags = 0;
+        if (r.isException()) {
+            flags |= RecordingJournal.FLAG_EXCEPTION;
+        }
+        if (r.isRemoteReturned()) {
+            flags |= RecordingJournal.FLAG_REMOTE_RETURNED;
+        }
+        ring.position(tail);
+        ring.putInt(length);
+        ring.putInt(r.getIndex());
+        ring.putLong(r.getStartTime());
+        ring.putLong(r.getDurationNanos());
+        ring.put(flags);
+        ring.putInt(paths.size());
+        ring.putInt(args == null ? NO_ARGS : args.length);
+        for (byte[] bytes: strings) {
+            if (bytes == null) {
+                ring.putInt(NO_STRING);
+            }
+            else {
+                ring.putInt(bytes.length);
+                ring.put(bytes);
+            }
+        }
+        if (args != null) {
+            ring.put(args);
+        }
+        tail = ring.position();
+        count++;
+    }
+
+    /**
+     * Make <code>needed</code> contiguous bytes free at the tail,
+     * overwriting the oldest records.
+     */
+    private void makeRoom(final int needed) {
+        if (capacity - tail < needed) {
+            // Records between the tail and the end are the oldest;
+            // drop them and start again at the beginning
+            while (count > 0 && head >= tail) {
+                dropOldest();
+            }
+            if (capacity - tail >= 4) {
+                ring.putInt(tail, WRAP);
+            }
+            tail = 0;
+            if (count == 0) {
+                head = 0;
+            }
+        }
+        while (count > 0 && head >= tail && head < tail + needed) {
+            dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        head += 4 + ring.getInt(head);
+        count--;
+        droppedCount++;
+        if (count == 0) {
+            head = tail;
+        }
+        else if (capacity - head < 4 || ring.getInt(head) == WRAP) {
+            head = 0;
+        }
+    }
+
+    /**
+     * @return the record at <code>pos</code> in the buffer, with its
+     * arguments copied out
+     */
+    private JournalCall readRecord(final int pos) {
+        ByteBuffer records = ring.duplicate();
+        records.position(pos + 4);
+        int index = records.getInt();
+        long startTime = records.getLong();
+        long durationNanos = records.getLong();
+        byte flags = records.get();
+        int pathCount = records.getInt();
+        int argsLength = records.getInt();
+        String target = string(records);
+        String method = string(records);
+        String client = string(records);
+        Map<String, String> paths = new HashMap<>();
+        for (int i = 0; i < pathCount; i++) {
+            String handle = string(records);
+            paths.put(handle, string(records));
+        }
+        ByteBuffer args = null;
+        if (argsLength != NO_ARGS) {
+            byte[] bytes = new byte[argsLength];
+            records.get(bytes);
+            args = ByteBuffer.wrap(bytes);
+        }
+        return new JournalCall(index, startTime, durationNanos, target, method,
+                               args, flags, 0, paths, client);
+    }
+
+    private static byte[] utf8(final String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(final ByteBuffer records) {
+        int length = records.getInt();
+        if (length == NO_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        records.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
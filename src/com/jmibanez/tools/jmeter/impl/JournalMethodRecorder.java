@@ -0,0 +1,74 @@
+package com.jmibanez.tools.jmeter.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.rmi.RemoteException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.jmibanez.tools.jmeter.MethodCallRecord;
+import com.jmibanez.tools.jmeter.MethodRecorder;
+import com.jmibanez.tools.jmeter.journal.JournalCall;
+import com.jmibanez.tools.jmeter.journal.JournalWriter;
+
+/**
+ * A {@link MethodRecorder} that appends calls to a recording journal,
+ * then passes them on to another recorder, if any.
+ */
+public class JournalMethodRecorder
+    implements MethodRecorder, Closeable
+{
+    private static Log log = LogFactory.getLog(JournalMethodRecorder.class);
+
+    private final JournalWriter journal;
+    private final MethodRecorder delegate;
+
+    public JournalMethodRecorder(final File directory)
+        throws IOException {
+        this(new JournalWriter(directory), null);
+    }
+
+    /**
+     * @param delegate recorder to pass calls on to; may be null
+     */
+    public JournalMethodRecorder(final JournalWriter journal,
+                                 final MethodRecorder delegate) {
+        this.journal = journal;
+        this.delegate = delegate;
+    }
+
+    public JournalWriter getJournal() {
+        return journal;
+    }
+
+    public MethodRecorder getDelegate() {
+        return delegate;
+    }
+
+    public void recordCall(MethodCallRecord r)
+        throws RemoteException {
+        try {
+            journal.append(JournalCall.fromRecord(r));
+        }
+        catch (IOException ioEx) {
+            log.error("Couldn't write call " + r.getIndex() + " to journal", ioEx);
+        }
+        if (delegate != null) {
+            delegate.recordCall(r);
+        }
+    }
+
+    public void close()
+        throws IOException {
+        try {
+            journal.close();
+        }
+        finally {
+            if (delegate instanceof Closeable) {
+                ((Closeable) delegate).close();
+            }
+        }
+    }
+}
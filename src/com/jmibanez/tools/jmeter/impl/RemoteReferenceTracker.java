@@ -0,0 +1,179 @@
+package com.jmibanez.tools.jmeter.impl;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.rmi.Remote;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM-wide accounting of the remote references held by the plugin's
+ * registries.
+ *
+ * <p>The RMI runtime sends a DGC <code>dirty</code> call when a stub
+ * for a new remote reference is received, and a <code>clean</code>
+ * call once that stub has been garbage collected. Those calls can't
+ * be observed (nor the clean call sent explicitly), so this tracker
+ * counts what drives them instead: references <em>tracked</em> as a
+ * registry takes them, and references <em>collected</em> once their
+ * stub has been garbage collected after every registry has dropped
+ * it. Lease renewals, and stubs shared by several registries, make
+ * these differ from the actual DGC calls.</p>
+ */
+public final class RemoteReferenceTracker {
+
+    private static final RemoteReferenceTracker INSTANCE = new RemoteReferenceTracker();
+
+    private final ReferenceQueue<Remote> collected = new ReferenceQueue<>();
+    private final Set<StubReference> outstanding =
+        Collections.newSetFromMap(new ConcurrentHashMap<StubReference, Boolean>());
+
+    private final Map<String, AtomicInteger> held = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> leased = new ConcurrentHashMap<>();
+
+    private final AtomicLong trackedCount = new AtomicLong();
+    private final AtomicLong collectedCount = new AtomicLong();
+
+    private RemoteReferenceTracker() {
+    }
+
+    public static RemoteReferenceTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record that a registry now holds <code>stub</code>.
+     */
+    public void track(final Remote stub) {
+        if (stub == null) {
+            return;
+        }
+        drainCollected();
+
+        String targetClass = targetClassName(stub);
+        outstanding.add(new StubReference(stub, targetClass, collected));
+        counter(held, targetClass).incrementAndGet();
+        counter(leased, targetClass).incrementAndGet();
+        trackedCount.incrementAndGet();
+    }
+
+    /**
+     * Record that a registry has dropped <code>stub</code>.
+     */
+    public void release(final Remote stub) {
+        if (stub == null) {
+            return;
+        }
+        counter(held, targetClassName(stub)).decrementAndGet();
+        drainCollected();
+    }
+
+    /**
+     * @return the number of references currently held by registries,
+     * per remote interface
+     */
+    public Map<String, Integer> getHeldReferenceCounts() {
+        drainCollected();
+        return snapshot(held);
+    }
+
+    /**
+     * @return the number of references whose stubs have not yet been
+     * collected (and whose leases are still being renewed), per
+     * remote interface
+     */
+    public Map<String, Integer> getLeasedReferenceCounts() {
+        drainCollected();
+        return snapshot(leased);
+    }
+
+    /**
+     * @return the number of references taken by registries so far
+     */
+    public long getTrackedCount() {
+        drainCollected();
+        return trackedCount.get();
+    }
+
+    /**
+     * @return the number of tracked stubs garbage collected so far
+     */
+    public long getCollectedCount() {
+        drainCollected();
+        return collectedCount.get();
+    }
+
+    /**
+     * Summarize the live reference counts, and the rates at which
+     * references were tracked and collected over
+     * <code>elapsedMillis</code>, using counter values taken at the
+     * start of the period.
+     */
+    public String summarize(final long startTracked, final long startCollected,
+                            final long elapsedMillis) {
+        double seconds = Math.max(elapsedMillis, 1) / 1000.0;
+        long tracked = getTrackedCount() - startTracked;
+        long collected = getCollectedCount() - startCollected;
+
+        return String.format("held=%1$s leased=%2$s tracked=%3$d (%4$.2f/s) collected=%5$d (%6$.2f/s)",
+                             getHeldReferenceCounts(), getLeasedReferenceCounts(),
+                             tracked, tracked / seconds, collected, collected / seconds);
+    }
+
+    private void drainCollected() {
+        Reference<? extends Remote> ref;
+        while ((ref = collected.poll()) != null) {
+            StubReference stubRef = (StubReference) ref;
+            if (outstanding.remove(stubRef)) {
+                counter(leased, stubRef.targetClass).decrementAndGet();
+                collectedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static AtomicInteger counter(final Map<String, AtomicInteger> counts,
+                                         final String targetClass) {
+        return counts.computeIfAbsent(targetClass, k -> new AtomicInteger());
+    }
+
+    private static Map<String, Integer> snapshot(final Map<String, AtomicInteger> counts) {
+        Map<String, Integer> s = new TreeMap<>();
+        for (Map.Entry<String, AtomicInteger> e : counts.entrySet()) {
+            if (e.getValue().get() != 0) {
+                s.put(e.getKey(), e.getValue().get());
+            }
+        }
+        return s;
+    }
+
+    static String targetClassName(final Remote stub) {
+        Class<?> stubClass = stub.getClass();
+        if (Proxy.isProxyClass(stubClass) || stubClass.getName().endsWith("_Stub")) {
+            for (Class<?> iface : stubClass.getInterfaces()) {
+                if (Remote.class.isAssignableFrom(iface) && iface != Remote.class) {
+                    return iface.getName();
+                }
+            }
+        }
+        return stubClass.getName();
+    }
+
+
+    private static final class StubReference
+        extends WeakReference<Remote> {
+        private final String targetClass;
+
+        StubReference(final Remote stub, final String targetClass,
+                      final ReferenceQueue<Remote> queue) {
+            super(stub, queue);
+            this.targetClass = targetClass;
+        }
+    }
+}
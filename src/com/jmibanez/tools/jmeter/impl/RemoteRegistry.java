@@ -3,8 +3,8 @@ package com.jmibanez.tools.jmeter.impl;
 import java.lang.reflect.Method;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -16,11 +16,19 @@ import com.jmibanez.tools.jmeter.InstanceRegistry;
 import com.jmibanez.tools.jmeter.RMISampler;
 import com.jmibanez.tools.jmeter.RMIRemoteObjectConfig;
 
+/**
+ * Remote handles and their method argument types. Safe for use by
+ * several threads at once, as for test-scoped and session registries.
+ */
 public class RemoteRegistry
     implements InstanceRegistry, InstanceParameterRegistry {
 
-    private Map<String, Map<String, Class<?>[]>> methodTypesMap = new HashMap<>();
-    private Map<String, Remote> instanceRef = new HashMap<>();
+    // Stands in for the root remote's null handle, as concurrent maps
+    // don't take null keys
+    private static final String ROOT_KEY = "\0root";
+
+    private Map<String, Map<String, Class<?>[]>> methodTypesMap = new ConcurrentHashMap<>();
+    private Map<String, Remote> instanceRef = new ConcurrentHashMap<>();
 
     private static Log log = LogFactory.getLog(RemoteRegistry.class);
 
@@ -39,46 +47,94 @@ public class RemoteRegistry
         return key;
     }
 
-    private void registerInstanceAtKey(final String key, final Remote instance)
+    private void registerInstanceAtKey(final String handle, final Remote instance)
         throws RemoteException {
-        if (!methodTypesMap.containsKey(key)) {
-            Map<String, Class<?>[]> instanceMethodTypesMap = configureMethodBindings(instance);
-            methodTypesMap.put(key, instanceMethodTypesMap);
+        String key = keyOf(handle);
+        if (methodTypesMap.putIfAbsent(key, configureMethodBindings(instance)) != null) {
+            log.warn("Methods already registered: " + handle);
+        }
+        if (instanceRef.putIfAbsent(key, instance) == null) {
+            RemoteReferenceTracker.getInstance().track(instance);
         }
         else {
-            log.warn("Methods already registered: " + key);
+            log.warn("Instance already registered: " + handle);
         }
-        if (!instanceRef.containsKey(key)) {
-            instanceRef.put(key, instance);
-            assert (instanceRef.containsKey(key)): "Map should contain key";
+    }
+
+    private static String keyOf(final String handle) {
+        return handle == null ? ROOT_KEY : handle;
+    }
+
+    /**
+     * Drops every handle registered with this registry, except for
+     * the root remote, so that their stubs can be collected and the
+     * DGC leases on the server side released.
+     *
+     * @return the number of handles dropped
+     */
+    public int evictHandles() {
+        int evicted = 0;
+        RemoteReferenceTracker tracker = RemoteReferenceTracker.getInstance();
+        for (Map.Entry<String, Remote> e : instanceRef.entrySet()) {
+            if (!ROOT_KEY.equals(e.getKey())
+                && instanceRef.remove(e.getKey(), e.getValue())) {
+                methodTypesMap.remove(e.getKey());
+                tracker.release(e.getValue());
+                evicted++;
+            }
         }
-        else {
-            log.warn("Instance already registered: " + key);
+        return evicted;
+    }
+
+    /**
+     * Drops every handle, including the root remote, once the
+     * registry's scope has ended.
+     *
+     * @return the number of non-root handles dropped
+     */
+    public int release() {
+        int evicted = evictHandles();
+        Remote root = instanceRef.remove(ROOT_KEY);
+        methodTypesMap.remove(ROOT_KEY);
+        if (root != null) {
+            RemoteReferenceTracker.getInstance().release(root);
+        }
+        return evicted;
+    }
+
+    /**
+     * @return the number of live non-root handles in this registry
+     */
+    public int getHandleCount() {
+        int count = instanceRef.size();
+        if (instanceRef.containsKey(ROOT_KEY)) {
+            count--;
         }
+        return count;
     }
 
     boolean hasInstance(final String key) {
-        return instanceRef.containsKey(key);
+        return instanceRef.containsKey(keyOf(key));
     }
 
     @Override
     public Remote getTarget(final String key) {
-        return instanceRef.get(key);
+        return instanceRef.get(keyOf(key));
     }
 
     @Override
     public Class<?>[] getArgumentTypes(final String key, final String methodName) {
-        return methodTypesMap.get(key).get(methodName);
+        return methodTypesMap.get(keyOf(key)).get(methodName);
     }
 
     @Override
     public void setArgumentTypes(String key, String methodName,
                                  Class<?>[] argTypes) {
-        methodTypesMap.get(key).put(methodName, argTypes);
+        methodTypesMap.get(keyOf(key)).put(methodName, argTypes);
     }
 
     private Map<String, Class<?>[]> configureMethodBindings(Remote target) {
-        Map<String, Class<?>[]> instanceMethodTypesMap = new HashMap<>();
+        Map<String, Class<?>[]> instanceMethodTypesMap = new ConcurrentHashMap<>();
         Class<?> targetClass = target.getClass();
         Method[] targetMethods = targetClass.getMethods();
         for(Method m : targetMethods) {
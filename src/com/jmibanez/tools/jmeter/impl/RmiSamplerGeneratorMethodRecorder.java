@@ -7,13 +7,22 @@
  
 package com.jmibanez.tools.jmeter.impl;
 
+import java.io.Closeable;
 import java.rmi.RemoteException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import com.jmibanez.tools.jmeter.MethodCallRecord;
 import com.jmibanez.tools.jmeter.MethodRecorder;
 import com.jmibanez.tools.jmeter.NativeRmiProxyController;
 import com.jmibanez.tools.jmeter.RMISampler;
+import com.jmibanez.tools.jmeter.RecordedThinkTimer;
 import com.jmibanez.tools.jmeter.gui.RMISamplerGUI;
+import com.jmibanez.tools.jmeter.gui.RecordedThinkTimerGui;
 import org.apache.jmeter.extractor.BeanShellPostProcessor;
 import org.apache.jmeter.protocol.java.sampler.BeanShellSampler;
 import org.apache.jmeter.testbeans.gui.TestBeanGUI;
@@ -23,6 +32,7 @@ import com.jmibanez.tools.jmeter.RMIRemoteObjectConfig;
 import com.jmibanez.tools.jmeter.util.ScriptletGenerator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.commons.lang3.StringEscapeUtils;
 
 /**
  * Describe class RmiSamplerGeneratorMethodRecorder here.
@@ -34,7 +44,7 @@ import org.apache.commons.logging.LogFactory;
  * @version 1.0
  */
 public class RmiSamplerGeneratorMethodRecorder
-    implements MethodRecorder {
+    implements MethodRecorder, Closeable {
 
     public static final String DEFAULT_SAMPLER_NAME_FORMAT = "[%1$s] %2$d - %3$s:%4$s";
 
@@ -42,14 +52,40 @@ public class RmiSamplerGeneratorMethodRecorder
 
     private String samplerNameFormat;
     private NativeRmiProxyController target;
+    private boolean thinkTimersAdded = false;
+    private boolean groupedByClient = false;
+
+    private final ExecutorService generators;
+
+    // Calls are numbered as they are recorded; generated samplers
+    // (null if generation failed) wait here for every call recorded
+    // before them
+    private final Object sequenceLock = new Object();
+    private long nextSequence = 0;
+    private long nextRelease = 0;
+    private final Map<Long, GeneratedSampler> completed = new HashMap<>();
+    // When the last delivered call of each client (or of all, if
+    // not grouped by client) ended
+    private final Map<String, Long> lastEndTimes = new HashMap<>();
 
 
     /**
-     * Creates a new <code>RmiSamplerGeneratorMethodRecorder</code> instance.
-     *
+     * Creates a new <code>RmiSamplerGeneratorMethodRecorder</code>
+     * instance, generating samplers on one thread per processor.
      */
     public RmiSamplerGeneratorMethodRecorder() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
 
+    public RmiSamplerGeneratorMethodRecorder(final int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        generators = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "RMI sampler generator " + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
     }
 
 
@@ -80,15 +116,42 @@ public class RmiSamplerGeneratorMethodRecorder
         this.samplerNameFormat = samplerNameFormat;
     }
 
+    public boolean isThinkTimersAdded() {
+        return thinkTimersAdded;
+    }
+
+    /**
+     * @param added whether to give each sampler a {@link
+     * RecordedThinkTimer} with the time since the previous recorded
+     * call ended
+     */
+    public void setThinkTimersAdded(final boolean added) {
+        this.thinkTimersAdded = added;
+    }
+
+    public boolean isGroupedByClient() {
+        return groupedByClient;
+    }
 
-    @SuppressWarnings("unchecked")
-    private String createArgumentsScript(MethodCallRecord record) {
-        log.info("Creating script for method call record");
+    /**
+     * @param grouped whether samplers are grouped by client, so think
+     * time is measured from the client's own previous call. A client
+     * is a client host; several clients on one host are grouped
+     * together.
+     */
+    public void setGroupedByClient(final boolean grouped) {
+        this.groupedByClient = grouped;
+    }
 
-        Class<?>[] argTypes = record.getArgumentTypes();
-        Object[] args = record.getArguments();
 
-        if(argTypes == null || argTypes.length == 0) {
+    /**
+     * @return a BeanShell script whose <code>methodArgs()</code>
+     * recreates <code>args</code>
+     */
+    public static String createArgumentsScript(final Class<?>[] argTypes, final Object[] args) {
+        log.debug("Creating script for method call record");
+
+        if(argTypes == null || argTypes.length == 0 || args == null) {
             return "// No arguments\nmethodArgs ( ) { return null; }";
         }
 
@@ -105,7 +168,7 @@ public class RmiSamplerGeneratorMethodRecorder
 
             argVarnames[i] = gen.getVariableNameForType(args[i]) + i;
             sb.append(gen.generateScriptletForObject(args[i], argVarnames[i],
-                                                     argTypes[i]));
+                                                     i < argTypes.length ? argTypes[i] : null));
         }
 
         sb.append("Object[] args = new Object[] { ");
@@ -127,18 +190,21 @@ public class RmiSamplerGeneratorMethodRecorder
         return sb.toString();
     }
 
-    private String createResultRegisterScript(final MethodCallRecord r) {
+    /**
+     * @return a BeanShell script registering the remotes at
+     * <code>paths</code> in the return value under their handles
+     */
+    public static String createResultRegisterScript(final Map<String, String> paths) {
         StringBuilder sb = new StringBuilder();
         sb.append("Object ret = prev.getReturnValue();\n");
         sb.append("com.jmibanez.tools.jmeter.InstanceRegistry reg = vars.getObject(\"RMIRemoteObject.instances\");");
         sb.append("\n");
         sb.append("// REPLACE_ME: name of remote in registry \n");
         sb.append("// ret: actual object path to Remote \n");
-        Map<String, String> paths = r.getRemotePathsInReturn();
         for (String handle: paths.keySet()) {
             String pathKey = paths.get(handle);
             sb.append("reg.registerRmiInstance(\"");
-            sb.append(handle);
+            sb.append(StringEscapeUtils.escapeJava(handle));
             sb.append("\", ret");
             sb.append(pathKey);
             sb.append(");");
@@ -150,13 +216,112 @@ public class RmiSamplerGeneratorMethodRecorder
     // Implementation of com.jmibanez.tools.jmeter.MethodRecorder
 
     /**
-     * Describe <code>recordCall</code> method here.
+     * Generate the sampler for <code>r</code> on the worker pool. The
+     * samplers are delivered to the target in the order their calls
+     * were recorded, whatever order they are generated in.
      *
      * @param methodCallRecord a <code>MethodCallRecord</code> value
      * @exception RemoteException if an error occurs
      */
     public void recordCall(final MethodCallRecord r)
         throws RemoteException {
+        final int index = r.getIndex();
+        final long sequence;
+        synchronized (sequenceLock) {
+            sequence = nextSequence++;
+        }
+
+        generators.execute(new Runnable() {
+                public void run() {
+                    GeneratedSampler generated = null;
+                    try {
+                        generated = generateSampler(r);
+                    }
+                    catch(RuntimeException genEx) {
+                        log.error("Couldn't generate sampler for call " + index, genEx);
+                    }
+                    finally {
+                        release(sequence, generated);
+                    }
+                }
+            });
+    }
+
+    private void release(final long sequence, final GeneratedSampler generated) {
+        synchronized (sequenceLock) {
+            completed.put(sequence, generated);
+            while (completed.containsKey(nextRelease)) {
+                GeneratedSampler g = completed.remove(nextRelease++);
+                if (g == null) {
+                    continue;
+                }
+                String stream = groupedByClient && g.record.getClient() != null
+                    ? g.record.getClient()
+                    : "";
+                Long lastEndTime = lastEndTimes.get(stream);
+                RecordedThinkTimer timer = null;
+                if (thinkTimersAdded && lastEndTime != null) {
+                    timer = createThinkTimer(g.record.getStartTime() - lastEndTime);
+                }
+                long endTime = g.record.getEndTime();
+                lastEndTimes.put(stream, lastEndTime == null ? endTime : Math.max(lastEndTime, endTime));
+                target.deliverSampler(g.sampler, g.record, timer, g.retValProc);
+            }
+        }
+    }
+
+    /**
+     * Wait for samplers still being generated, then stop the worker
+     * pool.
+     */
+    public void close() {
+        generators.shutdown();
+        try {
+            if (!generators.awaitTermination(60, TimeUnit.SECONDS)) {
+                log.warn("Timed out waiting for sampler generation");
+            }
+        }
+        catch(InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return a timer for <code>thinkTime</code> ms, or null if there
+     * was none (e.g. calls overlapped)
+     */
+    private static RecordedThinkTimer createThinkTimer(final long thinkTime) {
+        if (thinkTime <= 0) {
+            return null;
+        }
+        RecordedThinkTimer timer = new RecordedThinkTimer();
+        timer.setProperty(TestElement.TEST_CLASS, RecordedThinkTimer.class.getName());
+        timer.setProperty(TestElement.GUI_CLASS, RecordedThinkTimerGui.class.getName());
+        timer.setName("Think time " + thinkTime + " ms");
+        timer.setThinkTime(thinkTime);
+        return timer;
+    }
+
+    /**
+     * @param format a format taking the target handle, call index,
+     * method name and mangled argument types, in that order; if it
+     * isn't valid, {@link #DEFAULT_SAMPLER_NAME_FORMAT} is used
+     */
+    public static String createSamplerName(final String format, final String instanceName,
+                                           final int index, final String method,
+                                           final String mangledArgs) {
+        try {
+            return String.format(format, instanceName, index, method, mangledArgs);
+        }
+        catch(Exception e) {
+            // use default format
+            log.warn("Invalid sampler name format", e);
+            return String.format(DEFAULT_SAMPLER_NAME_FORMAT, instanceName, index,
+                                 method, mangledArgs);
+        }
+    }
+
+    private GeneratedSampler generateSampler(final MethodCallRecord r) {
         RMISampler sampler = new RMISampler();
         BeanShellPostProcessor retValProc = null;
         sampler.setProperty(TestElement.TEST_CLASS, RMISampler.class.getName());
@@ -173,23 +338,10 @@ public class RmiSamplerGeneratorMethodRecorder
         String method = r.getMethod();
         String mangledArgs = r.getMangledArguments();
 
-        String samplerName = "";
+        sampler.setName(createSamplerName(samplerNameFormat, instanceName, index,
+                                          method, mangledArgs));
 
-        try {
-            samplerName = String.format(samplerNameFormat,
-                                        instanceName, index,
-                                        method, mangledArgs);
-        }
-        catch(Exception e) {
-            // use default format
-            log.warn("Invalid sampler name format", e);
-            samplerName = String.format(DEFAULT_SAMPLER_NAME_FORMAT,
-                                        instanceName, index,
-                                        method, mangledArgs);
-        }
-        sampler.setName(samplerName);
-
-        sampler.setArgumentsScript(createArgumentsScript(r));
+        sampler.setArgumentsScript(createArgumentsScript(r.getArgumentTypes(), r.getArguments()));
 
         if(r.isRemoteReturned()) {
             retValProc = new BeanShellPostProcessor();
@@ -198,14 +350,28 @@ public class RmiSamplerGeneratorMethodRecorder
             retValProc.setProperty(TestElement.GUI_CLASS,
                                    TestBeanGUI.class.getName());
             // Add postprocessor to register remote instance return value
-            String script = createResultRegisterScript(r);
+            String script = createResultRegisterScript(r.getRemotePathsInReturn());
             retValProc.setName("Save remote in return value");
             retValProc.setProperty(new BooleanProperty(BeanShellSampler.RESET_INTERPRETER, true));
             retValProc.setProperty("script", script);
             retValProc.setScript(script);
             sampler.addTestElement(retValProc);
         }
-        target.deliverSampler(sampler, retValProc, r);
+        return new GeneratedSampler(sampler, retValProc, r);
+    }
+
+
+    private static final class GeneratedSampler {
+        private final RMISampler sampler;
+        private final BeanShellPostProcessor retValProc;
+        private final MethodCallRecord record;
+
+        GeneratedSampler(final RMISampler sampler, final BeanShellPostProcessor retValProc,
+                         final MethodCallRecord record) {
+            this.sampler = sampler;
+            this.retValProc = retValProc;
+            this.record = record;
+        }
     }
 
 }
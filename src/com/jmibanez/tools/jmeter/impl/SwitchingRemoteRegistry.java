@@ -36,9 +36,7 @@ public class SwitchingRemoteRegistry
 
     private InstanceRegistry getCurrentRegistry() {
         JMeterContext jmctx = JMeterContextService.getContext();
-        RMIRemoteObjectConfig remoteObj = (RMIRemoteObjectConfig) jmctx.getCurrentSampler()
-            .getProperty(RMISampler.REMOTE_OBJECT_CONFIG)
-            .getObjectValue();
+        RMIRemoteObjectConfig remoteObj = RMISampler.getRemoteObjectConfig(jmctx.getCurrentSampler());
         return remoteObj.getRegistry();
     }
 }
@@ -0,0 +1,189 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+
+import com.jmibanez.tools.jmeter.MethodCallRecord;
+
+/**
+ * A call as stored in a recording journal.
+ */
+public class JournalCall {
+
+    private final int index;
+    private final long startTime;
+    private final long durationNanos;
+    private final String target;
+    private final String mangledMethodName;
+    private final ByteBuffer packedArguments;
+    private final byte flags;
+    private final long returnDigest;
+    private final Map<String, String> remotePaths;
+    private final String client;
+
+    public JournalCall(final int index, final long startTime, final long durationNanos,
+                       final String target, final String mangledMethodName,
+                       final ByteBuffer packedArguments, final byte flags,
+                       final long returnDigest, final Map<String, String> remotePaths,
+                       final String client) {
+        this.index = index;
+        this.startTime = startTime;
+        this.durationNanos = durationNanos;
+        this.target = target;
+        this.mangledMethodName = mangledMethodName;
+        this.packedArguments = packedArguments;
+        this.flags = flags;
+        this.returnDigest = returnDigest;
+        this.remotePaths = remotePaths == null
+            ? Collections.<String, String>emptyMap()
+            : remotePaths;
+        this.client = client;
+    }
+
+    /**
+     * Take what the journal keeps of <code>r</code>; the return value
+     * itself is kept only as a digest.
+     */
+    public static JournalCall fromRecord(final MethodCallRecord r) {
+        byte flags = 0;
+        if (r.isException()) {
+            flags |= RecordingJournal.FLAG_EXCEPTION;
+        }
+        if (r.isRemoteReturned()) {
+            flags |= RecordingJournal.FLAG_REMOTE_RETURNED;
+        }
+        byte[] packed = r.getPackedArguments();
+        return new JournalCall(r.getIndex(), r.getStartTime(), r.getDurationNanos(),
+                               r.getTarget(), r.getMangledMethodName(),
+                               packed == null ? null : ByteBuffer.wrap(packed),
+                               flags, RecordingJournal.digestOf(r.getReturnValue()),
+                               r.getRemotePathsInReturn(), r.getClient());
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return when the call was made, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return startTime + durationNanos / 1000000L;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return the target handle, or null for the root remote
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    public String getMangledMethodName() {
+        return mangledMethodName;
+    }
+
+    /**
+     * @return the serialized arguments (as {@link
+     * MethodCallRecord#getPackedArguments}), or null if none were
+     * recorded
+     */
+    public ByteBuffer getPackedArguments() {
+        return packedArguments == null ? null : packedArguments.asReadOnlyBuffer();
+    }
+
+    /**
+     * Deserialize the arguments straight from the stored bytes.
+     */
+    public Object[] getArguments()
+        throws IOException, ClassNotFoundException {
+        if (packedArguments == null) {
+            return null;
+        }
+        ObjectInputStream in =
+            new ObjectInputStream(new ByteBufferInputStream(packedArguments.duplicate()));
+        try {
+            return (Object[]) in.readObject();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public boolean isException() {
+        return (flags & RecordingJournal.FLAG_EXCEPTION) != 0;
+    }
+
+    public boolean isRemoteReturned() {
+        return (flags & RecordingJournal.FLAG_REMOTE_RETURNED) != 0;
+    }
+
+    /**
+     * @see RecordingJournal#digestOf
+     */
+    public long getReturnDigest() {
+        return returnDigest;
+    }
+
+    /**
+     * @return handles of the remotes in the return value, mapped to
+     * their paths (see {@link MethodCallRecord#getRemotePathsInReturn})
+     */
+    public Map<String, String> getRemotePaths() {
+        return remotePaths;
+    }
+
+    /**
+     * @return the client that made the call, or null if not known
+     * (see {@link MethodCallRecord#getClient})
+     */
+    public String getClient() {
+        return client;
+    }
+
+
+    private static final class ByteBufferInputStream
+        extends InputStream {
+
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(final ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+}
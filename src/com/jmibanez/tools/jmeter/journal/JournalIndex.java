@@ -0,0 +1,837 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A sidecar index of a recording journal, for finding the calls to a
+ * method, on a target, from a client or in a time range without
+ * reading the whole journal.
+ *
+ * <p>The index is kept in the journal directory, and written by
+ * {@link JournalWriter} as calls are recorded; for journals recorded
+ * without one, or with one written by an earlier version, it is built
+ * on first {@link #open}. It has five files, each starting with
+ * {@link #INDEX_MAGIC} and {@link #INDEX_VERSION}:</p>
+ *
+ * <pre>
+ *   calls.idx    -- per call, in journal order: long position, long
+ *                   start time, int method, target and client string
+ *                   ids, int argument blob id, byte flags
+ *   blocks.idx   -- per {@link #BLOCK_ENTRIES} calls: long earliest
+ *                   and latest start time, and for the method, target
+ *                   and client ids in turn, int count and the
+ *                   distinct ids in the block
+ *   strings.idx  -- the journal's string table: int id, long
+ *                   position of the string record, string (a
+ *                   string may have several ids, see {@link
+ *                   JournalWriter#MAX_STRING_ENTRIES})
+ *   blobs.idx    -- int blob id, long position of the blob record
+ *   end.idx      -- long end of the journal (see {@link #journalEnd})
+ *                   when the other files were last written out
+ * </pre>
+ *
+ * <p>The index files are written out, in the order above, whenever
+ * the journal finishes a segment or is {@link JournalWriter#force
+ * forced}. If recording stopped in between, the journal ends past
+ * what end.idx says, and the index is rebuilt on {@link #open}.</p>
+ *
+ * <p>While a journal is being recorded, its writer holds a lock on
+ * {@link #LOCK_FILE} in the journal directory, and its index lags
+ * the journal. {@link #open} then builds a temporary index elsewhere
+ * rather than replace the one being written, and deletes it on
+ * {@link #close}.</p>
+ *
+ * <p>On open, the block summaries are turned into the list of blocks
+ * each id occurs in. A query skips every block outside its time range
+ * or holding none of its ids, reads the index entries of the rest,
+ * and reads only the matching calls from the journal.</p>
+ */
+public class JournalIndex
+    implements Closeable
+{
+    private static Log log = LogFactory.getLog(JournalIndex.class);
+
+    public static final String CALLS_FILE = "calls.idx";
+    public static final String BLOCKS_FILE = "blocks.idx";
+    public static final String STRINGS_FILE = "strings.idx";
+    public static final String BLOBS_FILE = "blobs.idx";
+    public static final String END_FILE = "end.idx";
+    public static final String LOCK_FILE = "writer.lock";
+
+    /** "RMIX" */
+    public static final int INDEX_MAGIC = 0x524d4958;
+    public static final int INDEX_VERSION = 3;
+    static final int INDEX_HEADER_SIZE = 8;
+
+    public static final int BLOCK_ENTRIES = 1024;
+    static final int ENTRY_SIZE = 8 + 8 + 4 + 4 + 4 + 4 + 1;
+
+    private final JournalReader reader;
+    private final File temporaryDirectory;
+    private final FileChannel calls;
+    private final long entryCount;
+    private final int blockCount;
+    private final long[] blockMinStart;
+    private final long[] blockMaxStart;
+    private final Map<Integer, BlockList> methodBlocks = new HashMap<>();
+    private final Map<Integer, BlockList> targetBlocks = new HashMap<>();
+    private final Map<Integer, BlockList> clientBlocks = new HashMap<>();
+    private long blocksScanned = 0;
+
+    private final Map<String, int[]> stringIds = new HashMap<>();
+
+    /**
+     * @param indexDirectory where the index files are
+     * @param temporaryDirectory deleted on close; may be null
+     */
+    private JournalIndex(final File directory, final File indexDirectory,
+                         final File temporaryDirectory)
+        throws IOException {
+        this.temporaryDirectory = temporaryDirectory;
+        reader = new JournalReader(directory);
+        try {
+            calls = FileChannel.open(new File(indexDirectory, CALLS_FILE).toPath(),
+                                     StandardOpenOption.READ);
+            entryCount = (calls.size() - INDEX_HEADER_SIZE) / ENTRY_SIZE;
+            checkHeader(CALLS_FILE, read(calls, 0, INDEX_HEADER_SIZE));
+            readStrings(new File(indexDirectory, STRINGS_FILE));
+            readBlobs(new File(indexDirectory, BLOBS_FILE));
+            blockCount = (int) ((entryCount + BLOCK_ENTRIES - 1) / BLOCK_ENTRIES);
+            blockMinStart = new long[blockCount];
+            blockMaxStart = new long[blockCount];
+            readBlocks(new File(indexDirectory, BLOCKS_FILE));
+        }
+        catch (IOException | RuntimeException badIndex) {
+            close();
+            throw badIndex;
+        }
+    }
+
+    /**
+     * Open the index of the journal in <code>directory</code>,
+     * building it first if there is none, it was written by an
+     * earlier version, or it doesn't cover the whole journal.
+     */
+    public static JournalIndex open(final File directory)
+        throws IOException {
+        if (isCurrent(directory)) {
+            return new JournalIndex(directory, directory, null);
+        }
+        if (isBeingWritten(directory)) {
+            File temporary = Files.createTempDirectory("journal-index").toFile();
+            try {
+                build(directory, temporary);
+                return new JournalIndex(directory, temporary, temporary);
+            }
+            catch (IOException | RuntimeException buildEx) {
+                deleteTemporary(temporary);
+                throw buildEx;
+            }
+        }
+        build(directory, directory);
+        return new JournalIndex(directory, directory, null);
+    }
+
+    /**
+     * @return whether a {@link JournalWriter} (in this or another
+     * process) is recording the journal in <code>directory</code>
+     */
+    static boolean isBeingWritten(final File directory)
+        throws IOException {
+        File f = new File(directory, LOCK_FILE);
+        if (!f.isFile()) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+            FileLock lock = ch.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        }
+        catch (OverlappingFileLockException lockedHere) {
+            return true;
+        }
+    }
+
+    static boolean isCurrent(final File directory)
+        throws IOException {
+        File f = new File(directory, END_FILE);
+        if (!f.isFile() || !new File(directory, CALLS_FILE).isFile()) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer mark = read(ch, 0, INDEX_HEADER_SIZE + 8);
+            if (mark.remaining() < INDEX_HEADER_SIZE + 8 || mark.getInt() != INDEX_MAGIC
+                || mark.getInt() < INDEX_VERSION) {
+                return false;
+            }
+            long indexed = mark.getLong();
+            if (indexed != journalEnd(directory)) {
+                log.info("Index of journal " + directory + " is out of date, rebuilding");
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return where the journal in <code>directory</code> ends: the
+     * number of its last segment in the upper 32 bits, and the offset
+     * just past the last complete record in that segment in the lower
+     * 32 bits
+     */
+    static long journalEnd(final File directory)
+        throws IOException {
+        File[] segments = RecordingJournal.listSegments(directory);
+        if (segments.length == 0) {
+            throw new IOException("No journal in " + directory);
+        }
+        File last = segments[segments.length - 1];
+        try (FileChannel ch = FileChannel.open(last.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = read(ch, 0, RecordingJournal.HEADER_SIZE);
+            if (header.remaining() < RecordingJournal.HEADER_SIZE
+                || header.getInt(RecordingJournal.HEADER_MAGIC) != RecordingJournal.SEGMENT_MAGIC) {
+                throw new IOException(last + " is not a journal segment");
+            }
+            return ((long) header.getInt(RecordingJournal.HEADER_SEGMENT) << 32)
+                | header.getInt(RecordingJournal.HEADER_DATA_END);
+        }
+    }
+
+    /**
+     * (Re)build the index of the journal in <code>directory</code> by
+     * reading it through, e.g. if recording stopped before the index
+     * was written out.
+     *
+     * @throws IOException if the journal is still being recorded
+     */
+    public static void build(final File directory)
+        throws IOException {
+        if (isBeingWritten(directory)) {
+            throw new IOException("Journal " + directory + " is being recorded;"
+                                  + " its index can't be rebuilt until it is closed");
+        }
+        build(directory, directory);
+    }
+
+    private static void build(final File directory, final File indexDirectory)
+        throws IOException {
+        long started = System.currentTimeMillis();
+        long end = journalEnd(directory);
+        try (JournalReader journal = new JournalReader(directory);
+             JournalIndexWriter index = new JournalIndexWriter(indexDirectory)) {
+            journal.setArgumentsSkipped(true);
+            journal.setIndexWriter(index);
+            while (journal.next() != null) {
+                // Each record is indexed as it is read
+            }
+            index.flush(end);
+        }
+        log.info("Indexed journal " + directory + " in "
+                 + (System.currentTimeMillis() - started) + " ms");
+    }
+
+    public long getCallCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return how many calls match <code>query</code>, reading only
+     * the index
+     */
+    public long count(final Query query)
+        throws IOException {
+        final long[] count = new long[1];
+        scan(query, new EntryHandler() {
+                public void entry(long position) {
+                    count[0]++;
+                }
+            });
+        return count[0];
+    }
+
+    /**
+     * Pass each call matching <code>query</code>, in journal order, to
+     * <code>handler</code>.
+     */
+    public void find(final Query query, final CallHandler handler)
+        throws IOException {
+        scan(query, new EntryHandler() {
+                public void entry(long position)
+                    throws IOException {
+                    handler.call(reader.readCallAt(position));
+                }
+            });
+    }
+
+    /**
+     * Write the calls matching <code>query</code> to a new journal in
+     * <code>target</code>.
+     *
+     * @return the number of calls written
+     */
+    public long export(final Query query, final File target)
+        throws IOException {
+        try (final JournalWriter out = new JournalWriter(target)) {
+            find(query, new CallHandler() {
+                    public void call(JournalCall call)
+                        throws IOException {
+                        out.append(call);
+                    }
+                });
+            return out.getCallCount();
+        }
+    }
+
+    public void close()
+        throws IOException {
+        reader.close();
+        if (calls != null) {
+            calls.close();
+        }
+        if (temporaryDirectory != null) {
+            deleteTemporary(temporaryDirectory);
+        }
+    }
+
+    private static void deleteTemporary(final File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f: files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private void scan(final Query query, final EntryHandler handler)
+        throws IOException {
+        int[] methods = methodIds(query.getMethod());
+        int[] targets = query.isRootTarget()
+            ? new int[] { RecordingJournal.NO_ID }
+            : idsOf(query.getTarget());
+        int[] clients = idsOf(query.getClient());
+        if ((methods != null && methods.length == 0)
+            || (targets != null && targets.length == 0)
+            || (clients != null && clients.length == 0)) {
+            return;
+        }
+        long from = query.getFrom();
+        long to = query.getTo();
+
+        BitSet candidates = new BitSet(blockCount);
+        for (int b = 0; b < blockCount; b++) {
+            if (blockMaxStart[b] >= from && blockMinStart[b] < to) {
+                candidates.set(b);
+            }
+        }
+        restrict(candidates, methodBlocks, methods);
+        restrict(candidates, targetBlocks, targets);
+        restrict(candidates, clientBlocks, clients);
+
+        for (int b = candidates.nextSetBit(0); b >= 0; b = candidates.nextSetBit(b + 1)) {
+            blocksScanned++;
+            long first = (long) b * BLOCK_ENTRIES;
+            int n = (int) Math.min(BLOCK_ENTRIES, entryCount - first);
+            ByteBuffer entries = read(calls, INDEX_HEADER_SIZE + first * ENTRY_SIZE, n * ENTRY_SIZE);
+            for (int i = 0; i < n; i++) {
+                long position = entries.getLong();
+                long startTime = entries.getLong();
+                int methodId = entries.getInt();
+                int targetId = entries.getInt();
+                int clientId = entries.getInt();
+                entries.getInt();
+                entries.get();
+                if (startTime >= from && startTime < to
+                    && contains(methods, methodId)
+                    && contains(targets, targetId)
+                    && contains(clients, clientId)) {
+                    handler.entry(position);
+                }
+            }
+        }
+    }
+
+    /**
+     * Leave only the <code>candidates</code> holding any of
+     * <code>ids</code>; all of them if <code>ids</code> is null.
+     */
+    private static void restrict(final BitSet candidates, final Map<Integer, BlockList> blocksOf,
+                                 final int[] ids) {
+        if (ids == null) {
+            return;
+        }
+        BitSet holding = new BitSet(candidates.length());
+        for (int id: ids) {
+            BlockList list = blocksOf.get(id);
+            if (list != null) {
+                list.addTo(holding);
+            }
+        }
+        candidates.and(holding);
+    }
+
+    /**
+     * @return how many blocks of index entries queries have read
+     */
+    long getBlocksScanned() {
+        return blocksScanned;
+    }
+
+    /**
+     * @return the ids of <code>name</code>, none if it isn't in the
+     * journal, or null to match any
+     */
+    private int[] idsOf(final String name) {
+        if (name == null) {
+            return null;
+        }
+        int[] ids = stringIds.get(name);
+        return ids == null ? new int[0] : ids;
+    }
+
+    /**
+     * @return the ids of the mangled names <code>method</code> stands
+     * for, or null to match any
+     */
+    private int[] methodIds(final String method) {
+        if (method == null || method.indexOf(':') >= 0) {
+            return idsOf(method);
+        }
+        int[] ids = new int[0];
+        for (Map.Entry<String, int[]> e: stringIds.entrySet()) {
+            if (e.getKey().startsWith(method + ":")) {
+                ids = append(ids, e.getValue());
+            }
+        }
+        return ids;
+    }
+
+    private static int[] append(final int[] ids, final int... more) {
+        int[] all = Arrays.copyOf(ids, ids.length + more.length);
+        System.arraycopy(more, 0, all, ids.length, more.length);
+        return all;
+    }
+
+    private static boolean contains(final int[] ids, final int id) {
+        if (ids == null) {
+            return true;
+        }
+        for (int i: ids) {
+            if (i == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void readStrings(final File f)
+        throws IOException {
+        ByteBuffer buf = readAll(f);
+        while (buf.remaining() >= 16) {
+            int id = buf.getInt();
+            long position = buf.getLong();
+            int length = buf.getInt();
+            if (length > buf.remaining()) {
+                // Cut short while being written
+                break;
+            }
+            byte[] bytes = new byte[length];
+            buf.get(bytes);
+            String s = new String(bytes, StandardCharsets.UTF_8);
+            int[] ids = stringIds.get(s);
+            stringIds.put(s, ids == null ? new int[] { id } : append(ids, id));
+            reader.defineString(id, position);
+        }
+    }
+
+    private void readBlobs(final File f)
+        throws IOException {
+        ByteBuffer buf = readAll(f);
+        while (buf.remaining() >= 12) {
+            reader.defineBlob(buf.getInt(), buf.getLong());
+        }
+    }
+
+    private void readBlocks(final File f)
+        throws IOException {
+        ByteBuffer buf = readAll(f);
+        int b = 0;
+        for (; b < blockCount; b++) {
+            BlockSummary summary = BlockSummary.read(buf);
+            if (summary == null) {
+                break;
+            }
+            addBlock(b, summary);
+        }
+        // The last block, or any not written out before recording
+        // stopped, is summarized from its entries
+        for (; b < blockCount; b++) {
+            long first = (long) b * BLOCK_ENTRIES;
+            int n = (int) Math.min(BLOCK_ENTRIES, entryCount - first);
+            ByteBuffer entries = read(calls, INDEX_HEADER_SIZE + first * ENTRY_SIZE, n * ENTRY_SIZE);
+            BlockSummary summary = new BlockSummary();
+            for (int i = 0; i < n; i++) {
+                entries.getLong();
+                long startTime = entries.getLong();
+                int methodId = entries.getInt();
+                int targetId = entries.getInt();
+                int clientId = entries.getInt();
+                entries.getInt();
+                entries.get();
+                summary.add(startTime, methodId, targetId, clientId);
+            }
+            addBlock(b, summary);
+        }
+    }
+
+    private void addBlock(final int b, final BlockSummary summary) {
+        blockMinStart[b] = summary.minStart;
+        blockMaxStart[b] = summary.maxStart;
+        addBlock(b, summary.methods, methodBlocks);
+        addBlock(b, summary.targets, targetBlocks);
+        addBlock(b, summary.clients, clientBlocks);
+    }
+
+    private static void addBlock(final int b, final BitSet ids, final Map<Integer, BlockList> blocksOf) {
+        for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+            int id = i - 1;
+            BlockList list = blocksOf.get(id);
+            if (list == null) {
+                list = new BlockList();
+                blocksOf.put(id, list);
+            }
+            list.add(b);
+        }
+    }
+
+    private static ByteBuffer readAll(final File f)
+        throws IOException {
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException(f + " is too large");
+            }
+            ByteBuffer buf = read(ch, 0, (int) ch.size());
+            checkHeader(f.getName(), buf);
+            return buf;
+        }
+    }
+
+    private static void checkHeader(final String name, final ByteBuffer buf)
+        throws IOException {
+        if (buf.remaining() < INDEX_HEADER_SIZE || buf.getInt() != INDEX_MAGIC) {
+            throw new IOException(name + " is not a journal index file");
+        }
+        if (buf.getInt() > INDEX_VERSION) {
+            throw new IOException(name + " was written by a later version");
+        }
+    }
+
+    private static ByteBuffer read(final FileChannel ch, final long position, final int length)
+        throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * List the calls in a journal that match the options given, or
+     * export them to a new journal.
+     */
+    public static void main(String[] args)
+        throws IOException {
+        Query query = new Query();
+        File export = null;
+        boolean rebuild = false;
+        int i = 0;
+        try {
+            for (; i < args.length - 1; i++) {
+                if ("-method".equals(args[i])) {
+                    query.setMethod(args[++i]);
+                }
+                else if ("-target".equals(args[i])) {
+                    query.setTarget(args[++i]);
+                }
+                else if ("-root".equals(args[i])) {
+                    query.setRootTarget(true);
+                }
+                else if ("-client".equals(args[i])) {
+                    query.setClient(args[++i]);
+                }
+                else if ("-from".equals(args[i])) {
+                    query.setFrom(parseTime(args[++i]));
+                }
+                else if ("-to".equals(args[i])) {
+                    query.setTo(parseTime(args[++i]));
+                }
+                else if ("-export".equals(args[i])) {
+                    export = new File(args[++i]);
+                }
+                else if ("-rebuild".equals(args[i])) {
+                    rebuild = true;
+                }
+                else {
+                    break;
+                }
+            }
+        }
+        catch (RuntimeException badTime) {
+            System.err.println(badTime.getMessage());
+            i = -1;
+        }
+        if (i != args.length - 1) {
+            System.err.println("Usage: JournalIndex [-method name] [-target handle | -root] [-client client]"
+                               + " [-from time] [-to time] [-export directory] [-rebuild]"
+                               + " <journal directory>");
+            System.err.println("Times are milliseconds since the epoch, or local date-times"
+                               + " (e.g. 2017-07-14T10:02:00)");
+            System.exit(2);
+        }
+
+        File directory = new File(args[i]);
+        if (rebuild) {
+            build(directory);
+        }
+        try (JournalIndex index = open(directory)) {
+            if (export != null) {
+                long n = index.export(query, export);
+                System.out.println(n + " calls exported to " + export);
+                return;
+            }
+            index.find(query, new CallHandler() {
+                    public void call(JournalCall c) {
+                        System.out.printf(Locale.ROOT, "%d %s %.3f ms %s %s %s%n",
+                                          c.getIndex(), Instant.ofEpochMilli(c.getStartTime()),
+                                          c.getDurationNanos() / 1e6,
+                                          c.getTarget() == null ? "(root)" : c.getTarget(),
+                                          c.getMangledMethodName(),
+                                          c.getClient() == null ? "" : c.getClient());
+                    }
+                });
+        }
+    }
+
+    private static long parseTime(final String time) {
+        if (time.matches("\\d+")) {
+            return Long.parseLong(time);
+        }
+        return LocalDateTime.parse(time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+
+    /**
+     * Which calls to find; unset criteria match every call.
+     */
+    public static class Query {
+        private String method;
+        private String target;
+        private boolean rootTarget = false;
+        private String client;
+        private long from = Long.MIN_VALUE;
+        private long to = Long.MAX_VALUE;
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @param method a mangled method name, or a method name
+         * without argument types for all its overloads
+         */
+        public void setMethod(final String method) {
+            this.method = method;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * @param target a target handle, or null for any target (see
+         * {@link #setRootTarget})
+         */
+        public void setTarget(final String target) {
+            this.target = target;
+        }
+
+        public boolean isRootTarget() {
+            return rootTarget;
+        }
+
+        /**
+         * @param rootTarget if true, only calls on the root remote
+         * match, and the target handle is ignored
+         */
+        public void setRootTarget(final boolean rootTarget) {
+            this.rootTarget = rootTarget;
+        }
+
+        public String getClient() {
+            return client;
+        }
+
+        public void setClient(final String client) {
+            this.client = client;
+        }
+
+        public long getFrom() {
+            return from;
+        }
+
+        /**
+         * @param from earliest start time, in milliseconds since the
+         * epoch
+         */
+        public void setFrom(final long from) {
+            this.from = from;
+        }
+
+        public long getTo() {
+            return to;
+        }
+
+        /**
+         * @param to start time (exclusive) calls must be before
+         */
+        public void setTo(final long to) {
+            this.to = to;
+        }
+    }
+
+    public interface CallHandler {
+        void call(JournalCall call) throws IOException;
+    }
+
+    private interface EntryHandler {
+        void entry(long position) throws IOException;
+    }
+
+    /**
+     * Start time range and ids of a block of index entries. Ids are
+     * kept off by one, so that {@link RecordingJournal#NO_ID} fits.
+     */
+    static final class BlockSummary {
+        private long minStart;
+        private long maxStart;
+        private final BitSet methods = new BitSet();
+        private final BitSet targets = new BitSet();
+        private final BitSet clients = new BitSet();
+
+        BlockSummary() {
+            clear();
+        }
+
+        void clear() {
+            minStart = Long.MAX_VALUE;
+            maxStart = Long.MIN_VALUE;
+            methods.clear();
+            targets.clear();
+            clients.clear();
+        }
+
+        void add(final long startTime, final int methodId, final int targetId, final int clientId) {
+            minStart = Math.min(minStart, startTime);
+            maxStart = Math.max(maxStart, startTime);
+            methods.set(methodId + 1);
+            targets.set(targetId + 1);
+            clients.set(clientId + 1);
+        }
+
+        void write(final DataOutputStream out)
+            throws IOException {
+            out.writeLong(minStart);
+            out.writeLong(maxStart);
+            writeIds(out, methods);
+            writeIds(out, targets);
+            writeIds(out, clients);
+        }
+
+        private static void writeIds(final DataOutputStream out, final BitSet ids)
+            throws IOException {
+            out.writeInt(ids.cardinality());
+            for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+                out.writeInt(i - 1);
+            }
+        }
+
+        /**
+         * @return the next summary in <code>buf</code>, or null if
+         * there is none, or only part of one
+         */
+        static BlockSummary read(final ByteBuffer buf) {
+            if (buf.remaining() < 16) {
+                return null;
+            }
+            BlockSummary s = new BlockSummary();
+            s.minStart = buf.getLong();
+            s.maxStart = buf.getLong();
+            if (!readIds(buf, s.methods) || !readIds(buf, s.targets) || !readIds(buf, s.clients)) {
+                return null;
+            }
+            return s;
+        }
+
+        private static boolean readIds(final ByteBuffer buf, final BitSet ids) {
+            if (buf.remaining() < 4) {
+                return false;
+            }
+            int n = buf.getInt();
+            if (n < 0 || buf.remaining() / 4 < n) {
+                return false;
+            }
+            for (int i = 0; i < n; i++) {
+                ids.set(buf.getInt() + 1);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The blocks an id occurs in, in order.
+     */
+    private static final class BlockList {
+        private int[] blocks = new int[4];
+        private int size = 0;
+
+        void add(final int b) {
+            if (size == blocks.length) {
+                blocks = Arrays.copyOf(blocks, size * 2);
+            }
+            blocks[size++] = b;
+        }
+
+        void addTo(final BitSet set) {
+            for (int i = 0; i < size; i++) {
+                set.set(blocks[i]);
+            }
+        }
+    }
+}
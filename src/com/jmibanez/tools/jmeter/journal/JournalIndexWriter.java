@@ -0,0 +1,137 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import static com.jmibanez.tools.jmeter.journal.JournalIndex.*;
+
+/**
+ * Appends to the index files of a journal (see {@link JournalIndex})
+ * as its records are written or read.
+ */
+final class JournalIndexWriter
+    implements Closeable
+{
+    private final FileOutputStream[] files = new FileOutputStream[4];
+    private final DataOutputStream calls;
+    private final DataOutputStream blocks;
+    private final DataOutputStream strings;
+    private final DataOutputStream blobs;
+    private final FileChannel end;
+
+    private long journalEnd = -1;
+
+    private long entryCount = 0;
+    private final BlockSummary block = new BlockSummary();
+
+    /**
+     * @throws IOException if the index files can't be created
+     */
+    JournalIndexWriter(final File directory)
+        throws IOException {
+        // In the order they're flushed
+        strings = create(0, new File(directory, STRINGS_FILE));
+        blobs = create(1, new File(directory, BLOBS_FILE));
+        calls = create(2, new File(directory, CALLS_FILE));
+        blocks = create(3, new File(directory, BLOCKS_FILE));
+        end = FileChannel.open(new File(directory, END_FILE).toPath(), StandardOpenOption.CREATE,
+                               StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    private DataOutputStream create(final int n, final File f)
+        throws IOException {
+        files[n] = new FileOutputStream(f);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(files[n]));
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(INDEX_VERSION);
+        return out;
+    }
+
+    /**
+     * @param position where the string record's body starts
+     */
+    void string(final int id, final long position, final String value)
+        throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        strings.writeInt(id);
+        strings.writeLong(position);
+        strings.writeInt(bytes.length);
+        strings.write(bytes);
+    }
+
+    /**
+     * @param position where the blob record's body starts, as for
+     * {@link JournalReader#getCallPosition}
+     */
+    void blob(final int id, final long position)
+        throws IOException {
+        blobs.writeInt(id);
+        blobs.writeLong(position);
+    }
+
+    void call(final long position, final long startTime, final int methodId,
+              final int targetId, final int clientId, final int argsId,
+              final byte flags)
+        throws IOException {
+        calls.writeLong(position);
+        calls.writeLong(startTime);
+        calls.writeInt(methodId);
+        calls.writeInt(targetId);
+        calls.writeInt(clientId);
+        calls.writeInt(argsId);
+        calls.writeByte(flags);
+
+        block.add(startTime, methodId, targetId, clientId);
+        if (++entryCount % BLOCK_ENTRIES == 0) {
+            block.write(blocks);
+            block.clear();
+        }
+    }
+
+    /**
+     * Write everything indexed so far to disk, and mark the index as
+     * covering the journal up to <code>journalEnd</code> (as for
+     * {@link JournalIndex#journalEnd}).
+     */
+    void flush(final long journalEnd)
+        throws IOException {
+        // Strings and blobs before the calls that refer to them
+        strings.flush();
+        blobs.flush();
+        calls.flush();
+        blocks.flush();
+        for (FileOutputStream f: files) {
+            f.getFD().sync();
+        }
+
+        ByteBuffer mark = ByteBuffer.allocate(INDEX_HEADER_SIZE + 8);
+        mark.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putLong(journalEnd).flip();
+        while (mark.hasRemaining()) {
+            end.write(mark, mark.position());
+        }
+        end.force(false);
+        this.journalEnd = journalEnd;
+    }
+
+    /**
+     * The last block, if not full, is summarized when the index is
+     * opened.
+     */
+    public void close()
+        throws IOException {
+        flush(journalEnd);
+        strings.close();
+        blobs.close();
+        calls.close();
+        blocks.close();
+        end.close();
+    }
+}
@@ -0,0 +1,351 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.jmibanez.tools.jmeter.journal.RecordingJournal.*;
+
+/**
+ * Reads the calls in a recording journal in the order they were
+ * written, through read-only mappings of its segments.
+ *
+ * <p>Only where each string and argument blob record is, and the
+ * {@link #MAX_CACHED_STRINGS} most recently used strings, are kept in
+ * memory; other strings are read again from the mapped segments when
+ * needed, and argument bytes are never copied out of them.</p>
+ */
+public class JournalReader
+    implements Closeable
+{
+    public static final int MAX_CACHED_STRINGS = 1 << 16;
+
+    private final File directory;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    // Where the body of each string and blob record is, by id; -1 if
+    // not read yet
+    private long[] stringPositions = new long[0];
+    private long[] blobPositions = new long[0];
+    private final Map<Integer, String> strings = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > MAX_CACHED_STRINGS;
+            }
+        };
+
+    private int segment = 0;
+    private ByteBuffer data;
+    private long callPosition = -1;
+    private boolean argumentsSkipped = false;
+    private JournalIndexWriter indexWriter;
+
+    /**
+     * @throws IOException if <code>directory</code> holds no journal,
+     * or a segment isn't one
+     */
+    public JournalReader(final File directory)
+        throws IOException {
+        this.directory = directory;
+        File[] files = listSegments(directory);
+        if (files.length == 0) {
+            throw new IOException("No journal in " + directory);
+        }
+        for (File f: files) {
+            segments.add(map(f));
+        }
+        data = dataOf(0);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public boolean isArgumentsSkipped() {
+        return argumentsSkipped;
+    }
+
+    /**
+     * @param skipped if true, calls are read without their arguments. For reading through large
+     * journals when only call timings and targets are needed.
+     */
+    public void setArgumentsSkipped(final boolean skipped) {
+        this.argumentsSkipped = skipped;
+    }
+
+    /**
+     * Index each record as it is read, to build an index for a
+     * journal written without one.
+     */
+    void setIndexWriter(final JournalIndexWriter indexWriter) {
+        this.indexWriter = indexWriter;
+    }
+
+    /**
+     * @return the next call, or null if there are no more
+     */
+    public JournalCall next()
+        throws IOException {
+        while (data != null) {
+            if (data.remaining() < RECORD_HEADER_SIZE) {
+                nextSegment();
+                continue;
+            }
+            int length = data.getInt();
+            byte type = data.get();
+            if (length == 0 && type == 0) {
+                nextSegment();
+                continue;
+            }
+            if (length < 0 || length > data.remaining()) {
+                throw new IOException("Corrupt record in journal segment " + segment
+                                      + " at " + (data.position() - RECORD_HEADER_SIZE));
+            }
+
+            ByteBuffer body = data.slice();
+            body.limit(length);
+            data.position(data.position() + length);
+
+            long position = positionOf(data.position() - length);
+            switch (type) {
+            case TYPE_STRING:
+                int stringId = body.getInt();
+                String s = getString(body);
+                stringPositions = define(stringPositions, stringId, position);
+                synchronized (strings) {
+                    strings.put(stringId, s);
+                }
+                if (indexWriter != null) {
+                    indexWriter.string(stringId, position, s);
+                }
+                break;
+            case TYPE_BLOB:
+                int blobId = body.getInt();
+                blobPositions = define(blobPositions, blobId, position);
+                if (indexWriter != null) {
+                    indexWriter.blob(blobId, position);
+                }
+                break;
+            case TYPE_CALL:
+                callPosition = position;
+                return readCall(body, callPosition);
+            default:
+                // Record type from a later version; skip it
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return where the call last returned by {@link #next} is, for
+     * {@link #readCallAt}
+     */
+    public long getCallPosition() {
+        return callPosition;
+    }
+
+    /**
+     * Read the call at <code>position</code> (as returned by {@link
+     * #getCallPosition}) again. Strings and argument blobs are
+     * resolved from those read so far (or defined by the index), so
+     * calls can safely be read by several threads at once after the
+     * whole journal has been read through with {@link #next}.
+     */
+    public JournalCall readCallAt(final long position)
+        throws IOException {
+        int seg = (int) (position >>> 32);
+        int offset = (int) position;
+        if (seg < 0 || seg >= segments.size() || offset < HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IOException("No call at " + Long.toHexString(position));
+        }
+        ByteBuffer record = segments.get(seg).duplicate();
+        int length = record.getInt(offset - RECORD_HEADER_SIZE);
+        if (record.get(offset - 1) != TYPE_CALL) {
+            throw new IOException("No call at " + Long.toHexString(position));
+        }
+        record.limit(offset + length).position(offset);
+        return readCall(record.slice(), -1);
+    }
+
+    /**
+     * Define where the string record with <code>id</code> is, as
+     * recorded in the index, for calls read by {@link #readCallAt}.
+     */
+    void defineString(final int id, final long position) {
+        stringPositions = define(stringPositions, id, position);
+    }
+
+    /**
+     * Define where the argument blob record with <code>id</code> is.
+     */
+    void defineBlob(final int id, final long position) {
+        blobPositions = define(blobPositions, id, position);
+    }
+
+    public void close() {
+        segments.clear();
+        synchronized (strings) {
+            strings.clear();
+        }
+        stringPositions = new long[0];
+        blobPositions = new long[0];
+        data = null;
+    }
+
+    /**
+     * @param position where <code>body</code> is, to index the call;
+     * -1 if it's being read again
+     */
+    private JournalCall readCall(final ByteBuffer body, final long position)
+        throws IOException {
+        int index = body.getInt();
+        long startTime = body.getLong();
+        long durationNanos = body.getLong();
+        int targetId = body.getInt();
+        String target = string(targetId);
+        int methodId = body.getInt();
+        String method = string(methodId);
+        int argsId = body.getInt();
+        byte flags = body.get();
+        long returnDigest = body.getLong();
+
+        int pathCount = body.getInt();
+        Map<String, String> paths = new HashMap<>();
+        for (int i = 0; i < pathCount; i++) {
+            String handle = string(body.getInt());
+            paths.put(handle, string(body.getInt()));
+        }
+        int clientId = body.remaining() >= 4 ? body.getInt() : NO_ID;
+        String client = string(clientId);
+        if (indexWriter != null && position >= 0) {
+            indexWriter.call(position, startTime, methodId, targetId, clientId, argsId, flags);
+        }
+
+        ByteBuffer args = null;
+        if (argsId != NO_ID && !argumentsSkipped) {
+            args = blob(index, argsId);
+        }
+        return new JournalCall(index, startTime, durationNanos, target, method,
+                               args, flags, returnDigest, paths, client);
+    }
+
+    private String string(final int id)
+        throws IOException {
+        if (id == NO_ID) {
+            return null;
+        }
+        synchronized (strings) {
+            String s = strings.get(id);
+            if (s != null) {
+                return s;
+            }
+        }
+        ByteBuffer body = recordAt(TYPE_STRING, id, positionOf(stringPositions, id));
+        if (body == null) {
+            throw new IOException("Unknown string " + id + " in journal " + directory);
+        }
+        body.getInt();
+        String s = getString(body);
+        synchronized (strings) {
+            strings.put(id, s);
+        }
+        return s;
+    }
+
+    private ByteBuffer blob(final int callIndex, final int id)
+        throws IOException {
+        ByteBuffer body = recordAt(TYPE_BLOB, id, positionOf(blobPositions, id));
+        if (body == null) {
+            throw new IOException("Call " + callIndex + " refers to unknown argument blob " + id);
+        }
+        body.position(4 + 8);
+        int blobLength = body.getInt();
+        ByteBuffer blob = body.slice();
+        blob.limit(blobLength);
+        return blob;
+    }
+
+    /**
+     * @return the body of the record of <code>type</code> and
+     * <code>id</code> at <code>position</code>, or null if there is
+     * none there
+     */
+    private ByteBuffer recordAt(final byte type, final int id, final long position) {
+        int seg = (int) (position >>> 32);
+        int offset = (int) position;
+        if (position < 0 || seg >= segments.size() || offset < HEADER_SIZE + RECORD_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer record = segments.get(seg).duplicate();
+        int length = record.getInt(offset - RECORD_HEADER_SIZE);
+        if (record.get(offset - 1) != type || length < 4 || offset + length > record.capacity()
+            || record.getInt(offset) != id) {
+            return null;
+        }
+        record.limit(offset + length).position(offset);
+        return record.slice();
+    }
+
+    private static long positionOf(final long[] positions, final int id) {
+        return id >= 0 && id < positions.length ? positions[id] : -1;
+    }
+
+    private long positionOf(final int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static long[] define(final long[] positions, final int id, final long position) {
+        long[] table = positions;
+        if (id >= table.length) {
+            int old = table.length;
+            table = Arrays.copyOf(table, Math.max(id + 1, old * 2));
+            Arrays.fill(table, old, table.length, -1);
+        }
+        table[id] = position;
+        return table;
+    }
+
+    private void nextSegment() {
+        segment++;
+        data = segment < segments.size() ? dataOf(segment) : null;
+    }
+
+    private ByteBuffer dataOf(final int segment) {
+        ByteBuffer seg = segments.get(segment).duplicate();
+        int dataEnd = Math.min(seg.getInt(HEADER_DATA_END), seg.capacity());
+        seg.limit(Math.max(dataEnd, HEADER_SIZE)).position(HEADER_SIZE);
+        return seg;
+    }
+
+    private static MappedByteBuffer map(final File f)
+        throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            MappedByteBuffer seg = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (seg.capacity() < HEADER_SIZE || seg.getInt(HEADER_MAGIC) != SEGMENT_MAGIC) {
+                throw new IOException(f + " is not a journal segment");
+            }
+            if (seg.getInt(HEADER_VERSION) > FORMAT_VERSION) {
+                throw new IOException(f + " was written by a later version (format "
+                                      + seg.getInt(HEADER_VERSION) + ")");
+            }
+            return seg;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import static com.jmibanez.tools.jmeter.journal.RecordingJournal.*;
+
+/**
+ * Appends calls to a new recording journal (see {@link
+ * RecordingJournal}) through memory-mapped segments.
+ *
+ * <p>Argument blobs are stored once per distinct content: a blob
+ * whose hash matches one already written is compared byte for byte
+ * with it, and referred to by id if equal. At most {@link
+ * #MAX_DEDUP_ENTRIES} distinct blobs are remembered for this, by
+ * where they were written; those in finished segments are read back
+ * through a file channel, so their mappings can be released.
+ * Strings are likewise written once while among the {@link
+ * #MAX_STRING_ENTRIES} most recently used; one evicted and seen again
+ * is written again, under a new id.</p>
+ *
+ * <p>The journal's {@link JournalIndex} is written alongside it.
+ * Until closed, the writer holds a lock on the directory's {@link
+ * JournalIndex#LOCK_FILE}.</p>
+ */
+public class JournalWriter
+    implements Closeable
+{
+    private static Log log = LogFactory.getLog(JournalWriter.class);
+
+    public static final int MAX_DEDUP_ENTRIES = 1 << 20;
+    public static final int MAX_STRING_ENTRIES = 1 << 16;
+
+    private static final int CALL_FIXED_SIZE = 4 + 8 + 8 + 4 + 4 + 4 + 1 + 8 + 4 + 4;
+
+    private final File directory;
+    private final int segmentSize;
+
+    private int segmentCount = 0;
+    private MappedByteBuffer current;
+    private File currentFile;
+    private final JournalIndexWriter index;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    // The finished segment blobs were last read back from
+    private FileChannel readChannel;
+    private int readSegment = -1;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(0);
+
+    private final Map<String, Integer> stringIds;
+    private int stringCount = 0;
+    private final Map<Long, BlobRef> blobs = new HashMap<>();
+    private int blobCount = 0;
+
+    private long callCount = 0;
+    private long dedupCount = 0;
+    private boolean closed = false;
+
+    public JournalWriter(final File directory)
+        throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @throws IOException if <code>directory</code> can't be created,
+     * or already holds a journal
+     */
+    public JournalWriter(final File directory, final int segmentSize)
+        throws IOException {
+        this(directory, segmentSize, MAX_STRING_ENTRIES);
+    }
+
+    JournalWriter(final File directory, final int segmentSize, final int maxStrings)
+        throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create journal directory " + directory);
+        }
+        if (listSegments(directory).length > 0) {
+            throw new IOException("Journal already exists in " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = Math.max(segmentSize, HEADER_SIZE + RECORD_HEADER_SIZE);
+        this.lockChannel = FileChannel.open(new File(directory, JournalIndex.LOCK_FILE).toPath(),
+                                            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Journal in " + directory + " is being written by another process");
+        }
+        this.index = new JournalIndexWriter(directory);
+        this.stringIds = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > maxStrings;
+                }
+            };
+        nextSegment(0);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized long getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * @return the number of string records written
+     */
+    public synchronized int getStringCount() {
+        return stringCount;
+    }
+
+    /**
+     * @return the number of argument blobs written
+     */
+    public synchronized int getBlobCount() {
+        return blobCount;
+    }
+
+    /**
+     * @return the number of calls whose arguments were already
+     * stored
+     */
+    public synchronized long getDedupCount() {
+        return dedupCount;
+    }
+
+    public synchronized void append(final JournalCall c)
+        throws IOException {
+        if (closed) {
+            throw new IOException("Journal closed");
+        }
+
+        int targetId = c.getTarget() == null ? NO_ID : stringId(c.getTarget());
+        int methodId = stringId(c.getMangledMethodName());
+        ByteBuffer args = c.getPackedArguments();
+        int argsId = args == null ? NO_ID : blobId(args);
+        int clientId = c.getClient() == null ? NO_ID : stringId(c.getClient());
+
+        Map<String, String> paths = c.getRemotePaths();
+        int[] pathIds = new int[paths.size() * 2];
+        int p = 0;
+        for (Map.Entry<String, String> e: paths.entrySet()) {
+            pathIds[p++] = stringId(e.getKey());
+            pathIds[p++] = stringId(e.getValue());
+        }
+
+        ByteBuffer out = startRecord(TYPE_CALL, CALL_FIXED_SIZE + pathIds.length * 4);
+        long position = position();
+        out.putInt(c.getIndex());
+        out.putLong(c.getStartTime());
+        out.putLong(c.getDurationNanos());
+        out.putInt(targetId);
+        out.putInt(methodId);
+        out.putInt(argsId);
+        out.put(c.getFlags());
+        out.putLong(c.getReturnDigest());
+        out.putInt(paths.size());
+        for (int id: pathIds) {
+            out.putInt(id);
+        }
+        out.putInt(clientId);
+        endRecord();
+        index.call(position, c.getStartTime(), methodId, targetId, clientId, argsId, c.getFlags());
+        callCount++;
+    }
+
+    /**
+     * Flush written records, and the index, to disk.
+     */
+    public synchronized void force()
+        throws IOException {
+        if (current != null) {
+            current.force();
+            index.flush(position());
+        }
+    }
+
+    public synchronized void close()
+        throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finishSegment();
+            index.close();
+        }
+        finally {
+            if (readChannel != null) {
+                readChannel.close();
+            }
+            lock.release();
+            lockChannel.close();
+            new File(directory, JournalIndex.LOCK_FILE).delete();
+        }
+        stringIds.clear();
+        blobs.clear();
+        log.info(String.format("Journal %1$s closed: %2$d calls, %3$d argument blobs (%4$d calls deduplicated)",
+                               directory, callCount, blobCount, dedupCount));
+    }
+
+    private int stringId(final String s)
+        throws IOException {
+        Integer id = stringIds.get(s);
+        if (id != null) {
+            return id;
+        }
+        id = stringCount++;
+        ByteBuffer out = startRecord(TYPE_STRING, 4 + stringSize(s));
+        index.string(id, position(), s);
+        out.putInt(id);
+        putString(out, s);
+        endRecord();
+        stringIds.put(s, id);
+        return id;
+    }
+
+    private int blobId(final ByteBuffer blob)
+        throws IOException {
+        int length = blob.remaining();
+        long hash = contentHash(blob, blob.position(), length);
+        BlobRef existing = blobs.get(hash);
+        for (BlobRef ref = existing; ref != null; ref = ref.next) {
+            if (blobEquals(ref, blob)) {
+                dedupCount++;
+                return ref.id;
+            }
+        }
+
+        int id = blobCount++;
+        ByteBuffer out = startRecord(TYPE_BLOB, 4 + 8 + 4 + length);
+        index.blob(id, position());
+        out.putInt(id);
+        out.putLong(hash);
+        out.putInt(length);
+        int offset = out.position();
+        out.put(blob.duplicate());
+        endRecord();
+
+        if (blobs.size() < MAX_DEDUP_ENTRIES) {
+            blobs.put(hash, new BlobRef(id, segmentCount - 1, offset, length, existing));
+        }
+        return id;
+    }
+
+    private boolean blobEquals(final BlobRef ref, final ByteBuffer blob)
+        throws IOException {
+        if (blob.remaining() != ref.length) {
+            return false;
+        }
+        if (ref.segment == segmentCount - 1) {
+            ByteBuffer stored = current.duplicate();
+            stored.limit(ref.offset + ref.length).position(ref.offset);
+            return stored.equals(blob);
+        }
+
+        if (ref.segment != readSegment) {
+            if (readChannel != null) {
+                readChannel.close();
+            }
+            readSegment = -1;
+            readChannel = FileChannel.open(segmentFile(directory, ref.segment).toPath(),
+                                           StandardOpenOption.READ);
+            readSegment = ref.segment;
+        }
+        if (readBuffer.capacity() < ref.length) {
+            readBuffer = ByteBuffer.allocate(Math.max(ref.length, readBuffer.capacity() * 2));
+        }
+        readBuffer.clear().limit(ref.length);
+        long at = ref.offset;
+        while (readBuffer.hasRemaining()) {
+            if (readChannel.read(readBuffer, at + readBuffer.position()) < 0) {
+                return false;
+            }
+        }
+        readBuffer.flip();
+        return readBuffer.equals(blob);
+    }
+
+    private ByteBuffer startRecord(final byte type, final int bodyLength)
+        throws IOException {
+        int needed = RECORD_HEADER_SIZE + bodyLength;
+        if (current == null || current.remaining() < needed) {
+            nextSegment(needed);
+        }
+        current.putInt(bodyLength);
+        current.put(type);
+        return current;
+    }
+
+    /**
+     * @return where the record being written starts, as for {@link
+     * JournalReader#getCallPosition}; between records, where the
+     * journal ends, as for {@link JournalIndex#journalEnd}
+     */
+    private long position() {
+        return ((long) (segmentCount - 1) << 32) | current.position();
+    }
+
+    private void endRecord() {
+        // Readers can trust everything up to here, even if we never
+        // get to close the journal
+        current.putInt(HEADER_DATA_END, current.position());
+    }
+
+    private void nextSegment(final int needed)
+        throws IOException {
+        finishSegment();
+
+        int number = segmentCount++;
+        int size = Math.max(segmentSize, HEADER_SIZE + needed);
+        File f = segmentFile(directory, number);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(size);
+            current = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        currentFile = f;
+
+        current.putInt(HEADER_MAGIC, SEGMENT_MAGIC);
+        current.putInt(HEADER_VERSION, FORMAT_VERSION);
+        current.putInt(HEADER_SEGMENT, number);
+        current.position(HEADER_SIZE);
+        endRecord();
+    }
+
+    private void finishSegment()
+        throws IOException {
+        if (current == null) {
+            return;
+        }
+        current.force();
+        // Flushed with every segment, so an index left behind by a
+        // crash can be told from a complete one
+        index.flush(position());
+        int dataEnd = current.position();
+        if (dataEnd < current.capacity()) {
+            // Give back the unused tail of the segment
+            try (RandomAccessFile raf = new RandomAccessFile(currentFile, "rw")) {
+                raf.setLength(dataEnd);
+            }
+            catch (IOException ioEx) {
+                log.debug("Couldn't trim journal segment " + currentFile, ioEx);
+            }
+        }
+        current = null;
+        currentFile = null;
+    }
+
+
+    /**
+     * Where a blob was written: its segment, and the offset of its
+     * bytes in it.
+     */
+    private static final class BlobRef {
+        private final int id;
+        private final int segment;
+        private final int offset;
+        private final int length;
+        private final BlobRef next;
+
+        BlobRef(final int id, final int segment, final int offset,
+                final int length, final BlobRef next) {
+            this.id = id;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.next = next;
+        }
+    }
+}
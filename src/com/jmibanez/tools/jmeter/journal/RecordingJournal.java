@@ -0,0 +1,206 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.rmi.Remote;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Layout of a recording journal.
+ *
+ * <p>A journal is a directory of segment files, written in order.
+ * Each segment starts with a {@link #HEADER_SIZE} byte header (magic,
+ * format version, segment number, and the offset just past the last
+ * complete record), followed by records:</p>
+ *
+ * <pre>
+ *   int length    -- of the record body, not counting length and type
+ *   byte type     -- TYPE_*
+ *   body
+ * </pre>
+ *
+ * <p>A zero length and type end the segment. Strings (target handles,
+ * mangled method names, remote paths) and argument blobs are written
+ * once, as {@link #TYPE_STRING} and {@link #TYPE_BLOB} records, and
+ * referred to by id from later {@link #TYPE_CALL} records, in the
+ * same or any later segment. Numbers are big-endian; strings are a
+ * length-prefixed UTF-8 byte sequence.</p>
+ */
+public final class RecordingJournal {
+
+    private static Log log = LogFactory.getLog(RecordingJournal.class);
+
+    /** "RMIJ" */
+    public static final int SEGMENT_MAGIC = 0x524d494a;
+    public static final int FORMAT_VERSION = 1;
+
+    public static final int HEADER_SIZE = 32;
+    static final int HEADER_MAGIC = 0;
+    static final int HEADER_VERSION = 4;
+    static final int HEADER_SEGMENT = 8;
+    static final int HEADER_DATA_END = 12;
+
+    public static final int RECORD_HEADER_SIZE = 5;
+
+    /** int id, string */
+    public static final byte TYPE_STRING = 1;
+    /** int id, long content hash, int length, bytes */
+    public static final byte TYPE_BLOB = 2;
+    /**
+     * int index, long start time (ms), long duration (ns), int target
+     * string id (-1 for the root), int method string id, int argument
+     * blob id (-1 for none), byte flags, long return digest, int path
+     * count, then a handle and path string id per path, then an int
+     * client string id (-1 if not known). The client id is absent
+     * from calls written before clients were recorded.
+     */
+    public static final byte TYPE_CALL = 3;
+
+    public static final byte FLAG_EXCEPTION = 1;
+    public static final byte FLAG_REMOTE_RETURNED = 2;
+
+    public static final int NO_ID = -1;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private RecordingJournal() {
+    }
+
+    public static File segmentFile(final File directory, final int segment) {
+        return new File(directory, String.format("%08d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * @return the segment files of the journal in
+     * <code>directory</code>, in order
+     */
+    public static File[] listSegments(final File directory) {
+        File[] segments = directory.listFiles(new FileFilter() {
+                public boolean accept(File f) {
+                    return f.isFile() && f.getName().endsWith(SEGMENT_SUFFIX);
+                }
+            });
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of <code>length</code> bytes of
+     * <code>buf</code> from <code>offset</code>.
+     */
+    public static long contentHash(final ByteBuffer buf, final int offset, final int length) {
+        long hash = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= buf.get(i) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public static long contentHash(final byte[] bytes) {
+        return contentHash(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * A hash of the serialized form of <code>value</code>, with every
+     * remote replaced by the names of its interfaces, so that the
+     * same value returned in another run (by other remote objects)
+     * has the same digest.
+     *
+     * @return the digest, or 0 if <code>value</code> can't be
+     * serialized
+     */
+    public static long digestOf(final Object value) {
+        HashingOutputStream hashed = new HashingOutputStream();
+        try {
+            ObjectOutputStream out = new RemoteNamingOutputStream(hashed);
+            out.writeObject(value);
+            out.close();
+            return hashed.hash;
+        }
+        catch (IOException notSerializable) {
+            log.debug("Can't digest return value", notSerializable);
+            return 0;
+        }
+    }
+
+    static void putString(final ByteBuffer buf, final String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buf.putInt(bytes.length);
+        buf.put(bytes);
+    }
+
+    static String getString(final ByteBuffer buf) {
+        int length = buf.getInt();
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int stringSize(final String s) {
+        return 4 + s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final class HashingOutputStream
+        extends OutputStream {
+
+        private long hash = FNV_OFFSET;
+
+        @Override
+        public void write(int b) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+    }
+
+    private static final class RemoteNamingOutputStream
+        extends ObjectOutputStream {
+
+        RemoteNamingOutputStream(final OutputStream out)
+            throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(final Object obj)
+            throws IOException {
+            if (obj instanceof Remote) {
+                // Stubs and recording proxies implement the remote
+                // interfaces of the object they stand for
+                Class<?>[] interfaces = obj.getClass().getInterfaces();
+                String[] names = new String[interfaces.length];
+                for (int i = 0; i < interfaces.length; i++) {
+                    names[i] = interfaces[i].getName();
+                }
+                Arrays.sort(names);
+                return Arrays.toString(names);
+            }
+            return obj;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.jmibanez.tools.jmeter.RMIRemoteObjectConfig;
+import com.jmibanez.tools.jmeter.RMISampler;
+import com.jmibanez.tools.jmeter.RecordedThinkTimer;
+import com.jmibanez.tools.jmeter.gui.RMIRemoteObjectConfigGUI;
+import com.jmibanez.tools.jmeter.gui.RMISamplerGUI;
+import com.jmibanez.tools.jmeter.gui.RecordedThinkTimerGui;
+import com.jmibanez.tools.jmeter.impl.RmiSamplerGeneratorMethodRecorder;
+
+/**
+ * Writes a JMeter test plan (<code>.jmx</code>) from a recording
+ * journal, without the JMeter GUI: one thread group holding an RMI
+ * Remote Object Config and an RMI Sampler per recorded call, in the
+ * order they were recorded, as the proxy would have generated them.
+ *
+ * <p>Argument scripts are generated on a pool of threads, and the
+ * plan is written as each sampler's turn comes, so at most a fixed
+ * number of samplers are held in memory however long the
+ * recording.</p>
+ */
+public class TestPlanGenerator {
+
+    private static Log log = LogFactory.getLog(TestPlanGenerator.class);
+
+    public static final String DEFAULT_TARGET_RMI_NAME = "rmi://localhost:1099/";
+
+    // Samplers generated or being generated ahead of the one being
+    // written, per thread
+    private static final int WINDOW_PER_THREAD = 64;
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+    static {
+        for (Class<?> c: new Class<?>[] { boolean.class, byte.class, char.class, short.class,
+                                          int.class, long.class, float.class, double.class }) {
+            PRIMITIVES.put(c.getName(), c);
+        }
+    }
+
+    private int threads;
+    private String samplerNameFormat = RmiSamplerGeneratorMethodRecorder.DEFAULT_SAMPLER_NAME_FORMAT;
+    private String targetRmiName = DEFAULT_TARGET_RMI_NAME;
+    private boolean thinkTimersAdded = false;
+
+    private final Map<String, Class<?>[]> argumentTypes = new ConcurrentHashMap<>();
+    private final AtomicLong argumentFailures = new AtomicLong();
+
+    /**
+     * Creates a generator using one thread per processor.
+     */
+    public TestPlanGenerator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public TestPlanGenerator(final int threads) {
+        setThreads(threads);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads how many threads generate argument scripts
+     */
+    public void setThreads(final int threads) {
+        this.threads = Math.max(threads, 1);
+    }
+
+    public String getSamplerNameFormat() {
+        return samplerNameFormat;
+    }
+
+    public void setSamplerNameFormat(final String samplerNameFormat) {
+        this.samplerNameFormat = samplerNameFormat;
+    }
+
+    public String getTargetRmiName() {
+        return targetRmiName;
+    }
+
+    /**
+     * @param targetRmiName the RMI name of the root remote, for the
+     * plan's RMI Remote Object Config
+     */
+    public void setTargetRmiName(final String targetRmiName) {
+        this.targetRmiName = targetRmiName;
+    }
+
+    public boolean isThinkTimersAdded() {
+        return thinkTimersAdded;
+    }
+
+    /**
+     * @param added whether to give each sampler a {@link
+     * RecordedThinkTimer} with the time since the previous recorded
+     * call ended
+     */
+    public void setThinkTimersAdded(final boolean added) {
+        this.thinkTimersAdded = added;
+    }
+
+    /**
+     * @return how many calls in the last plan generated got an empty
+     * argument script, because their arguments couldn't be
+     * deserialized or scripted
+     */
+    public long getArgumentFailures() {
+        return argumentFailures.get();
+    }
+
+    /**
+     * Write a test plan for the journal in <code>directory</code>.
+     *
+     * @return the number of samplers written
+     */
+    public long generate(final File directory, final Writer out)
+        throws IOException {
+        argumentFailures.set(0);
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService generators = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Test plan generator " + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+        long written = 0;
+        try (JournalReader reader = new JournalReader(directory)) {
+            writeHeader(out, directory.getName());
+
+            ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+            int window = threads * WINDOW_PER_THREAD;
+            long lastEndTime = -1;
+            JournalCall call;
+            while ((call = reader.next()) != null) {
+                long thinkTime = 0;
+                if (thinkTimersAdded && lastEndTime >= 0) {
+                    thinkTime = call.getStartTime() - lastEndTime;
+                }
+                lastEndTime = Math.max(lastEndTime, call.getEndTime());
+
+                if (pending.size() >= window) {
+                    out.write(take(pending.poll()));
+                    written++;
+                }
+                final JournalCall c = call;
+                final long think = thinkTime;
+                pending.add(generators.submit(new Callable<String>() {
+                        public String call() {
+                            return samplerXml(c, think);
+                        }
+                    }));
+            }
+            while (!pending.isEmpty()) {
+                out.write(take(pending.poll()));
+                written++;
+            }
+
+            writeFooter(out);
+            out.flush();
+        }
+        finally {
+            generators.shutdownNow();
+        }
+        if (argumentFailures.get() > 0) {
+            log.warn(argumentFailures.get() + " of " + written
+                     + " samplers have no arguments script; see earlier warnings");
+        }
+        return written;
+    }
+
+    private static String take(final Future<String> generated)
+        throws IOException {
+        try {
+            return generated.get();
+        }
+        catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating test plan", interrupted);
+        }
+        catch (ExecutionException genEx) {
+            throw new IOException("Couldn't generate sampler", genEx.getCause());
+        }
+    }
+
+    private String samplerXml(final JournalCall call, final long thinkTime) {
+        String mangledMethodName = call.getMangledMethodName();
+        int colon = mangledMethodName.indexOf(':');
+        String method = colon < 0 ? mangledMethodName : mangledMethodName.substring(0, colon);
+        String mangledArgs = colon < 0 ? "" : mangledMethodName.substring(colon + 1);
+        String instanceName = call.getTarget() == null ? "" : call.getTarget();
+
+        String name = RmiSamplerGeneratorMethodRecorder.createSamplerName(samplerNameFormat,
+                                                                         instanceName,
+                                                                         call.getIndex(),
+                                                                         method, mangledArgs);
+        String script;
+        try {
+            script = RmiSamplerGeneratorMethodRecorder.createArgumentsScript(typesOf(mangledArgs),
+                                                                             call.getArguments());
+        }
+        catch (Exception argsEx) {
+            log.warn("Couldn't recreate arguments of call " + call.getIndex() + " to "
+                     + mangledMethodName + ": " + argsEx);
+            argumentFailures.incrementAndGet();
+            script = "// Couldn't recreate recorded arguments: "
+                + String.valueOf(argsEx).replace('\n', ' ')
+                + "\nmethodArgs ( ) { return null; }";
+        }
+
+        PlanXml xml = new PlanXml(6);
+        xml.open(RMISampler.class.getName(), RMISamplerGUI.class.getName(),
+                 RMISampler.class.getName(), name);
+        xml.prop("stringProp", RMISampler.TARGET_NAME, instanceName);
+        xml.prop("stringProp", RMISampler.METHOD_NAME, mangledMethodName);
+        xml.prop("stringProp", RMISampler.ARG_SCRIPT, script);
+        xml.close(RMISampler.class.getName());
+
+        boolean hasChildren = thinkTime > 0 || call.isRemoteReturned();
+        if (!hasChildren) {
+            xml.line("<hashTree/>");
+            return xml.toString();
+        }
+        xml.line("<hashTree>");
+        xml.indent();
+        if (thinkTime > 0) {
+            xml.open(RecordedThinkTimer.class.getName(), RecordedThinkTimerGui.class.getName(),
+                     RecordedThinkTimer.class.getName(), "Think time " + thinkTime + " ms");
+            xml.prop("longProp", RecordedThinkTimer.THINK_TIME, Long.toString(thinkTime));
+            xml.close(RecordedThinkTimer.class.getName());
+            xml.line("<hashTree/>");
+        }
+        if (call.isRemoteReturned()) {
+            xml.open("BeanShellPostProcessor", "TestBeanGUI", "BeanShellPostProcessor",
+                     "Save remote in return value");
+            xml.prop("boolProp", "resetInterpreter", "true");
+            xml.prop("stringProp", "parameters", "");
+            xml.prop("stringProp", "filename", "");
+            xml.prop("stringProp", "script",
+                     RmiSamplerGeneratorMethodRecorder.createResultRegisterScript(call.getRemotePaths()));
+            xml.close("BeanShellPostProcessor");
+            xml.line("<hashTree/>");
+        }
+        xml.outdent();
+        xml.line("</hashTree>");
+        return xml.toString();
+    }
+
+    /**
+     * @return the argument types named in <code>mangledArgs</code>; a
+     * type that can't be loaded is null, and is then taken from the
+     * argument itself
+     */
+    private Class<?>[] typesOf(final String mangledArgs) {
+        Class<?>[] types = argumentTypes.get(mangledArgs);
+        if (types != null) {
+            return types;
+        }
+        String[] names = mangledArgs.isEmpty() ? new String[0] : mangledArgs.split(",");
+        types = new Class<?>[names.length];
+        for (int i = 0; i < names.length; i++) {
+            types[i] = PRIMITIVES.get(names[i]);
+            if (types[i] == null) {
+                try {
+                    types[i] = Class.forName(names[i], false, TestPlanGenerator.class.getClassLoader());
+                }
+                catch (ClassNotFoundException | LinkageError notLoaded) {
+                    log.debug("Can't load argument type " + names[i]);
+                }
+            }
+        }
+        argumentTypes.put(mangledArgs, types);
+        return types;
+    }
+
+    private void writeHeader(final Writer out, final String planName)
+        throws IOException {
+        PlanXml xml = new PlanXml(0);
+        xml.line("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.line("<jmeterTestPlan version=\"1.2\" properties=\"3.2\" jmeter=\"3.2\">");
+        xml.indent();
+        xml.line("<hashTree>");
+        xml.indent();
+        xml.open("TestPlan", "TestPlanGui", "TestPlan", "Recorded " + planName);
+        xml.prop("stringProp", "TestPlan.comments", "Generated from recording journal " + planName);
+        xml.prop("boolProp", "TestPlan.functional_mode", "false");
+        xml.prop("boolProp", "TestPlan.serialize_threadgroups", "false");
+        xml.line("<elementProp name=\"TestPlan.user_defined_variables\" elementType=\"Arguments\""
+                 + " guiclass=\"ArgumentsPanel\" testclass=\"Arguments\""
+                 + " testname=\"User Defined Variables\" enabled=\"true\">");
+        xml.indent();
+        xml.line("<collectionProp name=\"Arguments.arguments\"/>");
+        xml.outdent();
+        xml.line("</elementProp>");
+        xml.prop("stringProp", "TestPlan.user_define_classpath", "");
+        xml.close("TestPlan");
+        xml.line("<hashTree>");
+        xml.indent();
+
+        xml.open("ThreadGroup", "ThreadGroupGui", "ThreadGroup", "Recorded calls");
+        xml.prop("stringProp", "ThreadGroup.on_sample_error", "continue");
+        xml.line("<elementProp name=\"ThreadGroup.main_controller\" elementType=\"LoopController\""
+                 + " guiclass=\"LoopControlPanel\" testclass=\"LoopController\""
+                 + " testname=\"Loop Controller\" enabled=\"true\">");
+        xml.indent();
+        xml.prop("boolProp", "LoopController.continue_forever", "false");
+        xml.prop("stringProp", "LoopController.loops", "1");
+        xml.outdent();
+        xml.line("</elementProp>");
+        xml.prop("stringProp", "ThreadGroup.num_threads", "1");
+        xml.prop("stringProp", "ThreadGroup.ramp_time", "1");
+        xml.prop("boolProp", "ThreadGroup.scheduler", "false");
+        xml.prop("stringProp", "ThreadGroup.duration", "");
+        xml.prop("stringProp", "ThreadGroup.delay", "");
+        xml.close("ThreadGroup");
+        xml.line("<hashTree>");
+        xml.indent();
+
+        xml.open(RMIRemoteObjectConfig.class.getName(), RMIRemoteObjectConfigGUI.class.getName(),
+                 RMIRemoteObjectConfig.class.getName(), "RMI Remote Object Config");
+        xml.prop("stringProp", RMIRemoteObjectConfig.TARGET_RMI_NAME, targetRmiName);
+        xml.close(RMIRemoteObjectConfig.class.getName());
+        xml.line("<hashTree/>");
+        out.write(xml.toString());
+    }
+
+    private static void writeFooter(final Writer out)
+        throws IOException {
+        out.write("      </hashTree>\n"
+                  + "    </hashTree>\n"
+                  + "  </hashTree>\n"
+                  + "</jmeterTestPlan>\n");
+    }
+
+    /**
+     * Write a test plan for the journal in the directory given.
+     */
+    public static void main(String[] args)
+        throws IOException {
+        TestPlanGenerator generator = new TestPlanGenerator();
+        int i = 0;
+        try {
+            for (; i < args.length - 2; i++) {
+                if ("-threads".equals(args[i])) {
+                    generator.setThreads(Integer.parseInt(args[++i]));
+                }
+                else if ("-target".equals(args[i])) {
+                    generator.setTargetRmiName(args[++i]);
+                }
+                else if ("-nameFormat".equals(args[i])) {
+                    generator.setSamplerNameFormat(args[++i]);
+                }
+                else if ("-thinkTime".equals(args[i])) {
+                    generator.setThinkTimersAdded(true);
+                }
+                else {
+                    break;
+                }
+            }
+        }
+        catch (NumberFormatException badCount) {
+            i = -1;
+        }
+        if (i != args.length - 2) {
+            System.err.println("Usage: TestPlanGenerator [-threads n] [-target rmi-name]"
+                               + " [-nameFormat format] [-thinkTime]"
+                               + " <journal directory> <test plan>");
+            System.exit(2);
+        }
+
+        File plan = new File(args[i + 1]);
+        long samplers;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(plan),
+                                                                    StandardCharsets.UTF_8))) {
+            samplers = generator.generate(new File(args[i]), out);
+        }
+        System.out.println(samplers + " samplers written to " + plan);
+        if (generator.getArgumentFailures() > 0) {
+            System.out.println(generator.getArgumentFailures()
+                               + " have no arguments script; is the application on the classpath?");
+        }
+    }
+
+
+    /**
+     * Builds indented test plan XML, the way JMeter saves it.
+     */
+    private static final class PlanXml {
+        private final StringBuilder sb = new StringBuilder();
+        private int depth;
+
+        PlanXml(final int depth) {
+            this.depth = depth;
+        }
+
+        void indent() {
+            depth += 2;
+        }
+
+        void outdent() {
+            depth -= 2;
+        }
+
+        void line(final String text) {
+            for (int i = 0; i < depth; i++) {
+                sb.append(' ');
+            }
+            sb.append(text).append('\n');
+        }
+
+        void open(final String tag, final String guiClass, final String testClass,
+                  final String name) {
+            line("<" + tag + " guiclass=\"" + escape(guiClass) + "\" testclass=\""
+                 + escape(testClass) + "\" testname=\"" + escape(name) + "\" enabled=\"true\">");
+            indent();
+        }
+
+        void close(final String tag) {
+            outdent();
+            line("</" + tag + ">");
+        }
+
+        void prop(final String type, final String name, final String value) {
+            line("<" + type + " name=\"" + escape(name) + "\">" + escape(value)
+                 + "</" + type + ">");
+        }
+
+        private static String escape(final String text) {
+            return StringEscapeUtils.escapeXml10(text);
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString();
+        }
+    }
+}
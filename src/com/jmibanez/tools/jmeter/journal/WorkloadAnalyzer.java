@@ -0,0 +1,445 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.jmibanez.tools.jmeter.util.LatencyHistogram;
+
+/**
+ * Builds a workload model from recorded calls: the rate of calls to
+ * each method over time, the method mix, how many calls were in
+ * flight at once, and server latency percentiles.
+ *
+ * <p>Calls are added one at a time, in the order they were recorded,
+ * which is the order they completed in. They are put back in start
+ * order through a reorder window: a call is counted once every call
+ * that ended within <code>reorderMillis</code> after it started has
+ * been added. A call that ran for longer than that may be counted
+ * after calls that started later, as if it had started then.</p>
+ *
+ * <p>Memory grows with the number of distinct methods, the peak
+ * concurrency and the calls in the reorder window, not the number of
+ * calls: rates are counted in at most
+ * <code>maxBuckets</code> time buckets, which are merged pairwise
+ * (doubling their width) when a recording outgrows them, and
+ * latencies are kept in fixed-size histograms.</p>
+ */
+public class WorkloadAnalyzer {
+
+    public static final long DEFAULT_BUCKET_MILLIS = 1000;
+    public static final int DEFAULT_MAX_BUCKETS = 3600;
+    public static final long DEFAULT_REORDER_MILLIS = 60000;
+
+    public static final String SCHEDULE_FILE = "schedule.csv";
+
+    private final int maxBuckets;
+    private final long reorderMillis;
+    private long bucketMillis;
+    private int bucketCount = 0;
+
+    private long firstStart = -1;
+    private long callCount = 0;
+
+    // Calls added but not yet counted, earliest start first, and the
+    // latest end time (ms) of any call added
+    private final PriorityQueue<PendingCall> pending = new PriorityQueue<>();
+    private long latestEnd = Long.MIN_VALUE;
+
+    private final Map<String, MethodStats> methods = new HashMap<>();
+    private final MethodStats allCalls = new MethodStats(null);
+
+    // End times (us) of calls still in flight, and how often each
+    // number of calls was in flight when a call started
+    private final PriorityQueue<Long> inFlight = new PriorityQueue<>();
+    private long[] concurrency = new long[16];
+    private int maxConcurrency = 0;
+
+    public WorkloadAnalyzer() {
+        this(DEFAULT_BUCKET_MILLIS, DEFAULT_MAX_BUCKETS);
+    }
+
+    /**
+     * @param bucketMillis initial width of a rate bucket
+     * @param maxBuckets at least 2
+     */
+    public WorkloadAnalyzer(final long bucketMillis, final int maxBuckets) {
+        this(bucketMillis, maxBuckets, DEFAULT_REORDER_MILLIS);
+    }
+
+    /**
+     * @param bucketMillis initial width of a rate bucket
+     * @param maxBuckets at least 2
+     * @param reorderMillis how long a call may run and still be
+     * counted in start order
+     */
+    public WorkloadAnalyzer(final long bucketMillis, final int maxBuckets, final long reorderMillis) {
+        if (bucketMillis <= 0 || maxBuckets < 2 || reorderMillis < 0) {
+            throw new IllegalArgumentException("Bad bucket width " + bucketMillis
+                                               + ", count " + maxBuckets
+                                               + " or reorder window " + reorderMillis);
+        }
+        this.bucketMillis = bucketMillis;
+        this.maxBuckets = maxBuckets;
+        this.reorderMillis = reorderMillis;
+    }
+
+    /**
+     * Analyze every call in the journal in <code>directory</code>.
+     */
+    public static WorkloadAnalyzer analyze(final File directory)
+        throws IOException {
+        WorkloadAnalyzer analyzer = new WorkloadAnalyzer();
+        try (JournalReader reader = new JournalReader(directory)) {
+            reader.setArgumentsSkipped(true);
+            JournalCall call;
+            while ((call = reader.next()) != null) {
+                analyzer.add(call);
+            }
+        }
+        return analyzer;
+    }
+
+    public void add(final JournalCall call) {
+        MethodStats stats = methods.get(call.getMangledMethodName());
+        if (stats == null) {
+            stats = new MethodStats(call.getMangledMethodName());
+            methods.put(stats.method, stats);
+        }
+        PendingCall p = new PendingCall(call.getStartTime(), call.getDurationNanos(),
+                                        call.isException(), stats);
+        pending.add(p);
+        latestEnd = Math.max(latestEnd, p.start + p.durationNanos / 1000000);
+
+        // Calls that started before this point would have ended by
+        // now, unless they ran for longer than the reorder window
+        long settled = latestEnd - reorderMillis;
+        while (!pending.isEmpty() && pending.peek().start < settled) {
+            count(pending.poll());
+        }
+    }
+
+    /**
+     * Count every call added so far. Calls added later are taken to
+     * have started after them.
+     */
+    private void settle() {
+        while (!pending.isEmpty()) {
+            count(pending.poll());
+        }
+    }
+
+    private void count(final PendingCall call) {
+        long start = call.start;
+        if (firstStart < 0) {
+            firstStart = start;
+        }
+        // The recording host's clock may have stepped back
+        long offset = Math.max(0, start - firstStart);
+        while (offset / bucketMillis >= maxBuckets) {
+            coarsen();
+        }
+        int bucket = (int) (offset / bucketMillis);
+        bucketCount = Math.max(bucketCount, bucket + 1);
+
+        call.stats.add(bucket, call);
+        allCalls.add(bucket, call);
+        callCount++;
+
+        long startMicros = start * 1000;
+        while (!inFlight.isEmpty() && inFlight.peek() <= startMicros) {
+            inFlight.poll();
+        }
+        inFlight.add(startMicros + call.durationNanos / 1000);
+        int level = inFlight.size();
+        if (level >= concurrency.length) {
+            concurrency = Arrays.copyOf(concurrency, Math.max(level + 1, concurrency.length * 2));
+        }
+        concurrency[level]++;
+        maxConcurrency = Math.max(maxConcurrency, level);
+    }
+
+    private void coarsen() {
+        for (MethodStats stats: methods.values()) {
+            stats.coarsen();
+        }
+        allCalls.coarsen();
+        bucketMillis *= 2;
+        bucketCount = (bucketCount + 1) / 2;
+    }
+
+    public long getCallCount() {
+        settle();
+        return callCount;
+    }
+
+    /**
+     * @return when the first call was made, in milliseconds since the
+     * epoch, or -1 if there were no calls
+     */
+    public long getStartTime() {
+        settle();
+        return firstStart;
+    }
+
+    public long getBucketMillis() {
+        settle();
+        return bucketMillis;
+    }
+
+    public int getBucketCount() {
+        settle();
+        return bucketCount;
+    }
+
+    /**
+     * @return mangled names of the methods called, most called first
+     */
+    public List<String> getMethods() {
+        settle();
+        List<MethodStats> sorted = new ArrayList<>(methods.values());
+        Collections.sort(sorted, new Comparator<MethodStats>() {
+                public int compare(MethodStats a, MethodStats b) {
+                    int byCount = Long.compare(b.calls, a.calls);
+                    return byCount != 0 ? byCount : a.method.compareTo(b.method);
+                }
+            });
+        List<String> names = new ArrayList<>(sorted.size());
+        for (MethodStats stats: sorted) {
+            names.add(stats.method);
+        }
+        return names;
+    }
+
+    /**
+     * @param method a mangled method name, or null for all calls
+     */
+    public long getCallCount(final String method) {
+        MethodStats stats = statsFor(method);
+        return stats == null ? 0 : stats.calls;
+    }
+
+    /**
+     * @param method a mangled method name, or null for all calls
+     * @return the number of calls that threw
+     */
+    public long getErrorCount(final String method) {
+        MethodStats stats = statsFor(method);
+        return stats == null ? 0 : stats.errors;
+    }
+
+    /**
+     * @return the fraction of all calls made to <code>method</code>
+     */
+    public double getMix(final String method) {
+        settle();
+        return callCount == 0 ? 0 : (double) getCallCount(method) / callCount;
+    }
+
+    /**
+     * @param method a mangled method name, or null for all calls
+     * @return calls per second in each bucket
+     */
+    public double[] getRates(final String method) {
+        settle();
+        double[] rates = new double[bucketCount];
+        MethodStats stats = statsFor(method);
+        if (stats != null) {
+            for (int i = 0; i < rates.length && i < stats.counts.length; i++) {
+                rates[i] = stats.counts[i] * 1000.0 / bucketMillis;
+            }
+        }
+        return rates;
+    }
+
+    /**
+     * @return how many calls started with each number of calls
+     * (including themselves) in flight, indexed by that number
+     */
+    public long[] getConcurrencyDistribution() {
+        settle();
+        return Arrays.copyOf(concurrency, maxConcurrency + 1);
+    }
+
+    /**
+     * @param method a mangled method name, or null for all calls
+     * @param percentile from 0 to 100
+     * @return recorded server latency in nanoseconds
+     */
+    public long getLatencyPercentile(final String method, final double percentile) {
+        MethodStats stats = statsFor(method);
+        return stats == null ? 0 : stats.latency.getPercentile(percentile);
+    }
+
+    private MethodStats statsFor(final String method) {
+        settle();
+        return method == null ? allCalls : methods.get(method);
+    }
+
+    /**
+     * Write the throughput schedule as CSV: one row per bucket, with
+     * its start offset and width in milliseconds, the total rate, and
+     * the rate of each method (most called first), in calls per
+     * second.
+     */
+    public void writeSchedule(final Writer out)
+        throws IOException {
+        List<String> names = getMethods();
+        StringBuilder row = new StringBuilder("offset_ms,duration_ms,total");
+        for (String name: names) {
+            row.append(',').append('"').append(name.replace("\"", "\"\"")).append('"');
+        }
+        out.write(row.append('\n').toString());
+
+        List<double[]> rates = new ArrayList<>(names.size());
+        for (String name: names) {
+            rates.add(getRates(name));
+        }
+        double[] total = getRates(null);
+        for (int i = 0; i < bucketCount; i++) {
+            row.setLength(0);
+            row.append(i * bucketMillis).append(',').append(bucketMillis)
+                .append(',').append(rate(total[i]));
+            for (double[] r: rates) {
+                row.append(',').append(rate(r[i]));
+            }
+            out.write(row.append('\n').toString());
+        }
+        out.flush();
+    }
+
+    /**
+     * Write a readable summary of the mix, concurrency and latencies.
+     */
+    public void writeSummary(final Writer w) {
+        settle();
+        PrintWriter out = new PrintWriter(w);
+        out.printf(Locale.ROOT, "%d calls over %d ms, in %d buckets of %d ms%n",
+                   callCount, (long) bucketCount * bucketMillis, bucketCount, bucketMillis);
+        out.println();
+        out.printf(Locale.ROOT, "%-60s %10s %7s %8s %10s %10s %10s%n",
+                   "Method", "Calls", "Mix %", "Errors", "p50 ms", "p90 ms", "p99 ms");
+        for (String name: getMethods()) {
+            printMethod(out, name, name);
+        }
+        printMethod(out, "(all)", null);
+        out.println();
+        out.printf(Locale.ROOT, "%-12s %10s %7s%n", "In flight", "Calls", "%");
+        long[] distribution = getConcurrencyDistribution();
+        for (int level = 1; level < distribution.length; level++) {
+            if (distribution[level] > 0) {
+                out.printf(Locale.ROOT, "%-12d %10d %7.2f%n", level, distribution[level],
+                           100.0 * distribution[level] / callCount);
+            }
+        }
+        out.flush();
+    }
+
+    private void printMethod(final PrintWriter out, final String label, final String method) {
+        out.printf(Locale.ROOT, "%-60s %10d %7.2f %8d %10.3f %10.3f %10.3f%n",
+                   label, getCallCount(method), 100.0 * getMix(method), getErrorCount(method),
+                   getLatencyPercentile(method, 50) / 1e6,
+                   getLatencyPercentile(method, 90) / 1e6,
+                   getLatencyPercentile(method, 99) / 1e6);
+    }
+
+    private static String rate(final double rate) {
+        return String.format(Locale.ROOT, "%.3f", rate);
+    }
+
+    /**
+     * Print a summary of the journal in the directory given, and write
+     * its throughput schedule there as {@value #SCHEDULE_FILE}.
+     */
+    public static void main(String[] args)
+        throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: WorkloadAnalyzer <journal directory>");
+            System.exit(2);
+        }
+        File directory = new File(args[0]);
+        WorkloadAnalyzer analyzer = analyze(directory);
+        analyzer.writeSummary(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+
+        File schedule = new File(directory, SCHEDULE_FILE);
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(schedule),
+                                                 StandardCharsets.UTF_8)) {
+            analyzer.writeSchedule(out);
+        }
+        System.out.println();
+        System.out.println("Schedule written to " + schedule);
+    }
+
+
+    private static final class PendingCall
+        implements Comparable<PendingCall>
+    {
+        private final long start;
+        private final long durationNanos;
+        private final boolean exception;
+        private final MethodStats stats;
+
+        PendingCall(final long start, final long durationNanos, final boolean exception,
+                    final MethodStats stats) {
+            this.start = start;
+            this.durationNanos = durationNanos;
+            this.exception = exception;
+            this.stats = stats;
+        }
+
+        public int compareTo(final PendingCall other) {
+            return Long.compare(start, other.start);
+        }
+    }
+
+    private final class MethodStats {
+        private final String method;
+        private long[] counts = new long[16];
+        private long calls = 0;
+        private long errors = 0;
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        MethodStats(final String method) {
+            this.method = method;
+        }
+
+        void add(final int bucket, final PendingCall call) {
+            if (bucket >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.min(maxBuckets,
+                                                        Math.max(bucket + 1, counts.length * 2)));
+            }
+            counts[bucket]++;
+            calls++;
+            if (call.exception) {
+                errors++;
+            }
+            latency.record(call.durationNanos);
+        }
+
+        void coarsen() {
+            for (int i = 0; i < counts.length; i++) {
+                long merged = 0;
+                if (2 * i < counts.length) {
+                    merged += counts[2 * i];
+                }
+                if (2 * i + 1 < counts.length) {
+                    merged += counts[2 * i + 1];
+                }
+                counts[i] = merged;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.jmibanez.tools.jmeter.util;
+
+import java.util.Random;
+
+/**
+ * Picks an index with probability proportional to its weight, in
+ * constant time however many there are (Walker's alias method, as
+ * built by Vose).
+ *
+ * <p>A table is immutable once built, so it can be shared by threads
+ * that each bring their own {@link Random}.</p>
+ */
+public final class AliasTable {
+
+    private final double[] probability;
+    private final int[] alias;
+
+    /**
+     * @param weights at least one; none negative. If all are zero,
+     * every index is equally likely.
+     * @throws IllegalArgumentException if there are no weights, or
+     * one is negative or not finite
+     */
+    public AliasTable(final double[] weights) {
+        int n = weights.length;
+        if (n == 0) {
+            throw new IllegalArgumentException("No weights");
+        }
+        double total = 0;
+        for (double w: weights) {
+            if (w < 0 || Double.isNaN(w) || Double.isInfinite(w)) {
+                throw new IllegalArgumentException("Bad weight " + w);
+            }
+            total += w;
+        }
+
+        probability = new double[n];
+        alias = new int[n];
+
+        // Scale so the average weight is 1, then pair each small
+        // weight with a large one that tops it up
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = total == 0 ? 1.0 : weights[i] * n / total;
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            }
+            else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int s = small[--smallCount];
+            int l = large[--largeCount];
+            probability[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if (scaled[l] < 1.0) {
+                small[smallCount++] = l;
+            }
+            else {
+                large[largeCount++] = l;
+            }
+        }
+        // What's left is 1, give or take rounding
+        while (largeCount > 0) {
+            int l = large[--largeCount];
+            probability[l] = 1.0;
+            alias[l] = l;
+        }
+        while (smallCount > 0) {
+            int s = small[--smallCount];
+            probability[s] = 1.0;
+            alias[s] = s;
+        }
+    }
+
+    public int size() {
+        return probability.length;
+    }
+
+    public int next(final Random random) {
+        int i = random.nextInt(probability.length);
+        return random.nextDouble() < probability[i] ? i : alias[i];
+    }
+}
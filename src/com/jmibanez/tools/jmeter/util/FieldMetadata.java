@@ -0,0 +1,130 @@
+package com.jmibanez.tools.jmeter.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import static com.jmibanez.tools.jmeter.util.ReflectionUtil.getFieldsUpTo;
+
+/**
+ * Per-class cache of the instance fields that the object graph
+ * walkers (<code>ProxyObjectGraph</code> and
+ * <code>ScriptletGenerator</code>) visit: all fields up to
+ * <code>Object</code>, minus static, final and transient fields, each
+ * with a pre-bound getter and setter.
+ */
+public final class FieldMetadata {
+
+    private static Log log = LogFactory.getLog(FieldMetadata.class);
+
+    private static final MethodType GETTER_TYPE =
+        MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE =
+        MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final ClassValue<FieldMetadata> CACHE = new ClassValue<FieldMetadata>() {
+            @Override
+            protected FieldMetadata computeValue(Class<?> clazz) {
+                return new FieldMetadata(clazz);
+            }
+        };
+
+    private final Class<?> type;
+    private final List<Accessor> fields;
+
+    private FieldMetadata(final Class<?> type) {
+        this.type = type;
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<Accessor> accessors = new ArrayList<>();
+        for (Field f: getFieldsUpTo(type, Object.class)) {
+            int mod = f.getModifiers();
+            if (Modifier.isFinal(mod)
+                || Modifier.isStatic(mod)
+                || Modifier.isTransient(mod)) {
+                continue;
+            }
+
+            try {
+                f.setAccessible(true);
+                accessors.add(new Accessor(f,
+                                           lookup.unreflectGetter(f).asType(GETTER_TYPE),
+                                           lookup.unreflectSetter(f).asType(SETTER_TYPE)));
+            }
+            catch (IllegalAccessException | RuntimeException accessEx) {
+                log.debug("Skipping inaccessible field " + f, accessEx);
+            }
+        }
+        this.fields = Collections.unmodifiableList(accessors);
+    }
+
+    public static FieldMetadata forClass(final Class<?> clazz) {
+        return CACHE.get(clazz);
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public List<Accessor> getFields() {
+        return fields;
+    }
+
+
+    public static final class Accessor {
+        private final Field field;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        Accessor(final Field field, final MethodHandle getter,
+                 final MethodHandle setter) {
+            this.field = field;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public String getName() {
+            return field.getName();
+        }
+
+        public Class<?> getType() {
+            return field.getType();
+        }
+
+        public Object get(final Object instance) {
+            try {
+                return (Object) getter.invokeExact(instance);
+            }
+            catch (RuntimeException | Error e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new IllegalStateException("Couldn't read " + field, t);
+            }
+        }
+
+        public void set(final Object instance, final Object value) {
+            try {
+                setter.invokeExact(instance, value);
+            }
+            catch (RuntimeException | Error e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new IllegalStateException("Couldn't write " + field, t);
+            }
+        }
+    }
+}
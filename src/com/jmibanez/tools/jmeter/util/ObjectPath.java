@@ -0,0 +1,192 @@
+package com.jmibanez.tools.jmeter.util;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+/**
+ * Follows the paths that <code>ProxyObjectGraph</code> gives to
+ * remotes inside a return value (e.g.
+ * <code>.sessions.get(0)[1]</code>), without a BeanShell interpreter.
+ *
+ * <p>Positions in sets and map key sets
+ * (<code>.toArray()[i]</code>) follow iteration order, which for hash
+ * based collections may differ from the recording.</p>
+ */
+public final class ObjectPath {
+
+    private static final String GET_STRING = ".get(\"";
+    private static final String GET = ".get(";
+    private static final String TO_ARRAY = ".toArray()[";
+    private static final String ENTRY_VALUE = ".entrySet().toArray()[";
+    private static final String ENTRY_VALUE_END = "].getValue()";
+    private static final String KEY = ".keySet().toArray()[";
+
+    private ObjectPath() {
+    }
+
+    /**
+     * @return the object at <code>path</code> from <code>root</code>;
+     * an empty path is <code>root</code> itself
+     * @throws IllegalArgumentException if the path can't be followed
+     */
+    public static Object resolve(final Object root, final String path) {
+        Object current = root;
+        int pos = 0;
+        while (pos < path.length()) {
+            if (current == null) {
+                throw new IllegalArgumentException("Null at " + path.substring(0, pos)
+                                                   + " in path " + path);
+            }
+            int end;
+            if (path.startsWith(GET_STRING, pos)) {
+                end = closingQuote(path, pos + GET_STRING.length());
+                String key = StringEscapeUtils.unescapeJava(path.substring(pos + GET_STRING.length(), end));
+                current = ((Map<?, ?>) current).get(key);
+                end = expect(path, end, "\")");
+            }
+            else if (path.startsWith(GET, pos)) {
+                end = path.indexOf(')', pos);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated key in path " + path);
+                }
+                if (current instanceof Map) {
+                    current = ((Map<?, ?>) current).get(key(path.substring(pos + GET.length(), end), path));
+                }
+                else {
+                    current = ((List<?>) current).get(index(path, pos + GET.length(), end));
+                }
+                end++;
+            }
+            else if (path.startsWith(TO_ARRAY, pos)) {
+                end = path.indexOf(']', pos);
+                current = ((Collection<?>) current).toArray()[index(path, pos + TO_ARRAY.length(), end)];
+                end++;
+            }
+            else if (path.startsWith(ENTRY_VALUE, pos)) {
+                end = path.indexOf(']', pos);
+                Object[] entries = ((Map<?, ?>) current).entrySet().toArray();
+                current = ((Map.Entry<?, ?>) entries[index(path, pos + ENTRY_VALUE.length(), end)]).getValue();
+                end = expect(path, end, ENTRY_VALUE_END);
+            }
+            else if (path.startsWith(KEY, pos)) {
+                end = path.indexOf(']', pos);
+                current = ((Map<?, ?>) current).keySet().toArray()[index(path, pos + KEY.length(), end)];
+                end++;
+            }
+            else if (path.charAt(pos) == '[') {
+                end = path.indexOf(']', pos);
+                current = Array.get(current, index(path, pos + 1, end));
+                end++;
+            }
+            else if (path.charAt(pos) == '.') {
+                end = pos + 1;
+                while (end < path.length()
+                       && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                current = field(current, path.substring(pos + 1, end), path);
+            }
+            else {
+                throw new IllegalArgumentException("Can't follow path " + path + " at " + pos);
+            }
+            pos = end;
+        }
+        return current;
+    }
+
+    private static Object field(final Object instance, final String name, final String path) {
+        for (FieldMetadata.Accessor f: FieldMetadata.forClass(instance.getClass()).getFields()) {
+            if (f.getName().equals(name)) {
+                return f.get(instance);
+            }
+        }
+        throw new IllegalArgumentException("No field " + name + " in " + instance.getClass().getName()
+                                           + " for path " + path);
+    }
+
+    /**
+     * @return the map key written as <code>literal</code>: an int,
+     * long (<code>5L</code>), boolean or enum constant (by its
+     * canonical name)
+     */
+    private static Object key(final String literal, final String path) {
+        if ("true".equals(literal) || "false".equals(literal)) {
+            return Boolean.valueOf(literal);
+        }
+        try {
+            if (literal.endsWith("L")) {
+                return Long.valueOf(literal.substring(0, literal.length() - 1));
+            }
+            return Integer.valueOf(literal);
+        }
+        catch (NumberFormatException notNumber) {
+            // Try an enum constant
+        }
+        int dot = literal.lastIndexOf('.');
+        if (dot > 0) {
+            Class<?> enumClass = enumClass(literal.substring(0, dot));
+            if (enumClass != null) {
+                for (Object constant: enumClass.getEnumConstants()) {
+                    if (((Enum<?>) constant).name().equals(literal.substring(dot + 1))) {
+                        return constant;
+                    }
+                }
+            }
+        }
+        throw new IllegalArgumentException("Bad key " + literal + " in path " + path);
+    }
+
+    /**
+     * @return the enum class with the given canonical name, or null
+     */
+    private static Class<?> enumClass(final String canonicalName) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        // Nested classes: a.B.C may be a.B$C
+        String name = canonicalName;
+        while (true) {
+            try {
+                Class<?> c = Class.forName(name, false, loader);
+                return c.isEnum() ? c : null;
+            }
+            catch (ClassNotFoundException notFound) {
+                int dot = name.lastIndexOf('.');
+                if (dot < 0) {
+                    return null;
+                }
+                name = name.substring(0, dot) + '$' + name.substring(dot + 1);
+            }
+        }
+    }
+
+    private static int index(final String path, final int start, final int end) {
+        if (end < 0) {
+            throw new IllegalArgumentException("Unterminated index in path " + path);
+        }
+        return Integer.parseInt(path.substring(start, end));
+    }
+
+    private static int closingQuote(final String path, final int start) {
+        for (int i = start; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\\') {
+                i++;
+            }
+            else if (c == '"') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unterminated key in path " + path);
+    }
+
+    private static int expect(final String path, final int pos, final String expected) {
+        if (!path.startsWith(expected, pos)) {
+            throw new IllegalArgumentException("Expected " + expected + " at " + pos
+                                               + " in path " + path);
+        }
+        return pos + expected.length();
+    }
+}
@@ -0,0 +1,234 @@
+package com.jmibanez.tools.jmeter.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which proxied calls are recorded.
+ *
+ * <p>Rules are given one per line. A rule is matched against the
+ * mangled method name (e.g. <code>ping:</code>); if it contains a
+ * <code>#</code>, the part before the last <code>#</code> is matched
+ * against the target handle (empty for the root remote). Each part is
+ * a glob (<code>*</code> and <code>?</code>), or a regular expression
+ * if prefixed with <code>regex:</code>; either must match the whole
+ * name. A <code>#</code> that is part of a pattern, rather than the
+ * separator, is written <code>\#</code>, in globs and regular
+ * expressions alike. Blank lines and lines starting with
+ * <code>//</code> are ignored.</p>
+ *
+ * <p>A call is recorded if it matches an include rule (or there are
+ * none) and no exclude rule. Sampling rules are written
+ * <code>rule=ratio</code>, split on the last <code>=</code> so that
+ * the rule may contain others; the first one matching a call records that
+ * fraction (0 to 1) of its calls, e.g. every tenth call for
+ * <code>0.1</code>. Calls are counted per mangled method name, so
+ * the ratio holds across all remotes sharing the method.</p>
+ */
+public final class RecordingFilter {
+
+    public static final String REGEX_PREFIX = "regex:";
+
+    /** Records every call */
+    public static final RecordingFilter RECORD_ALL = new RecordingFilter("", "", "");
+
+    private final List<Rule> includes;
+    private final List<Rule> excludes;
+    private final List<Rule> sampling;
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    /**
+     * @throws IllegalArgumentException if a rule or ratio can't be
+     * parsed
+     */
+    public RecordingFilter(final String includes, final String excludes,
+                           final String sampling) {
+        this.includes = parseRules(includes, false);
+        this.excludes = parseRules(excludes, false);
+        this.sampling = parseRules(sampling, true);
+    }
+
+    public boolean isRecordingAll() {
+        return includes.isEmpty() && excludes.isEmpty() && sampling.isEmpty();
+    }
+
+    /**
+     * @return the decision for calls to <code>mangledMethodName</code>
+     * on <code>target</code>; callers should keep it rather than ask
+     * again for every call
+     */
+    public MethodFilter forMethod(final String target, final String mangledMethodName) {
+        String targetName = target == null ? "" : target;
+
+        boolean recorded = includes.isEmpty();
+        for (Rule r: includes) {
+            if (r.matches(targetName, mangledMethodName)) {
+                recorded = true;
+                break;
+            }
+        }
+        for (Rule r: excludes) {
+            if (!recorded) {
+                break;
+            }
+            if (r.matches(targetName, mangledMethodName)) {
+                recorded = false;
+            }
+        }
+        if (!recorded) {
+            return MethodFilter.NEVER;
+        }
+
+        for (Rule r: sampling) {
+            if (r.matches(targetName, mangledMethodName)) {
+                if (r.ratio >= 1.0) {
+                    break;
+                }
+                if (r.ratio <= 0.0) {
+                    return MethodFilter.NEVER;
+                }
+                AtomicLong counter = counters.computeIfAbsent(mangledMethodName,
+                                                              k -> new AtomicLong());
+                return new MethodFilter(r.ratio, counter);
+            }
+        }
+        return MethodFilter.ALWAYS;
+    }
+
+    /**
+     * Compile a glob, or a regular expression prefixed with
+     * <code>regex:</code>, to a pattern matching whole names. In a
+     * glob, <code>\#</code> stands for <code>#</code>, as it does in
+     * a regular expression.
+     */
+    public static Pattern compile(final String pattern) {
+        if (pattern.startsWith(REGEX_PREFIX)) {
+            return Pattern.compile(pattern.substring(REGEX_PREFIX.length()));
+        }
+        return compileGlob(pattern.replace("\\#", "#"));
+    }
+
+    private static Pattern compileGlob(final String pattern) {
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literalStart) {
+                    regex.append(Pattern.quote(pattern.substring(literalStart, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < pattern.length()) {
+            regex.append(Pattern.quote(pattern.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static List<Rule> parseRules(final String rules, final boolean withRatio) {
+        if (rules == null) {
+            return Collections.emptyList();
+        }
+
+        List<Rule> parsed = new ArrayList<>();
+        for (String line: rules.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("//")) {
+                continue;
+            }
+
+            double ratio = 1.0;
+            if (withRatio) {
+                int idxRatio = line.lastIndexOf('=');
+                if (idxRatio < 0) {
+                    throw new IllegalArgumentException("Sampling rule needs a ratio: " + line);
+                }
+                try {
+                    ratio = Double.parseDouble(line.substring(idxRatio + 1).trim());
+                }
+                catch (NumberFormatException badRatio) {
+                    throw new IllegalArgumentException("Bad sampling ratio: " + line, badRatio);
+                }
+                line = line.substring(0, idxRatio).trim();
+            }
+
+            Pattern target = null;
+            String method = line;
+            int idxTarget = lastSeparator(line);
+            if (idxTarget >= 0) {
+                target = compile(line.substring(0, idxTarget));
+                method = line.substring(idxTarget + 1);
+            }
+            parsed.add(new Rule(target, compile(method), ratio));
+        }
+        return Collections.unmodifiableList(parsed);
+    }
+
+    /**
+     * @return the index of the last <code>#</code> in
+     * <code>rule</code> not written <code>\#</code>, or -1
+     */
+    private static int lastSeparator(final String rule) {
+        for (int i = rule.lastIndexOf('#'); i >= 0; i = rule.lastIndexOf('#', i - 1)) {
+            if (i == 0 || rule.charAt(i - 1) != '\\') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private static final class Rule {
+        private final Pattern target;
+        private final Pattern method;
+        private final double ratio;
+
+        Rule(final Pattern target, final Pattern method, final double ratio) {
+            this.target = target;
+            this.method = method;
+            this.ratio = ratio;
+        }
+
+        boolean matches(final String targetName, final String mangledMethodName) {
+            return (target == null || target.matcher(targetName).matches())
+                && method.matcher(mangledMethodName).matches();
+        }
+    }
+
+    /**
+     * Whether to record each call to one method of one remote.
+     */
+    public static final class MethodFilter {
+        static final MethodFilter ALWAYS = new MethodFilter(1.0, null);
+        static final MethodFilter NEVER = new MethodFilter(0.0, null);
+
+        private final double ratio;
+        private final AtomicLong counter;
+
+        MethodFilter(final double ratio, final AtomicLong counter) {
+            this.ratio = ratio;
+            this.counter = counter;
+        }
+
+        /**
+         * @return true if the current call should be recorded
+         */
+        public boolean shouldRecord() {
+            if (counter == null) {
+                return ratio > 0.0;
+            }
+            // Record a call whenever the running total of
+            // ratio * calls passes a whole number
+            long n = counter.incrementAndGet();
+            return (long) (n * ratio) != (long) ((n - 1) * ratio);
+        }
+    }
+}
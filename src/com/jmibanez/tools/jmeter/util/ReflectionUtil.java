@@ -13,7 +13,7 @@ import org.objenesis.ObjenesisStd;
 import org.objenesis.instantiator.ObjectInstantiator;
 
 import com.jmibanez.tools.jmeter.RMIRemoteObjectConfig;
-import static com.jmibanez.tools.jmeter.RMISampler.REMOTE_OBJECT_CONFIG;
+import com.jmibanez.tools.jmeter.RMISampler;
 
 
 public class ReflectionUtil {
@@ -41,9 +41,7 @@ public class ReflectionUtil {
         Objenesis objenesis = null;
 
         if (jmctx.getCurrentSampler() != null) {
-            RMIRemoteObjectConfig remoteObj = (RMIRemoteObjectConfig) jmctx.getCurrentSampler()
-                .getProperty(REMOTE_OBJECT_CONFIG)
-                .getObjectValue();
+            RMIRemoteObjectConfig remoteObj = RMISampler.getRemoteObjectConfig(jmctx.getCurrentSampler());
             objenesis = remoteObj.getFactory();
         }
         else {
@@ -0,0 +1,116 @@
+package com.jmibanez.tools.jmeter.util;
+
+import java.lang.reflect.Modifier;
+import java.rmi.Remote;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-class verdict of whether an instance of a class can ever
+ * reference a <code>Remote</code> through the fields that
+ * <code>ProxyObjectGraph</code> walks (see {@link FieldMetadata}).
+ *
+ * <p>The verdict is conservative: a field whose declared type is an
+ * interface or a non-final class (including <code>Object</code> and
+ * the collection types) may hold a <code>Remote</code> subclass at
+ * runtime, and collections and maps always may. Final types are
+ * analysed through their own fields; arrays through their component
+ * type.</p>
+ */
+public final class RemoteTypeAnalysis {
+
+    private static final ClassValue<RemoteTypeAnalysis> CACHE = new ClassValue<RemoteTypeAnalysis>() {
+            @Override
+            protected RemoteTypeAnalysis computeValue(Class<?> clazz) {
+                return new RemoteTypeAnalysis(clazz);
+            }
+        };
+
+    private final boolean mayContainRemote;
+    private final List<FieldMetadata.Accessor> candidateFields;
+
+    private RemoteTypeAnalysis(final Class<?> type) {
+        List<FieldMetadata.Accessor> candidates = new ArrayList<>();
+        if (!type.isArray()) {
+            for (FieldMetadata.Accessor f: FieldMetadata.forClass(type).getFields()) {
+                if (declaredTypeMayHoldRemote(f.getType(), new HashSet<Class<?>>())) {
+                    candidates.add(f);
+                }
+            }
+        }
+        this.candidateFields = Collections.unmodifiableList(candidates);
+        this.mayContainRemote = typeMayContainRemote(type, new HashSet<Class<?>>());
+    }
+
+    public static RemoteTypeAnalysis forClass(final Class<?> clazz) {
+        return CACHE.get(clazz);
+    }
+
+    /**
+     * @return true if an instance of exactly <code>clazz</code> may
+     * be, or reference, a <code>Remote</code>
+     */
+    public static boolean mayContainRemote(final Class<?> clazz) {
+        return CACHE.get(clazz).mayContainRemote;
+    }
+
+    public boolean mayContainRemote() {
+        return mayContainRemote;
+    }
+
+    /**
+     * @return the walked fields whose values may be, or reference, a
+     * <code>Remote</code>
+     */
+    public List<FieldMetadata.Accessor> getCandidateFields() {
+        return candidateFields;
+    }
+
+    /*
+     * Only the verdict for the class being analysed is cached: a class
+     * already on the stack is assumed not to add a Remote, which is
+     * right for the root but not for intermediate classes of a cycle.
+     */
+    private static boolean typeMayContainRemote(final Class<?> type,
+                                                final Set<Class<?>> inProgress) {
+        if (type.isPrimitive()) {
+            return false;
+        }
+        if (Remote.class.isAssignableFrom(type)
+            || Collection.class.isAssignableFrom(type)
+            || Map.class.isAssignableFrom(type)) {
+            // Collections are walked through their elements, not
+            // their (often transient) fields
+            return true;
+        }
+        if (type.isArray()) {
+            return declaredTypeMayHoldRemote(type.getComponentType(), inProgress);
+        }
+        if (!inProgress.add(type)) {
+            return false;
+        }
+
+        for (FieldMetadata.Accessor f: FieldMetadata.forClass(type).getFields()) {
+            if (declaredTypeMayHoldRemote(f.getType(), inProgress)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean declaredTypeMayHoldRemote(final Class<?> declared,
+                                                     final Set<Class<?>> inProgress) {
+        if (declared.isPrimitive()) {
+            return false;
+        }
+        if (!declared.isArray() && !Modifier.isFinal(declared.getModifiers())) {
+            return true;
+        }
+        return typeMayContainRemote(declared, inProgress);
+    }
+}
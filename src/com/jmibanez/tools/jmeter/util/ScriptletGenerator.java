@@ -14,9 +14,7 @@ import java.beans.IntrospectionException;
 import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -28,8 +26,6 @@ import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import static com.jmibanez.tools.jmeter.util.ReflectionUtil.getFieldsUpTo;
-
 /**
  * Describe class ScriptletGenerator here.
  *
@@ -77,14 +73,7 @@ public class ScriptletGenerator {
         StringBuilder scriptlet = new StringBuilder();
 
         int objCount = 1;
-        for(Field f: getFieldsUpTo(beanClass, Object.class)) {
-            if (Modifier.isFinal(f.getModifiers())
-                || Modifier.isStatic(f.getModifiers())
-                || Modifier.isTransient(f.getModifiers())) {
-                // Ignore transient, static, or final fields
-                continue;
-            }
-
+        for(FieldMetadata.Accessor f: FieldMetadata.forClass(beanClass).getFields()) {
             Class<?> valType = f.getType();
 
             if (Object.class.isAssignableFrom(valType)
@@ -94,16 +83,7 @@ public class ScriptletGenerator {
                 continue;
             }
 
-            f.setAccessible(true);
-
-            Object val = null;
-            try {
-                val = f.get(bean);
-            }
-            catch(IllegalAccessException accessEx) {
-                // Filler value
-                val = "/* Couldn't populate value */";
-            }
+            Object val = f.get(bean);
 
             String varname_subvar = varname + "_" + f.getName();
             objCount++;
@@ -0,0 +1,177 @@
+package com.jmibanez.tools.jmeter;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.jmibanez.tools.jmeter.util.RecordingFilter;
+
+public class DynamicStubProxyConcurrencyTest extends TestCase {
+
+    private static final int CLIENTS = 200;
+    private static final int CALLS_PER_CLIENT = 10;
+
+    private SessionFactoryImpl server;
+    private Remote proxy;
+    private NativeRmiProxy registry;
+    private IndexRecorder recorder;
+    private DynamicStubProxyInvocationHandler handler;
+
+    @Override
+    public void setUp()
+        throws Exception {
+        server = new SessionFactoryImpl();
+        registry = new NativeRmiProxy("//localhost/sessionFactory");
+        recorder = new IndexRecorder();
+
+        handler =
+            new DynamicStubProxyInvocationHandler(registry, RemoteObject.toStub(server),
+                                                  null, recorder);
+        proxy = handler.buildStubProxy(true);
+        registry.registerRootRmiInstance(proxy);
+    }
+
+    @Override
+    public void tearDown()
+        throws Exception {
+        UnicastRemoteObject.unexportObject(proxy, true);
+        UnicastRemoteObject.unexportObject(server, true);
+    }
+
+    public void testConcurrentClientsGetUniqueCallIndexes()
+        throws Exception {
+        final SessionFactory client =
+            (SessionFactory) UnicastRemoteObject.exportObject(proxy, 0);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            results.add(clients.submit(() -> {
+                        start.await();
+                        int sum = 0;
+                        for (int i = 0; i < CALLS_PER_CLIENT; i++) {
+                            Session s = client.open();
+                            sum += s.ping(i);
+                        }
+                        return sum;
+                    }));
+        }
+        start.countDown();
+
+        int expectedSum = 0;
+        for (int i = 0; i < CALLS_PER_CLIENT; i++) {
+            expectedSum += i + 1;
+        }
+        for (Future<Integer> f: results) {
+            assertEquals(expectedSum, (int) f.get(60, TimeUnit.SECONDS));
+        }
+        clients.shutdown();
+
+        int totalCalls = CLIENTS * CALLS_PER_CLIENT * 2;
+        assertEquals(totalCalls, recorder.calls.get());
+        assertEquals("Call indexes must be unique", totalCalls, recorder.indexes.size());
+        for (int i = 1; i <= totalCalls; i++) {
+            assertTrue("Missing call index " + i, recorder.indexes.contains(i));
+        }
+
+        assertEquals(CLIENTS * CALLS_PER_CLIENT, recorder.handles.size());
+        for (String handle: recorder.handles) {
+            assertNotNull("Handle " + handle + " must be registered",
+                          registry.getTarget(handle));
+        }
+    }
+
+    public void testFilteredCallsAreNotRecorded()
+        throws Exception {
+        handler.setRecordingFilter(new RecordingFilter("", "ping:*", "open:=0.5"));
+        SessionFactory client =
+            (SessionFactory) UnicastRemoteObject.exportObject(proxy, 0);
+
+        for (int i = 0; i < 10; i++) {
+            Session s = client.open();
+            assertEquals(i + 1, s.ping(i));
+        }
+
+        assertEquals(5, recorder.calls.get());
+        for (int i = 1; i <= 5; i++) {
+            assertTrue("Missing call index " + i, recorder.indexes.contains(i));
+        }
+        assertEquals(5, recorder.handles.size());
+    }
+
+
+    static class IndexRecorder
+        implements MethodRecorder {
+
+        final AtomicInteger calls = new AtomicInteger();
+        final Set<Integer> indexes = ConcurrentHashMap.newKeySet();
+        final Set<String> handles = ConcurrentHashMap.newKeySet();
+
+        public void recordCall(MethodCallRecord r)
+            throws RemoteException {
+            calls.incrementAndGet();
+            indexes.add(r.getIndex());
+            handles.addAll(r.getRemotePathsInReturn().keySet());
+        }
+    }
+
+    public interface Session
+        extends Remote {
+        public int ping(int i)
+            throws RemoteException;
+    }
+
+    public interface SessionFactory
+        extends Remote {
+        public Session open()
+            throws RemoteException;
+    }
+
+    public static class SessionImpl
+        extends UnicastRemoteObject
+        implements Session {
+
+        public static final long serialVersionUID = 792L;
+
+        public SessionImpl()
+            throws RemoteException {
+            super();
+        }
+
+        public int ping(int i)
+            throws RemoteException {
+            return i + 1;
+        }
+    }
+
+    public static class SessionFactoryImpl
+        extends UnicastRemoteObject
+        implements SessionFactory {
+
+        public static final long serialVersionUID = 793L;
+
+        public SessionFactoryImpl()
+            throws RemoteException {
+            super();
+        }
+
+        public Session open()
+            throws RemoteException {
+            return new SessionImpl();
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package com.jmibanez.tools.jmeter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import junit.framework.TestCase;
@@ -25,4 +30,46 @@ public class MethodCallRecordTest extends TestCase {
         assertEquals("foo:java.lang.String,java.lang.Class", builtNames[0]);
         assertEquals("java.lang.String,java.lang.Class", builtNames[1]);
     }
+
+    public void testShouldSnapshotArgumentsWhenCalled()
+        throws Exception {
+        List<String> arg = new ArrayList<String>();
+        arg.add("before");
+
+        MethodCallRecord r = new MethodCallRecord(1, null,
+                                                  List.class.getMethod("addAll", java.util.Collection.class),
+                                                  new Object[] { arg });
+        arg.add("after");
+
+        Object[] recorded = r.getArguments();
+        assertEquals(1, recorded.length);
+        assertEquals(1, ((List<?>) recorded[0]).size());
+        assertNotSame(arg, recorded[0]);
+        assertSame(recorded, r.getArguments());
+    }
+
+    public void testShouldKeepTimesAndClientWhenSerialized()
+        throws Exception {
+        MethodCallRecord r = new MethodCallRecord(7, "target",
+                                                  String.class.getMethod("concat", String.class),
+                                                  new Object[] { "arg" });
+        r.setClient("127.0.0.1");
+        Thread.sleep(5);
+        r.returned("ret");
+        assertTrue(r.getDurationNanos() >= 5000000L);
+        assertTrue(r.getEndTime() >= r.getStartTime() + 5);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(r);
+        out.close();
+        MethodCallRecord copy = (MethodCallRecord) new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        assertEquals(7, copy.getIndex());
+        assertEquals(r.getStartTime(), copy.getStartTime());
+        assertEquals(r.getDurationNanos(), copy.getDurationNanos());
+        assertEquals(r.getClient(), copy.getClient());
+        assertEquals("arg", copy.getArguments()[0]);
+    }
 }
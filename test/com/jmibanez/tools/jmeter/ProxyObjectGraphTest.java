@@ -3,10 +3,15 @@ package com.jmibanez.tools.jmeter;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
 import junit.framework.TestCase;
 
 public class ProxyObjectGraphTest extends TestCase {
@@ -145,6 +150,245 @@ public class ProxyObjectGraphTest extends TestCase {
         assertTrue("Call must go through proxy", methodRecorder.isRemoteCalled());
     }
 
+    public void testVisitEqualObjectsSeparately()
+        throws Exception {
+
+        SimpleBeanInstance simple = new SimpleBeanInstance();
+        simple.setName("Simple");
+        simple.setAge(42);
+
+        List<Object> l = new ArrayList<Object>();
+        ComplexBeanInstance first = new ComplexBeanInstance(new TestRemoteInstance());
+        first.setPersonList(l);
+        first.setOther(simple);
+        ComplexBeanInstance second = new ComplexBeanInstance(new TestRemoteInstance());
+        second.setPersonList(l);
+        second.setOther(simple);
+        assertEquals(first, second);
+
+        List<Object> both = new ArrayList<Object>();
+        both.add(first);
+        both.add(second);
+
+        MethodCallRecord testRecord = new MethodCallRecord();
+        graphVisitor.replaceRemotes(both, testRecord);
+
+        assertEquals(2, testRecord.getRemotePathsInReturn().size());
+        assertEquals(43, second.getOtherCall().foo(1));
+        assertTrue("Call must go through proxy", methodRecorder.isRemoteCalled());
+    }
+
+    public void testReuseProxyAcrossCalls()
+        throws Exception {
+
+        TestRemote testRemote = new TestRemoteInstance();
+
+        MethodCallRecord firstRecord = new MethodCallRecord();
+        Object firstProxy =
+            ((ComplexBeanInstance) graphVisitor.replaceRemotes(new ComplexBeanInstance(testRemote),
+                                                               firstRecord))
+            .getOtherCall();
+        assertEquals(1, firstRecord.getRemotePathsInReturn().size());
+
+        MethodCallRecord secondRecord = new MethodCallRecord();
+        Object secondProxy =
+            ((ComplexBeanInstance) graphVisitor.replaceRemotes(new ComplexBeanInstance(testRemote),
+                                                               secondRecord))
+            .getOtherCall();
+        assertSame(firstProxy, secondProxy);
+        assertTrue(secondRecord.getRemotePathsInReturn().isEmpty());
+    }
+
+    public void testBoundProxyCacheAcrossCalls()
+        throws Exception {
+
+        List<TestRemoteInstance> remotes = new ArrayList<TestRemoteInstance>();
+        try {
+            for (int i = 0; i < ProxyObjectGraph.REMOTE_CACHE_SIZE + 100; i++) {
+                remotes.add(new TestRemoteInstance());
+            }
+            Object lastProxy = null;
+            for (TestRemoteInstance r: remotes) {
+                lastProxy = ((ComplexBeanInstance) graphVisitor.replaceRemotes(new ComplexBeanInstance(r),
+                                                                               new MethodCallRecord()))
+                    .getOtherCall();
+            }
+            assertEquals(ProxyObjectGraph.REMOTE_CACHE_SIZE, graphVisitor.getProxiedRemoteCount());
+
+            // The remote just proxied is never the one dropped
+            TestRemoteInstance last = remotes.get(remotes.size() - 1);
+            assertSame(lastProxy,
+                       ((ComplexBeanInstance) graphVisitor.replaceRemotes(new ComplexBeanInstance(last),
+                                                                          new MethodCallRecord()))
+                       .getOtherCall());
+        }
+        finally {
+            for (TestRemoteInstance r: remotes) {
+                UnicastRemoteObject.unexportObject(r, true);
+            }
+        }
+    }
+
+    public void testConcurrentCallsShareOneProxy()
+        throws Exception {
+
+        final TestRemote shared = new TestRemoteInstance();
+        final int threads = 8;
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        final Object[] proxies = new Object[threads];
+        final MethodCallRecord[] records = new MethodCallRecord[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int n = t;
+            workers[t] = new Thread() {
+                    public void run() {
+                        try {
+                            start.await();
+                            // Each also proxies a remote of its own
+                            List<Object> ret = new ArrayList<Object>();
+                            ret.add(shared);
+                            ret.add(new TestRemoteInstance());
+                            records[n] = new MethodCallRecord();
+                            proxies[n] = ((List<?>) graphVisitor.replaceRemotes(ret, records[n])).get(0);
+                        }
+                        catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+            workers[t].start();
+        }
+        for (Thread w: workers) {
+            w.join();
+        }
+
+        int sharedPaths = 0;
+        for (int t = 0; t < threads; t++) {
+            assertSame(proxies[0], proxies[t]);
+            assertNotSame(shared, proxies[t]);
+            if (records[t].getRemotePathsInReturn().containsValue(".get(0)")) {
+                sharedPaths++;
+            }
+        }
+        assertEquals(1, sharedPaths);
+    }
+
+
+    public void testVisitSetsAndMaps()
+        throws Exception {
+
+        TestRemote inSet = new TestRemoteInstance();
+        TestRemote asValue = new TestRemoteInstance();
+        TestRemote asKey = new TestRemoteInstance();
+        TestRemote byNumber = new TestRemoteInstance();
+
+        Set<Object> set = new HashSet<Object>();
+        set.add("plain");
+        set.add(inSet);
+
+        Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+        map.put("a \"key\"", asValue);
+        map.put(asKey, "value");
+
+        Map<Object, Object> numbered = new HashMap<Object, Object>();
+        numbered.put(7L, byNumber);
+
+        List<Object> both = new ArrayList<Object>();
+        both.add(set);
+        both.add(map);
+        both.add(numbered);
+
+        MethodCallRecord testRecord = new MethodCallRecord();
+        graphVisitor.replaceRemotes(both, testRecord);
+
+        Map<String, String> paths = testRecord.getRemotePathsInReturn();
+        assertEquals(4, paths.size());
+        assertTrue(paths.containsValue(".get(1).get(\"a \\\"key\\\"\")"));
+        assertTrue(paths.containsValue(".get(2).get(7L)"));
+        assertNotSame(byNumber, numbered.get(7L));
+        assertTrue(paths.containsValue(".get(1).keySet().toArray()[1]"));
+
+        assertFalse(set.contains(inSet));
+        assertEquals(2, set.size());
+        assertNotSame(asValue, map.get("a \"key\""));
+        assertFalse(map.containsKey(asKey));
+        assertTrue(map.containsValue("value"));
+
+        for (Object o: set) {
+            if (o instanceof TestRemote) {
+                assertEquals(43, ((TestRemote) o).foo(1));
+            }
+        }
+        assertTrue("Call must go through proxy", methodRecorder.isRemoteCalled());
+    }
+
+    public void testVisitDeepGraph()
+        throws Exception {
+
+        LinkedNode head = new LinkedNode();
+        LinkedNode tail = head;
+        for (int i = 0; i < 100000; i++) {
+            tail.next = new LinkedNode();
+            tail = tail.next;
+        }
+        tail.remote = new TestRemoteInstance();
+
+        MethodCallRecord testRecord = new MethodCallRecord();
+        graphVisitor.replaceRemotes(head, testRecord);
+
+        assertEquals(1, testRecord.getRemotePathsInReturn().size());
+        assertNotNull(tail.remote);
+        assertEquals(43, tail.remote.foo(1));
+        assertTrue("Call must go through proxy", methodRecorder.isRemoteCalled());
+    }
+
+    public void testProxiesShareGeneratedClass()
+        throws Exception {
+
+        MethodCallRecord testRecord = new MethodCallRecord();
+        Object[] remotes = new Object[] { new TestRemoteInstance(), new TestRemoteInstance() };
+        graphVisitor.replaceRemotes(remotes, testRecord);
+
+        assertNotSame(remotes[0], remotes[1]);
+        assertSame(remotes[0].getClass(), remotes[1].getClass());
+        assertEquals(43, ((TestRemote) remotes[1]).foo(1));
+        assertTrue("Call must go through proxy", methodRecorder.isRemoteCalled());
+    }
+
+    public void testParallelTraversalMatchesSequential()
+        throws Exception {
+
+        TestRemote shared = new TestRemoteInstance();
+        List<Object> elements = new ArrayList<Object>();
+        Object[] arr = new Object[5000];
+        for (int i = 0; i < arr.length; i++) {
+            SimpleBeanInstance simple = new SimpleBeanInstance();
+            simple.setName("bean " + i);
+            elements.add(simple);
+            arr[i] = (i % 1000 == 7) ? new ComplexBeanInstance(new TestRemoteInstance()) : simple;
+        }
+        elements.set(10, shared);
+        elements.set(4000, shared);
+        arr[20] = shared;
+
+        ProxyObjectGraph sequential = new ProxyObjectGraph(new TestRegistry(), methodRecorder);
+        sequential.setParallelThreshold(Integer.MAX_VALUE);
+        graphVisitor.setParallelThreshold(16);
+
+        MethodCallRecord sequentialRecord = new MethodCallRecord();
+        sequential.replaceRemotes(new Object[] { new ArrayList<Object>(elements), arr.clone() },
+                                  sequentialRecord);
+        MethodCallRecord parallelRecord = new MethodCallRecord();
+        graphVisitor.replaceRemotes(new Object[] { elements, arr }, parallelRecord);
+
+        assertEquals(6, parallelRecord.getRemotePathsInReturn().size());
+        assertEquals(new ArrayList<String>(sequentialRecord.getRemotePathsInReturn().keySet()),
+                     new ArrayList<String>(parallelRecord.getRemotePathsInReturn().keySet()));
+        assertNotSame(shared, elements.get(4000));
+        assertSame(elements.get(10), elements.get(4000));
+        assertSame(elements.get(10), arr[20]);
+    }
+
 
     static class CallTestRecorder
         implements MethodRecorder {
@@ -168,7 +412,8 @@ public class ProxyObjectGraphTest extends TestCase {
     static class TestRegistry
         implements InstanceRegistry {
 
-        private Map<String, Remote> instanceRegistry = new HashMap<>();
+        private Map<String, Remote> instanceRegistry =
+            Collections.synchronizedMap(new HashMap<String, Remote>());
 
         public void registerRootRmiInstance(Remote instance)
             throws RemoteException {
@@ -317,6 +562,11 @@ public class ProxyObjectGraphTest extends TestCase {
 
     }
 
+    public static class LinkedNode {
+        LinkedNode next;
+        TestRemote remote;
+    }
+
     public static class CyclicClass {
         private TestRemote otherCall;
         public List<CyclicClassChild> children = new ArrayList<CyclicClassChild>();
@@ -0,0 +1,174 @@
+package com.jmibanez.tools.jmeter;
+
+import java.io.File;
+import java.rmi.RemoteException;
+import java.rmi.Remote;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import com.jmibanez.tools.jmeter.DynamicStubProxyConcurrencyTest.Session;
+import com.jmibanez.tools.jmeter.DynamicStubProxyConcurrencyTest.SessionFactory;
+import com.jmibanez.tools.jmeter.DynamicStubProxyConcurrencyTest.SessionFactoryImpl;
+import org.apache.jmeter.testelement.property.NullProperty;
+import org.apache.jmeter.threads.JMeterContextService;
+
+import com.jmibanez.tools.jmeter.impl.JournalMethodRecorder;
+
+public class RMIJournalReplaySamplerTest extends TestCase {
+
+    private SessionFactoryImpl server;
+    private File directory;
+
+    @Override
+    public void setUp()
+        throws Exception {
+        server = new SessionFactoryImpl();
+        directory = TempDirectory.create("replay-test");
+    }
+
+    @Override
+    public void tearDown()
+        throws Exception {
+        UnicastRemoteObject.unexportObject(server, true);
+        TempDirectory.delete(directory);
+    }
+
+    private RMIJournalReplaySampler createSampler(final Remote serverStub) {
+        RMIJournalReplaySampler sampler = new RMIJournalReplaySampler();
+        sampler.setJournalDirectory(directory.getPath());
+        sampler.addTestElement(new RMIRemoteObjectConfig() {
+                public static final long serialVersionUID = 1L;
+
+                @Override
+                public Remote getTarget(String targetName) {
+                    assertNull(targetName);
+                    return serverStub;
+                }
+            });
+        return sampler;
+    }
+
+    private static int ping(RMIJournalReplaySampler sampler) {
+        RMISampleResult ping = (RMISampleResult) sampler.sample(null);
+        assertTrue(ping.getResponseMessage(), ping.isSuccessful());
+        return (Integer) ping.getReturnValue();
+    }
+
+    public void testShouldReplayRecordedSession()
+        throws Exception {
+        final Remote serverStub = RemoteObject.toStub(server);
+
+        NativeRmiProxy registry = new NativeRmiProxy("//localhost/sessionFactory");
+        JournalMethodRecorder recorder = new JournalMethodRecorder(directory);
+        DynamicStubProxyInvocationHandler handler =
+            new DynamicStubProxyInvocationHandler(registry, serverStub, null, recorder);
+        SessionFactory proxy = (SessionFactory) handler.buildStubProxy(true);
+        registry.registerRootRmiInstance(proxy);
+
+        Session s = proxy.open();
+        s.ping(1);
+        s.ping(2);
+        recorder.close();
+
+        RMIJournalReplaySampler sampler = createSampler(serverStub);
+        sampler.testStarted();
+        sampler.threadStarted();
+
+        // Twice through, to check that handles are re-established
+        for (int pass = 0; pass < 2; pass++) {
+            RMISampleResult open = (RMISampleResult) sampler.sample(null);
+            assertTrue(open.isSuccessful());
+            assertTrue(open.getReturnValue() instanceof Session);
+            for (int i = 1; i <= 2; i++) {
+                assertEquals(i + 1, ping(sampler));
+            }
+        }
+        // Kept out of the property map the threads share
+        assertTrue(sampler.getProperty(RMISampler.REMOTE_OBJECT_CONFIG) instanceof NullProperty);
+        assertNotNull(RMISampler.getRemoteObjectConfig(sampler));
+
+        sampler.threadFinished();
+        sampler.testEnded();
+        assertNull(sampler.getRemoteObjectConfig());
+    }
+
+    public void testShouldReplayEachClientOnItsOwnThread()
+        throws Exception {
+        final Remote serverStub = RemoteObject.toStub(server);
+
+        NativeRmiProxy registry = new NativeRmiProxy("//localhost/sessionFactory");
+        final JournalMethodRecorder journal = new JournalMethodRecorder(directory);
+        // Calls here don't come in through RMI, so tag them by thread
+        MethodRecorder recorder = new MethodRecorder() {
+                public void recordCall(MethodCallRecord r)
+                    throws RemoteException {
+                    r.setClient(Thread.currentThread().getName());
+                    journal.recordCall(r);
+                }
+            };
+        DynamicStubProxyInvocationHandler handler =
+            new DynamicStubProxyInvocationHandler(registry, serverStub, null, recorder);
+        final SessionFactory proxy = (SessionFactory) handler.buildStubProxy(true);
+        registry.registerRootRmiInstance(proxy);
+
+        // Two clients, interleaved
+        final CountDownLatch firstPinged = new CountDownLatch(1);
+        final CountDownLatch secondPinged = new CountDownLatch(1);
+        Thread other = new Thread("second client") {
+                public void run() {
+                    try {
+                        Session second = proxy.open();
+                        second.ping(10);
+                        secondPinged.countDown();
+                        firstPinged.await();
+                        second.ping(20);
+                    }
+                    catch (RemoteException | InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        Session first = proxy.open();
+        other.start();
+        secondPinged.await();
+        first.ping(1);
+        firstPinged.countDown();
+        other.join();
+        journal.close();
+
+        RMIJournalReplaySampler sampler = createSampler(serverStub);
+        sampler.setClientPerThread(true);
+        sampler.testStarted();
+        try {
+            JMeterContextService.getContext().setThreadNum(1);
+            sampler.threadStarted();
+            assertTrue(((RMISampleResult) sampler.sample(null)).isSuccessful());
+            assertEquals(11, ping(sampler));
+            assertEquals(21, ping(sampler));
+            sampler.threadFinished();
+
+            JMeterContextService.getContext().setThreadNum(0);
+            sampler.threadStarted();
+            assertTrue(((RMISampleResult) sampler.sample(null)).isSuccessful());
+            assertEquals(2, ping(sampler));
+            // Back to this client's first call
+            assertTrue(((RMISampleResult) sampler.sample(null)).getReturnValue() instanceof Session);
+            sampler.threadFinished();
+        }
+        finally {
+            JMeterContextService.getContext().setThreadNum(0);
+            sampler.testEnded();
+        }
+    }
+
+    public void testShouldFailWithoutJournal() {
+        RMIJournalReplaySampler sampler = new RMIJournalReplaySampler();
+        sampler.setJournalDirectory(directory.getPath());
+        sampler.testStarted();
+        assertFalse(sampler.sample(null).isSuccessful());
+        sampler.testEnded();
+    }
+}
@@ -7,6 +7,7 @@ import org.apache.jmeter.threads.JMeterContextService;
 import org.apache.jmeter.threads.JMeterVariables;
 import junit.framework.TestCase;
 
+import com.jmibanez.tools.jmeter.impl.RemoteReferenceTracker;
 import com.jmibanez.tools.jmeter.impl.RemoteRegistry;
 
 public class RMIRemoteObjectConfigTest extends TestCase {
@@ -167,6 +168,139 @@ public class RMIRemoteObjectConfigTest extends TestCase {
         assertSame(targets[0], targets[1]);
     }
 
+    public void testEvictHandlesShouldKeepRoot()
+        throws Exception {
+
+        StubDummy root = new StubDummy();
+        registry.registerRootRmiInstance(root);
+        registry.registerRmiInstance("1 getSession -> (return)", new StubDummy());
+        registry.registerRmiInstance("2 getSession -> (return)", new StubDummy());
+
+        assertEquals(2, registry.getHandleCount());
+        assertEquals(2, registry.evictHandles());
+        assertEquals(0, registry.getHandleCount());
+
+        assertSame(root, registry.getTarget(null));
+        assertNull(registry.getTarget("1 getSession -> (return)"));
+    }
+
+    public void testShouldDropHandlesOnNewIteration()
+        throws Exception {
+
+        remoteObjectConfig.setScope(RegistryScope.ITERATION);
+        remoteObjectConfig.testStarted();
+
+        JMeterContext jmctx = JMeterContextService.getContext();
+        JMeterVariables vars = new JMeterVariables();
+        jmctx.setVariables(vars);
+
+        StubDummy root = new StubDummy();
+        remoteObjectConfig.threadStarted();
+        remoteObjectConfig.getRegistry().registerRootRmiInstance(root);
+        remoteObjectConfig.getRegistry().registerRmiInstance("1 getSession -> (return)",
+                                                             new StubDummy());
+        assertEquals(1, remoteObjectConfig.getLiveHandleCount());
+        assertNotNull(remoteObjectConfig.getRegistry().getTarget("1 getSession -> (return)"));
+
+        vars.incIteration();
+
+        assertNull(remoteObjectConfig.getRegistry().getTarget("1 getSession -> (return)"));
+        assertSame(root, remoteObjectConfig.getTarget(null));
+        assertEquals(0, remoteObjectConfig.getLiveHandleCount());
+        assertEquals(1, remoteObjectConfig.getPeakHandleCount());
+
+        // The scope is fixed for the running test
+        remoteObjectConfig.setScope(RegistryScope.THREAD);
+        remoteObjectConfig.getRegistry().registerRmiInstance("2 getSession -> (return)",
+                                                             new StubDummy());
+        vars.incIteration();
+        assertNull(remoteObjectConfig.getRegistry().getTarget("2 getSession -> (return)"));
+
+        remoteObjectConfig.threadFinished();
+        remoteObjectConfig.testEnded();
+    }
+
+    public void testShouldTrackHeldReferences()
+        throws Exception {
+
+        RemoteReferenceTracker tracker = RemoteReferenceTracker.getInstance();
+        String stubClass = StubDummy.class.getName();
+        long tracked = tracker.getTrackedCount();
+        int held = heldCount(tracker, stubClass);
+
+        registry.registerRmiInstance("1 getSession -> (return)", new StubDummy());
+        registry.registerRmiInstance("2 getSession -> (return)", new StubDummy());
+
+        assertEquals(held + 2, heldCount(tracker, stubClass));
+        assertEquals(tracked + 2, tracker.getTrackedCount());
+
+        registry.evictHandles();
+        assertEquals(held, heldCount(tracker, stubClass));
+    }
+
+    public void testRegistryShouldTakeConcurrentRegistrations()
+        throws Exception {
+
+        registry.registerRootRmiInstance(new StubDummy());
+        Thread[] threads = new Thread[8];
+        final Exception[] failure = new Exception[1];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int i = 0; i < 200; i++) {
+                                String handle = thread + "-" + i + " getSession -> (return)";
+                                registry.registerRmiInstance(handle, new StubDummy());
+                                assertNotNull(registry.getArgumentTypes(handle, "foo:"));
+                            }
+                        }
+                        catch (Exception e) {
+                            failure[0] = e;
+                        }
+                    }
+                };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertNull(failure[0]);
+        assertEquals(threads.length * 200, registry.getHandleCount());
+        assertEquals(threads.length * 200, registry.evictHandles());
+        assertNotNull(registry.getTarget(null));
+    }
+
+    public void testReleaseShouldDropRoot()
+        throws Exception {
+
+        RemoteReferenceTracker tracker = RemoteReferenceTracker.getInstance();
+        String stubClass = StubDummy.class.getName();
+        int held = heldCount(tracker, stubClass);
+
+        registry.registerRootRmiInstance(new StubDummy());
+        registry.registerRmiInstance("1 getSession -> (return)", new StubDummy());
+        assertEquals(held + 2, heldCount(tracker, stubClass));
+
+        assertEquals(1, registry.release());
+        assertNull(registry.getTarget(null));
+        assertEquals(held, heldCount(tracker, stubClass));
+    }
+
+    private int heldCount(RemoteReferenceTracker tracker, String stubClass) {
+        Integer count = tracker.getHeldReferenceCounts().get(stubClass);
+        return count != null ? count : 0;
+    }
+
+    public void testShouldMapLegacyGlobalFlagToScope() {
+        assertEquals(RegistryScope.THREAD, remoteObjectConfig.getScope());
+
+        remoteObjectConfig.setGlobal(true);
+        assertEquals(RegistryScope.TEST, remoteObjectConfig.getScope());
+        assertTrue(remoteObjectConfig.isGlobal());
+    }
+
 
     private static interface StubDummyInterface
         extends Remote {
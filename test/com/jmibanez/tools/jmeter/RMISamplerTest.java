@@ -0,0 +1,118 @@
+package com.jmibanez.tools.jmeter;
+
+import java.rmi.Remote;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.apache.jmeter.testelement.property.FunctionProperty;
+import org.apache.jmeter.testelement.property.NullProperty;
+
+import com.jmibanez.tools.jmeter.DynamicStubProxyConcurrencyTest.Session;
+import com.jmibanez.tools.jmeter.DynamicStubProxyConcurrencyTest.SessionFactoryImpl;
+
+public class RMISamplerTest extends TestCase {
+
+    private SessionFactoryImpl server;
+    private Remote serverStub;
+    private RMIRemoteObjectConfig remoteObjectConfig;
+    private RMISampler sampler;
+    private final List<String> targetNames = new ArrayList<String>();
+
+    @Override
+    public void setUp()
+        throws Exception {
+        server = new SessionFactoryImpl();
+        serverStub = RemoteObject.toStub(server);
+        remoteObjectConfig = new RMIRemoteObjectConfig() {
+                public static final long serialVersionUID = 1L;
+
+                @Override
+                public Remote getTarget(String targetName) {
+                    targetNames.add(targetName);
+                    return serverStub;
+                }
+
+                @Override
+                public Class<?>[] getArgumentTypes(String targetName, String methodName) {
+                    return new Class<?>[0];
+                }
+            };
+
+        sampler = new RMISampler();
+        sampler.setMethodName("open:");
+        sampler.setArgumentsScript("methodArgs() { return new Object[0]; }");
+    }
+
+    @Override
+    public void tearDown()
+        throws Exception {
+        UnicastRemoteObject.unexportObject(server, true);
+    }
+
+    public void testShouldKeepRemoteObjectConfigOutOfProperties()
+        throws Exception {
+        sampler.testStarted();
+        sampler.threadStarted();
+
+        for (int i = 0; i < 3; i++) {
+            // As JMeter does before every sample
+            sampler.addTestElement(remoteObjectConfig);
+            RMISampleResult res = (RMISampleResult) sampler.sample(null);
+            assertTrue(res.isSuccessful());
+            assertTrue(res.getReturnValue() instanceof Session);
+        }
+        assertTrue(sampler.getProperty(RMISampler.REMOTE_OBJECT_CONFIG) instanceof NullProperty);
+        assertSame(remoteObjectConfig, RMISampler.getRemoteObjectConfig(sampler));
+
+        // A second config in scope is ignored
+        sampler.addTestElement(new RMIRemoteObjectConfig());
+        assertSame(remoteObjectConfig, sampler.getRemoteObjectConfig());
+
+        sampler.threadFinished();
+        sampler.testEnded();
+        assertNull(sampler.getRemoteObjectConfig());
+    }
+
+    public void testShouldEvaluateFunctionsForEverySample() {
+        sampler.setProperty(new FunctionProperty(RMISampler.TARGET_NAME, null) {
+                public static final long serialVersionUID = 1L;
+                private int count = 0;
+
+                @Override
+                public String getStringValue() {
+                    return "session " + count++;
+                }
+            });
+        sampler.testStarted();
+        sampler.threadStarted();
+
+        List<String> labels = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            sampler.addTestElement(remoteObjectConfig);
+            RMISampleResult res = (RMISampleResult) sampler.sample(null);
+            assertTrue(res.isSuccessful());
+            labels.add(res.getSampleLabel());
+        }
+        assertEquals(3, targetNames.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(labels.get(i).startsWith(targetNames.get(i) + " "));
+            for (int j = 0; j < i; j++) {
+                assertFalse(targetNames.get(i).equals(targetNames.get(j)));
+            }
+        }
+
+        sampler.threadFinished();
+        sampler.testEnded();
+    }
+
+    public void testShouldFailWithoutRemoteObjectConfig() {
+        sampler.testStarted();
+        sampler.threadStarted();
+        assertFalse(sampler.sample(null).isSuccessful());
+        sampler.threadFinished();
+        sampler.testEnded();
+    }
+}
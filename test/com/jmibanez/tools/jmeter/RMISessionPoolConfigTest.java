@@ -0,0 +1,194 @@
+package com.jmibanez.tools.jmeter;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import junit.framework.TestCase;
+
+public class RMISessionPoolConfigTest extends TestCase {
+
+    private Registry registry;
+    private int registryPort;
+    private TestLoginServiceImpl loginService;
+    private RMISessionPoolConfig pool;
+    private JMeterVariables vars;
+
+    @Override
+    public void setUp()
+        throws Exception {
+        // On a free port, found out when the registry listens on it
+        registry = LocateRegistry.createRegistry(0, null, new RMIServerSocketFactory() {
+                public ServerSocket createServerSocket(int port)
+                    throws IOException {
+                    ServerSocket s = new ServerSocket(port);
+                    registryPort = s.getLocalPort();
+                    return s;
+                }
+            });
+        loginService = new TestLoginServiceImpl();
+        registry.rebind("loginService", loginService);
+
+        pool = new RMISessionPoolConfig();
+        pool.setTargetRmiName("//localhost:" + registryPort + "/loginService");
+        pool.setSessionHandle("1 openSession -> (return)");
+        pool.setPoolSize(2);
+        pool.setValidationMethod("ping");
+        pool.setSessionScript("createSession() { return root.openSession(); }");
+
+        JMeterContext jmctx = JMeterContextService.getContext();
+        vars = new JMeterVariables();
+        jmctx.setVariables(vars);
+    }
+
+    @Override
+    public void tearDown()
+        throws Exception {
+        UnicastRemoteObject.unexportObject(loginService, true);
+        UnicastRemoteObject.unexportObject(registry, true);
+    }
+
+    public void testShouldCreateSessionsAtTestStart()
+        throws Exception {
+        pool.testStarted();
+        assertEquals(2, loginService.sessionsOpened.get());
+        assertEquals(2, pool.getAvailableSessions());
+        pool.testEnded();
+    }
+
+    public void testShouldLeaseOneSessionPerIteration()
+        throws Exception {
+        pool.testStarted();
+        pool.threadStarted();
+
+        Remote first = pool.getTarget("1 openSession -> (return)");
+        assertNotNull(first);
+        assertSame(first, pool.getTarget("1 openSession -> (return)"));
+        assertEquals(1, pool.getAvailableSessions());
+        assertNotNull(pool.getArgumentTypes("1 openSession -> (return)", "ping:"));
+
+        vars.incIteration();
+        assertNotNull(pool.getTarget("1 openSession -> (return)"));
+        assertEquals(1, pool.getAvailableSessions());
+
+        pool.threadFinished();
+        assertEquals(2, pool.getAvailableSessions());
+        assertEquals(2, loginService.sessionsOpened.get());
+        pool.testEnded();
+    }
+
+    public void testShouldRecreateBrokenSessions()
+        throws Exception {
+        pool.setPoolSize(1);
+        pool.testStarted();
+        pool.threadStarted();
+
+        loginService.breakSessions = true;
+        pool.getTarget("1 openSession -> (return)");
+        assertEquals(2, loginService.sessionsOpened.get());
+
+        pool.threadFinished();
+        pool.testEnded();
+    }
+
+    public void testShouldKeepSlotWhenRecreatingFails()
+        throws Exception {
+        pool.setPoolSize(1);
+        pool.setLeaseTimeout(1000);
+        pool.testStarted();
+        pool.threadStarted();
+
+        loginService.breakSessions = true;
+        loginService.failedLogins.set(1);
+        try {
+            pool.getTarget("1 openSession -> (return)");
+            fail("Expected the login to fail");
+        }
+        catch(RuntimeException expected) {
+        }
+        assertEquals(1, pool.getAvailableSessions());
+
+        // The server is back
+        assertNotNull(pool.getTarget("1 openSession -> (return)"));
+        assertEquals(2, loginService.sessionsOpened.get());
+
+        pool.threadFinished();
+        assertEquals(1, pool.getAvailableSessions());
+        pool.testEnded();
+    }
+
+
+    public interface TestSession
+        extends Remote {
+        public void ping()
+            throws RemoteException;
+    }
+
+    public interface TestLoginService
+        extends Remote {
+        public TestSession openSession()
+            throws RemoteException;
+    }
+
+    public static class TestSessionImpl
+        extends UnicastRemoteObject
+        implements TestSession {
+
+        public static final long serialVersionUID = 790L;
+
+        private final TestLoginServiceImpl owner;
+        private final int generation;
+
+        public TestSessionImpl(TestLoginServiceImpl owner, int generation)
+            throws RemoteException {
+            super();
+            this.owner = owner;
+            this.generation = generation;
+        }
+
+        public void ping()
+            throws RemoteException {
+            if (owner.breakSessions && generation <= owner.brokenBefore) {
+                throw new RemoteException("Session expired");
+            }
+        }
+    }
+
+    public static class TestLoginServiceImpl
+        extends UnicastRemoteObject
+        implements TestLoginService {
+
+        public static final long serialVersionUID = 791L;
+
+        AtomicInteger sessionsOpened = new AtomicInteger();
+        AtomicInteger failedLogins = new AtomicInteger();
+        volatile boolean breakSessions = false;
+        volatile int brokenBefore = Integer.MAX_VALUE;
+
+        public TestLoginServiceImpl()
+            throws RemoteException {
+            super();
+        }
+
+        public TestSession openSession()
+            throws RemoteException {
+            if (failedLogins.getAndDecrement() > 0) {
+                throw new RemoteException("Server unavailable");
+            }
+            int generation = sessionsOpened.incrementAndGet();
+            if (breakSessions) {
+                brokenBefore = generation - 1;
+            }
+            return new TestSessionImpl(this, generation);
+        }
+    }
+}
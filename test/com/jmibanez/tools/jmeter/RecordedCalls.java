@@ -0,0 +1,31 @@
+package com.jmibanez.tools.jmeter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Recorded calls for tests that write and read back journals.
+ */
+public final class RecordedCalls {
+
+    private RecordedCalls() {
+    }
+
+    /**
+     * @return a completed <code>List.add(arg)</code> call on
+     * <code>target</code>; even-numbered calls have a remote path in
+     * their return value
+     */
+    public static MethodCallRecord add(int index, String target, Object arg)
+        throws Exception {
+        MethodCallRecord r = new MethodCallRecord(index, target,
+                                                  List.class.getMethod("add", Object.class),
+                                                  new Object[] { arg });
+        r.returned(Boolean.TRUE);
+        if (index % 2 == 0) {
+            r.setRemotePathsInReturn(Collections.singletonMap(index + " add -> (return)",
+                                                              "ret"));
+        }
+        return r;
+    }
+}
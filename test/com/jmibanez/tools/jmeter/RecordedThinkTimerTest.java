@@ -0,0 +1,24 @@
+package com.jmibanez.tools.jmeter;
+
+import junit.framework.TestCase;
+
+public class RecordedThinkTimerTest extends TestCase {
+
+    public void testShouldScaleByPacingFactor() {
+        assertEquals(1000, RecordedThinkTimer.scale(1000, 1.0f));
+        assertEquals(100, RecordedThinkTimer.scale(1000, 10.0f));
+        assertEquals(2000, RecordedThinkTimer.scale(1000, 0.5f));
+    }
+
+    public void testShouldNotWaitWithoutThinkTimeOrPacing() {
+        assertEquals(0, RecordedThinkTimer.scale(0, 1.0f));
+        assertEquals(0, RecordedThinkTimer.scale(-5, 1.0f));
+        assertEquals(0, RecordedThinkTimer.scale(1000, 0.0f));
+    }
+
+    public void testShouldKeepThinkTime() {
+        RecordedThinkTimer timer = new RecordedThinkTimer();
+        timer.setThinkTime(1234);
+        assertEquals(1234, timer.getThinkTime());
+    }
+}
@@ -0,0 +1,33 @@
+package com.jmibanez.tools.jmeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Temporary directories for tests that write journals and dumps.
+ */
+public final class TempDirectory {
+
+    private TempDirectory() {
+    }
+
+    public static File create(String prefix)
+        throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    /**
+     * Delete <code>f</code> and, if it is a directory, everything in
+     * it. Does nothing if it doesn't exist.
+     */
+    public static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child: files) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,113 @@
+package com.jmibanez.tools.jmeter;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jmeter.samplers.Sampler;
+import org.apache.jmeter.testelement.TestElement;
+import junit.framework.TestCase;
+
+import com.jmibanez.tools.jmeter.journal.JournalCall;
+import com.jmibanez.tools.jmeter.journal.JournalWriter;
+
+public class WeightedMixControllerTest extends TestCase {
+
+    private static RMISampler sampler(String name, String method) {
+        RMISampler s = new RMISampler();
+        s.setName(name);
+        s.setMethodName(method);
+        return s;
+    }
+
+    public void testShouldParseWeights() {
+        Map<String, Double> w = WeightedMixController.parseWeights(
+            "// comment\nlogin = 1\n\nquery a=b=2.5\nbroken\nnegative=-1\n");
+        assertEquals(2, w.size());
+        assertEquals(1.0, w.get("login"));
+        assertEquals(2.5, w.get("query a=b"));
+    }
+
+    public void testShouldWeighChildren() {
+        WeightedMixController c = new WeightedMixController();
+        c.setWeights("query=3");
+        List<TestElement> children = Arrays.<TestElement>asList(sampler("login", "login:"),
+                                                                sampler("query", "query:int"));
+        double[] weights = c.weightsOf(children);
+        assertEquals(1.0, weights[0]);
+        assertEquals(3.0, weights[1]);
+    }
+
+    public void testShouldRunOneChildPerIterationByWeight() {
+        WeightedMixController c = new WeightedMixController();
+        c.setWeights("rare=1\ncommon=9\nnever=0");
+        RMISampler rare = sampler("rare", "rare:");
+        RMISampler common = sampler("common", "common:");
+        c.addTestElement(rare);
+        c.addTestElement(common);
+        c.addTestElement(sampler("never", "never:"));
+        c.initialize();
+
+        int rareCount = 0;
+        int commonCount = 0;
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            Sampler s = c.next();
+            assertNotNull(s);
+            if (s == rare) {
+                rareCount++;
+            }
+            else {
+                assertSame(common, s);
+                commonCount++;
+            }
+            // One child per iteration
+            assertNull(c.next());
+        }
+        assertEquals(200, rareCount, 60);
+        assertEquals(1800, commonCount, 60);
+    }
+
+    public void testShouldWeighByRecordedCalls()
+        throws Exception {
+        File directory = TempDirectory.create("mix-test");
+        try {
+            JournalWriter w = new JournalWriter(directory);
+            for (int i = 0; i < 10; i++) {
+                w.append(new JournalCall(i, 1000L + i, 1000L, null, i < 8 ? "query:int" : "login:",
+                                         null, (byte) 0, 0, null, null));
+            }
+            w.close();
+
+            WeightedMixController c = new WeightedMixController();
+            c.setJournalDirectory(directory.getPath());
+            c.setWeights("other=5");
+            List<TestElement> children = Arrays.<TestElement>asList(sampler("a", "login:"),
+                                                                    sampler("b", "query:int"),
+                                                                    sampler("c", "never:"),
+                                                                    sampler("other", "x:"));
+            double[] weights = c.weightsOf(children);
+            assertEquals(2.0, weights[0]);
+            assertEquals(8.0, weights[1]);
+            assertEquals(0.0, weights[2]);
+            assertEquals(5.0, weights[3]);
+
+            // Recorded again in the same directory
+            TempDirectory.delete(directory);
+            w = new JournalWriter(directory);
+            for (int i = 0; i < 30; i++) {
+                w.append(new JournalCall(i, 1000L + i, 1000L, null, i < 10 ? "never:" : "login:",
+                                         null, (byte) 0, 0, null, null));
+            }
+            w.close();
+
+            weights = c.weightsOf(children);
+            assertEquals(20.0, weights[0]);
+            assertEquals(0.0, weights[1]);
+            assertEquals(10.0, weights[2]);
+        }
+        finally {
+            TempDirectory.delete(directory);
+        }
+    }
+}
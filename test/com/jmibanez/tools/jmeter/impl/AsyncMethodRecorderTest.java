@@ -0,0 +1,143 @@
+package com.jmibanez.tools.jmeter.impl;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import com.jmibanez.tools.jmeter.MethodCallRecord;
+import com.jmibanez.tools.jmeter.MethodRecorder;
+
+public class AsyncMethodRecorderTest extends TestCase {
+
+    private static MethodCallRecord call(int index)
+        throws Exception {
+        MethodCallRecord r = new MethodCallRecord(index, "target",
+                                                  String.class.getMethod("concat", String.class),
+                                                  new Object[] { "arg" + index });
+        r.returned("ret" + index);
+        return r;
+    }
+
+    public void testShouldDeliverInOrder()
+        throws Exception {
+        CollectingRecorder target = new CollectingRecorder(null);
+        AsyncMethodRecorder q = new AsyncMethodRecorder(target, 4,
+                                                        AsyncMethodRecorder.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 100; i++) {
+            q.recordCall(call(i));
+        }
+        q.close();
+
+        assertEquals(100, target.indexes.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) target.indexes.get(i));
+        }
+        assertEquals(100, q.getRecordedCount());
+        assertEquals(0, q.getDroppedCount());
+    }
+
+    public void testShouldDropOldestWhenFull()
+        throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        CollectingRecorder target = new CollectingRecorder(gate);
+        AsyncMethodRecorder q = new AsyncMethodRecorder(target, 2,
+                                                        AsyncMethodRecorder.OverflowPolicy.DROP_OLDEST);
+        q.recordCall(call(0));
+        while (q.getQueueDepth() > 0) {
+            Thread.sleep(5);
+        }
+        // Worker is now blocked delivering call 0
+        for (int i = 1; i <= 5; i++) {
+            q.recordCall(call(i));
+        }
+        assertEquals(2, q.getQueueDepth());
+        assertEquals(3, q.getDroppedCount());
+
+        gate.countDown();
+        q.close();
+        assertEquals(3, target.indexes.size());
+        assertEquals(0, (int) target.indexes.get(0));
+        assertEquals(4, (int) target.indexes.get(1));
+        assertEquals(5, (int) target.indexes.get(2));
+    }
+
+    public void testShouldSpillAndReplayInOrder()
+        throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        CollectingRecorder target = new CollectingRecorder(gate);
+        AsyncMethodRecorder q = new AsyncMethodRecorder(target, 2,
+                                                        AsyncMethodRecorder.OverflowPolicy.SPILL);
+        q.recordCall(call(0));
+        while (q.getQueueDepth() > 0) {
+            Thread.sleep(5);
+        }
+        for (int i = 1; i < 50; i++) {
+            q.recordCall(call(i));
+        }
+        assertEquals(47, q.getSpillDepth());
+
+        gate.countDown();
+        q.close();
+        assertEquals(50, target.indexes.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) target.indexes.get(i));
+        }
+        assertEquals("target", target.records.get(40).getTarget());
+        assertEquals("ret40", target.records.get(40).getReturnValue());
+        assertEquals("arg40", target.records.get(40).getArguments()[0]);
+        assertEquals(0, q.getDroppedCount());
+    }
+
+    public void testShouldCountFailuresAndKeepRecording()
+        throws Exception {
+        final CollectingRecorder target = new CollectingRecorder(null);
+        AsyncMethodRecorder q = new AsyncMethodRecorder(new MethodRecorder() {
+                public void recordCall(MethodCallRecord r)
+                    throws RemoteException {
+                    if (r.getIndex() % 2 == 0) {
+                        throw new RemoteException("broken generator");
+                    }
+                    target.recordCall(r);
+                }
+            }, 4, AsyncMethodRecorder.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 10; i++) {
+            q.recordCall(call(i));
+        }
+        q.close();
+
+        assertEquals(5, q.getFailedCount());
+        assertEquals(5, q.getRecordedCount());
+        assertEquals(5, target.indexes.size());
+    }
+
+
+    static class CollectingRecorder
+        implements MethodRecorder {
+
+        final List<Integer> indexes = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<MethodCallRecord> records = Collections.synchronizedList(new ArrayList<MethodCallRecord>());
+        private final CountDownLatch gate;
+
+        CollectingRecorder(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        public void recordCall(MethodCallRecord r)
+            throws RemoteException {
+            if (gate != null) {
+                try {
+                    gate.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            indexes.add(r.getIndex());
+            records.add(r);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.jmibanez.tools.jmeter.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.jmibanez.tools.jmeter.MethodCallRecord;
+import com.jmibanez.tools.jmeter.MethodRecorder;
+import com.jmibanez.tools.jmeter.RecordedCalls;
+import com.jmibanez.tools.jmeter.TempDirectory;
+import com.jmibanez.tools.jmeter.journal.JournalCall;
+import com.jmibanez.tools.jmeter.journal.JournalReader;
+
+public class FlightRecorderTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    public void setUp()
+        throws Exception {
+        directory = TempDirectory.create("flight-test");
+    }
+
+    @Override
+    public void tearDown() {
+        TempDirectory.delete(directory);
+    }
+
+    private static MethodCallRecord call(int index)
+        throws Exception {
+        MethodCallRecord r = RecordedCalls.add(index, "list", "item " + index);
+        r.setClient("client " + (index % 3));
+        return r;
+    }
+
+    private static List<JournalCall> read(File journal)
+        throws Exception {
+        List<JournalCall> calls = new ArrayList<>();
+        try (JournalReader reader = new JournalReader(journal)) {
+            JournalCall c;
+            while ((c = reader.next()) != null) {
+                calls.add(c);
+            }
+        }
+        return calls;
+    }
+
+    public void testShouldKeepOnlyLatestCalls()
+        throws Exception {
+        CollectingRecorder delegate = new CollectingRecorder();
+        FlightRecorder recorder = new FlightRecorder(4096, directory, delegate);
+        for (int i = 0; i < 1000; i++) {
+            recorder.recordCall(call(i));
+        }
+        assertEquals(1000, delegate.count);
+        assertEquals(1000, recorder.getRecordedCount());
+        int buffered = recorder.getBufferedCount();
+        assertTrue(buffered > 10);
+        assertTrue(buffered < 1000);
+
+        File journal = recorder.dump("test");
+        assertTrue(journal.getName().startsWith(FlightRecorder.DUMP_PREFIX));
+        assertTrue(journal.getName().endsWith("-test"));
+        List<JournalCall> calls = read(journal);
+        assertEquals(buffered, calls.size());
+        for (int n = 0; n < calls.size(); n++) {
+            JournalCall c = calls.get(n);
+            int i = 1000 - buffered + n;
+            assertEquals(i, c.getIndex());
+            assertEquals("list", c.getTarget());
+            assertEquals("add:java.lang.Object", c.getMangledMethodName());
+            assertEquals("client " + (i % 3), c.getClient());
+            assertEquals("item " + i, c.getArguments()[0]);
+            assertEquals(i % 2 == 0 ? 1 : 0, c.getRemotePaths().size());
+        }
+
+        recorder.close();
+        assertTrue(delegate.closed);
+    }
+
+    public void testShouldKeepRecordingWhileDumping()
+        throws Exception {
+        final FlightRecorder recorder = new FlightRecorder(256 * 1024, directory, null);
+        for (int i = 0; i < 5000; i++) {
+            recorder.recordCall(call(i));
+        }
+        Thread recording = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 5000; i < 20000; i++) {
+                            recorder.recordCall(call(i));
+                        }
+                    }
+                    catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        recording.start();
+        File journal = recorder.dump("during");
+        recording.join();
+        recorder.close();
+
+        // Whatever wasn't overwritten first is dumped whole, in order
+        int last = -1;
+        for (JournalCall c: read(journal)) {
+            int i = c.getIndex();
+            assertTrue(i + " after " + last, i > last);
+            assertEquals("client " + (i % 3), c.getClient());
+            assertEquals("item " + i, c.getArguments()[0]);
+            last = i;
+        }
+    }
+
+    public void testShouldDropArgumentsTooLargeForBuffer()
+        throws Exception {
+        FlightRecorder recorder = new FlightRecorder(4096, directory, null);
+        recorder.recordCall(call(0));
+        MethodCallRecord large = new MethodCallRecord(1, null, List.class.getMethod("add", Object.class),
+                                                      new Object[] { new byte[8192] });
+        large.returned(Boolean.TRUE);
+        recorder.recordCall(large);
+        assertEquals(1, recorder.getTruncatedCount());
+
+        List<JournalCall> calls = read(recorder.dump(null));
+        assertEquals(2, calls.size());
+        assertEquals("item 0", calls.get(0).getArguments()[0]);
+        assertNull(calls.get(1).getPackedArguments());
+        recorder.close();
+    }
+
+    public void testShouldDumpOnTrigger()
+        throws Exception {
+        FlightRecorder recorder = new FlightRecorder(64 * 1024, directory, null);
+        recorder.setTriggerDelay(0);
+        recorder.setErrorTriggered(true);
+        for (int i = 0; i < 10; i++) {
+            recorder.recordCall(call(i));
+        }
+        assertEquals(0, recorder.getDumpCount());
+
+        MethodCallRecord failed = call(10);
+        failed.thrown(new RemoteException("failed"));
+        recorder.recordCall(failed);
+        for (int tries = 0; recorder.getDumpCount() == 0 && tries < 200; tries++) {
+            Thread.sleep(10);
+        }
+        recorder.close();
+
+        assertEquals(1, recorder.getDumpCount());
+        File[] dumps = directory.listFiles();
+        assertEquals(1, dumps.length);
+        assertTrue(dumps[0].getName().endsWith("-error-10"));
+        List<JournalCall> calls = read(dumps[0]);
+        assertEquals(11, calls.size());
+        assertTrue(calls.get(10).isException());
+    }
+
+    private static class CollectingRecorder
+        implements MethodRecorder, Closeable
+    {
+        int count = 0;
+        boolean closed = false;
+
+        public void recordCall(MethodCallRecord r) {
+            count++;
+        }
+
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.jmibanez.tools.jmeter.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.jmeter.testelement.TestElement;
+import junit.framework.TestCase;
+
+import com.jmibanez.tools.jmeter.MethodCallRecord;
+import com.jmibanez.tools.jmeter.NativeRmiProxyController;
+import com.jmibanez.tools.jmeter.RMISampler;
+import com.jmibanez.tools.jmeter.RecordedThinkTimer;
+
+public class RmiSamplerGeneratorMethodRecorderTest extends TestCase {
+
+    public void testShouldDeliverSamplersInCallOrder()
+        throws Exception {
+        CollectingController controller = new CollectingController();
+        RmiSamplerGeneratorMethodRecorder recorder = new RmiSamplerGeneratorMethodRecorder(4);
+        recorder.setTarget(controller);
+        recorder.setSamplerNameFormat(RmiSamplerGeneratorMethodRecorder.DEFAULT_SAMPLER_NAME_FORMAT);
+
+        for (int i = 1; i <= 200; i++) {
+            // Earlier calls get larger arguments, so they finish later
+            List<String> arg = new ArrayList<String>();
+            for (int j = 0; j < (200 - i) * 5; j++) {
+                arg.add("element " + j);
+            }
+            recorder.recordCall(new MethodCallRecord(i, "target",
+                                                     List.class.getMethod("addAll", java.util.Collection.class),
+                                                     new Object[] { arg }));
+        }
+        recorder.close();
+
+        assertEquals(200, controller.indexes.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i + 1, (int) controller.indexes.get(i));
+        }
+        assertTrue(controller.samplers.get(0).getArgumentsScript().contains("element 0"));
+        assertTrue(controller.timers.isEmpty());
+    }
+
+    public void testShouldDeliverSamplersInRecordedOrder()
+        throws Exception {
+        CollectingController controller = new CollectingController();
+        RmiSamplerGeneratorMethodRecorder recorder = new RmiSamplerGeneratorMethodRecorder(4);
+        recorder.setTarget(controller);
+        recorder.setSamplerNameFormat(RmiSamplerGeneratorMethodRecorder.DEFAULT_SAMPLER_NAME_FORMAT);
+
+        // Calls end, and so are recorded, out of index order
+        List<Integer> recorded = new ArrayList<Integer>();
+        for (int i = 1; i <= 200; i++) {
+            recorded.add(i);
+        }
+        Collections.shuffle(recorded, new Random(42));
+        for (int n = 0; n < recorded.size(); n++) {
+            List<String> arg = new ArrayList<String>();
+            for (int j = 0; j < (200 - n) * 5; j++) {
+                arg.add("element " + j);
+            }
+            recorder.recordCall(new MethodCallRecord(recorded.get(n), "target",
+                                                     List.class.getMethod("addAll", java.util.Collection.class),
+                                                     new Object[] { arg }));
+        }
+        recorder.close();
+
+        assertEquals(recorded, controller.indexes);
+    }
+
+    public void testShouldAddRecordedThinkTime()
+        throws Exception {
+        CollectingController controller = new CollectingController();
+        RmiSamplerGeneratorMethodRecorder recorder = new RmiSamplerGeneratorMethodRecorder(2);
+        recorder.setTarget(controller);
+        recorder.setSamplerNameFormat(RmiSamplerGeneratorMethodRecorder.DEFAULT_SAMPLER_NAME_FORMAT);
+        recorder.setThinkTimersAdded(true);
+
+        MethodCallRecord first = new MethodCallRecord(1, null, Object.class.getMethod("hashCode"),
+                                                      new Object[0]);
+        first.returned(1);
+        Thread.sleep(50);
+        MethodCallRecord second = new MethodCallRecord(2, null, Object.class.getMethod("hashCode"),
+                                                       new Object[0]);
+        second.returned(2);
+        recorder.recordCall(first);
+        recorder.recordCall(second);
+        recorder.close();
+
+        assertEquals(2, controller.indexes.size());
+        // No think time before the first call
+        assertEquals(1, controller.timers.size());
+        long thinkTime = controller.timers.get(0).getThinkTime();
+        assertEquals(second.getStartTime() - first.getEndTime(), thinkTime);
+        assertTrue(thinkTime >= 40);
+    }
+
+
+    static class CollectingController
+        extends NativeRmiProxyController {
+
+        public static final long serialVersionUID = 1L;
+
+        final List<Integer> indexes = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<RMISampler> samplers = Collections.synchronizedList(new ArrayList<RMISampler>());
+        final List<RecordedThinkTimer> timers =
+            Collections.synchronizedList(new ArrayList<RecordedThinkTimer>());
+
+        @Override
+        public void deliverSampler(RMISampler s, MethodCallRecord record,
+                                   TestElement... children) {
+            indexes.add(record.getIndex());
+            samplers.add(s);
+            for (TestElement child: children) {
+                if (child instanceof RecordedThinkTimer) {
+                    timers.add((RecordedThinkTimer) child);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.jmibanez.tools.jmeter.MethodCallRecord;
+import com.jmibanez.tools.jmeter.TempDirectory;
+
+public class JournalIndexTest extends TestCase {
+
+    private static final long T0 = 1500000000000L;
+    private static final int CALLS = 5000;
+    private static final String[] METHODS = { "placeOrder:int", "ping:", "placeOrder:java.lang.String" };
+
+    private File directory;
+    private File exported;
+
+    @Override
+    public void setUp()
+        throws Exception {
+        directory = TempDirectory.create("index-test");
+        exported = new File(directory.getPath() + "-export");
+        JournalWriter w = new JournalWriter(directory, 64 * 1024);
+        for (int i = 0; i < CALLS; i++) {
+            w.append(call(i));
+        }
+        w.close();
+    }
+
+    @Override
+    public void tearDown() {
+        TempDirectory.delete(directory);
+        TempDirectory.delete(exported);
+    }
+
+    private static JournalCall call(int i)
+        throws Exception {
+        MethodCallRecord r = new MethodCallRecord(i, null, List.class.getMethod("get", int.class),
+                                                  new Object[] { i % 50 });
+        return new JournalCall(i, T0 + i * 10L, 1000000L, i % 2 == 0 ? null : "session",
+                               METHODS[i % 3], ByteBuffer.wrap(r.getPackedArguments()),
+                               (byte) 0, 0, null, "client " + (i % 4));
+    }
+
+    private static boolean matches(int i) {
+        long start = T0 + i * 10L;
+        return METHODS[i % 3].startsWith("placeOrder:") && i % 4 == 1
+            && start >= T0 + 10000 && start < T0 + 20000;
+    }
+
+    private static JournalIndex.Query query() {
+        JournalIndex.Query q = new JournalIndex.Query();
+        q.setMethod("placeOrder");
+        q.setClient("client 1");
+        q.setFrom(T0 + 10000);
+        q.setTo(T0 + 20000);
+        return q;
+    }
+
+    private static List<JournalCall> find(JournalIndex index, JournalIndex.Query q)
+        throws IOException {
+        final List<JournalCall> found = new ArrayList<>();
+        index.find(q, new JournalIndex.CallHandler() {
+                public void call(JournalCall c) {
+                    found.add(c);
+                }
+            });
+        return found;
+    }
+
+    public void testShouldFindCallsByMethodClientAndTime()
+        throws Exception {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            if (matches(i)) {
+                expected.add(i);
+            }
+        }
+
+        try (JournalIndex index = JournalIndex.open(directory)) {
+            assertEquals(CALLS, index.getCallCount());
+            assertEquals(expected.size(), index.count(query()));
+            List<JournalCall> found = find(index, query());
+            assertEquals(expected.size(), found.size());
+            for (int n = 0; n < found.size(); n++) {
+                JournalCall c = found.get(n);
+                int i = expected.get(n);
+                assertEquals(i, c.getIndex());
+                assertEquals("client 1", c.getClient());
+                assertEquals("session", c.getTarget());
+                assertEquals(i % 50, c.getArguments()[0]);
+            }
+
+            JournalIndex.Query exact = query();
+            exact.setMethod("placeOrder:int");
+            assertTrue(index.count(exact) > 0);
+            assertTrue(index.count(exact) < expected.size());
+
+            JournalIndex.Query ping = new JournalIndex.Query();
+            ping.setMethod("ping:");
+            assertEquals((CALLS + 2) / 3, index.count(ping));
+
+            // Calls on the root have no target
+            JournalIndex.Query root = new JournalIndex.Query();
+            root.setRootTarget(true);
+            root.setMethod("ping:");
+            List<JournalCall> onRoot = find(index, root);
+            assertEquals((CALLS + 1) / 6, onRoot.size());
+            for (JournalCall c: onRoot) {
+                assertNull(c.getTarget());
+                assertEquals(4, c.getIndex() % 6);
+            }
+        }
+    }
+
+    public void testShouldMatchNothingForUnknownValues()
+        throws Exception {
+        try (JournalIndex index = JournalIndex.open(directory)) {
+            JournalIndex.Query q = query();
+            q.setClient("nobody");
+            assertEquals(0, index.count(q));
+            q = new JournalIndex.Query();
+            q.setFrom(T0 + CALLS * 10L);
+            assertEquals(0, index.count(q));
+        }
+    }
+
+    public void testShouldFindStringsWrittenAgainAfterEviction()
+        throws Exception {
+        JournalWriter w = new JournalWriter(exported, 64 * 1024, 4);
+        for (int i = 0; i < CALLS; i++) {
+            w.append(call(i));
+        }
+        w.close();
+        assertTrue(w.getStringCount() > 8);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            if (matches(i)) {
+                expected.add(i);
+            }
+        }
+        try (JournalIndex index = JournalIndex.open(exported)) {
+            List<JournalCall> found = find(index, query());
+            assertEquals(expected.size(), found.size());
+            for (int n = 0; n < found.size(); n++) {
+                assertEquals((int) expected.get(n), found.get(n).getIndex());
+                assertEquals("client 1", found.get(n).getClient());
+            }
+        }
+    }
+
+    public void testShouldExportMatchingCalls()
+        throws Exception {
+        long exportedCount;
+        try (JournalIndex index = JournalIndex.open(directory)) {
+            exportedCount = index.export(query(), exported);
+        }
+        assertTrue(exportedCount > 0);
+
+        try (JournalReader reader = new JournalReader(exported)) {
+            long n = 0;
+            JournalCall c;
+            while ((c = reader.next()) != null) {
+                assertTrue(matches(c.getIndex()));
+                assertEquals(c.getIndex() % 50, c.getArguments()[0]);
+                n++;
+            }
+            assertEquals(exportedCount, n);
+        }
+        try (JournalIndex index = JournalIndex.open(exported)) {
+            assertEquals(exportedCount, index.count(new JournalIndex.Query()));
+        }
+    }
+
+    public void testShouldBuildIndexForJournalWithoutOne()
+        throws Exception {
+        long expected;
+        try (JournalIndex index = JournalIndex.open(directory)) {
+            expected = index.count(query());
+        }
+        for (String name: new String[] { JournalIndex.CALLS_FILE, JournalIndex.BLOCKS_FILE,
+                                         JournalIndex.STRINGS_FILE, JournalIndex.BLOBS_FILE,
+                                         JournalIndex.END_FILE }) {
+            assertTrue(new File(directory, name).delete());
+        }
+
+        try (JournalIndex index = JournalIndex.open(directory)) {
+            assertEquals(CALLS, index.getCallCount());
+            assertEquals(expected, index.count(query()));
+            assertEquals(expected, find(index, query()).size());
+        }
+    }
+
+    public void testShouldRebuildIndexLeftBehindByCrash()
+        throws Exception {
+        // Recording stops without the writer being closed: the
+        // journal goes on past the index last written out
+        JournalWriter w = new JournalWriter(exported, 1024 * 1024);
+        for (int i = 0; i < CALLS; i++) {
+            w.append(call(i));
+            if (i == CALLS / 2) {
+                w.force();
+            }
+        }
+        assertTrue(new File(exported, JournalIndex.CALLS_FILE).length()
+                   < JournalIndex.INDEX_HEADER_SIZE + (long) CALLS * JournalIndex.ENTRY_SIZE);
+
+        try (JournalIndex index = JournalIndex.open(exported)) {
+            assertEquals(CALLS, index.getCallCount());
+            List<JournalCall> found = find(index, query());
+            for (JournalCall c: found) {
+                assertTrue(matches(c.getIndex()));
+            }
+            try (JournalIndex complete = JournalIndex.open(directory)) {
+                assertEquals(complete.count(query()), found.size());
+            }
+        }
+        w.close();
+    }
+
+    public void testShouldOpenIndexWhileRecording()
+        throws Exception {
+        JournalWriter w = new JournalWriter(exported, 1024 * 1024);
+        try {
+            for (int i = 0; i < CALLS / 2; i++) {
+                w.append(call(i));
+            }
+            w.force();
+            w.append(call(CALLS / 2));
+            assertTrue(JournalIndex.isBeingWritten(exported));
+            try {
+                JournalIndex.build(exported);
+                fail("Index of a journal being recorded rebuilt in place");
+            }
+            catch (IOException expected) {
+            }
+
+            try (JournalIndex index = JournalIndex.open(exported)) {
+                assertEquals(CALLS / 2 + 1, index.getCallCount());
+            }
+            for (int i = CALLS / 2 + 1; i < CALLS; i++) {
+                w.append(call(i));
+            }
+        }
+        finally {
+            w.close();
+        }
+
+        // The writer's own index came through intact
+        assertFalse(new File(exported, JournalIndex.LOCK_FILE).exists());
+        assertTrue(JournalIndex.isCurrent(exported));
+        assertEquals(JournalIndex.INDEX_HEADER_SIZE + (long) CALLS * JournalIndex.ENTRY_SIZE,
+                     new File(exported, JournalIndex.CALLS_FILE).length());
+        try (JournalIndex index = JournalIndex.open(exported);
+             JournalIndex complete = JournalIndex.open(directory)) {
+            assertEquals(CALLS, index.getCallCount());
+            assertEquals(complete.count(query()), find(index, query()).size());
+        }
+    }
+
+    public void testShouldSkipBlocksWithoutQueriedIds()
+        throws Exception {
+        // Each block has its own 100 targets: more than any block
+        // could tell apart through a 64-bit mask of its ids
+        JournalWriter w = new JournalWriter(exported, 1024 * 1024);
+        for (int i = 0; i < 3 * JournalIndex.BLOCK_ENTRIES; i++) {
+            int block = i / JournalIndex.BLOCK_ENTRIES;
+            w.append(new JournalCall(i, T0 + i * 10L, 1000000L, "target " + (block * 100 + i % 100),
+                                     METHODS[i % 3], null, (byte) 0, 0, null, "client " + (i % 4)));
+        }
+        w.close();
+
+        try (JournalIndex index = JournalIndex.open(exported)) {
+            JournalIndex.Query q = new JournalIndex.Query();
+            q.setTarget("target 150");
+            assertEquals(10, index.count(q));
+            assertEquals(1, index.getBlocksScanned());
+
+            q.setTarget(null);
+            q.setFrom(T0 + 2L * JournalIndex.BLOCK_ENTRIES * 10);
+            q.setClient("client 3");
+            assertEquals(JournalIndex.BLOCK_ENTRIES / 4, index.count(q));
+            assertEquals(2, index.getBlocksScanned());
+        }
+    }
+
+    public void testShouldIgnoreLockFileLeftBehind()
+        throws Exception {
+        // A writer that died leaves its lock file, but not the lock
+        assertTrue(new File(directory, JournalIndex.LOCK_FILE).createNewFile());
+        assertTrue(new File(directory, JournalIndex.END_FILE).delete());
+        assertFalse(JournalIndex.isBeingWritten(directory));
+
+        try (JournalIndex index = JournalIndex.open(directory)) {
+            assertEquals(CALLS, index.getCallCount());
+        }
+        assertTrue(JournalIndex.isCurrent(directory));
+    }
+}
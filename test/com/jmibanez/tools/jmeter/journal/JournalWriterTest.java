@@ -0,0 +1,103 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.jmibanez.tools.jmeter.MethodCallRecord;
+import com.jmibanez.tools.jmeter.RecordedCalls;
+import com.jmibanez.tools.jmeter.TempDirectory;
+
+public class JournalWriterTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    public void setUp()
+        throws Exception {
+        directory = TempDirectory.create("journal-test");
+    }
+
+    @Override
+    public void tearDown() {
+        TempDirectory.delete(directory);
+    }
+
+    private static MethodCallRecord call(int index, String target, Object arg)
+        throws Exception {
+        MethodCallRecord r = RecordedCalls.add(index, target, arg);
+        if (index % 3 != 0) {
+            r.setClient("client " + (index % 3));
+        }
+        return r;
+    }
+
+    public void testShouldReadBackAcrossSegments()
+        throws Exception {
+        JournalWriter w = new JournalWriter(directory, 4096);
+        List<MethodCallRecord> written = new ArrayList<>();
+        for (int i = 1; i <= 500; i++) {
+            MethodCallRecord r = call(i, i == 1 ? null : "session", "argument " + (i % 10));
+            written.add(r);
+            w.append(JournalCall.fromRecord(r));
+        }
+        w.close();
+
+        assertEquals(500, w.getCallCount());
+        assertEquals(10, w.getBlobCount());
+        assertEquals(490, w.getDedupCount());
+
+        JournalReader reader = new JournalReader(directory);
+        assertTrue(reader.getSegmentCount() > 1);
+        for (MethodCallRecord r: written) {
+            JournalCall c = reader.next();
+            assertNotNull(c);
+            assertEquals(r.getIndex(), c.getIndex());
+            assertEquals(r.getTarget(), c.getTarget());
+            assertEquals("add:java.lang.Object", c.getMangledMethodName());
+            assertEquals(r.getStartTime(), c.getStartTime());
+            assertEquals(r.getDurationNanos(), c.getDurationNanos());
+            assertEquals(r.getArguments()[0], c.getArguments()[0]);
+            assertEquals(RecordingJournal.digestOf(Boolean.TRUE), c.getReturnDigest());
+            assertFalse(c.isException());
+            assertEquals(r.getRemotePathsInReturn(), c.getRemotePaths());
+            assertEquals(r.getClient(), c.getClient());
+        }
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    public void testShouldStoreLargeRecordsInOwnSegment()
+        throws Exception {
+        char[] big = new char[10000];
+        java.util.Arrays.fill(big, 'x');
+        JournalWriter w = new JournalWriter(directory, 1024);
+        w.append(JournalCall.fromRecord(call(1, null, new String(big))));
+        w.append(JournalCall.fromRecord(call(2, null, "small")));
+        w.close();
+
+        JournalReader reader = new JournalReader(directory);
+        assertEquals(new String(big), reader.next().getArguments()[0]);
+        assertEquals("small", reader.next().getArguments()[0]);
+        assertNull(reader.next());
+    }
+
+    public void testShouldNotOverwriteJournal()
+        throws Exception {
+        new JournalWriter(directory).close();
+        try {
+            new JournalWriter(directory);
+            fail("Expected IOException");
+        }
+        catch (IOException expected) {
+        }
+    }
+
+    public void testDigestShouldIgnoreRemoteIdentity() {
+        assertEquals(RecordingJournal.digestOf("abc"), RecordingJournal.digestOf("abc"));
+        assertFalse(RecordingJournal.digestOf("abc") == RecordingJournal.digestOf("abd"));
+    }
+}
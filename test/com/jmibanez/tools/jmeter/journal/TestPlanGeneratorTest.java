@@ -0,0 +1,113 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.jmibanez.tools.jmeter.MethodCallRecord;
+import com.jmibanez.tools.jmeter.RMISampler;
+import com.jmibanez.tools.jmeter.RecordedThinkTimer;
+import com.jmibanez.tools.jmeter.TempDirectory;
+
+public class TestPlanGeneratorTest extends TestCase {
+
+    private static final int CALLS = 300;
+
+    private File directory;
+
+    @Override
+    public void setUp()
+        throws Exception {
+        directory = TempDirectory.create("plan-test");
+        JournalWriter w = new JournalWriter(directory, 4096);
+        for (int i = 1; i <= CALLS; i++) {
+            MethodCallRecord r = new MethodCallRecord(i, i == 1 ? null : "list",
+                                                      List.class.getMethod("add", int.class, Object.class),
+                                                      new Object[] { i, "item <" + i + ">" });
+            r.returned(null);
+            if (i == 1) {
+                r.setRemoteReturned(true);
+                r.setRemotePathsInReturn(Collections.singletonMap("list", ".items"));
+            }
+            w.append(JournalCall.fromRecord(r));
+            // Leave a gap after each call for think time
+            Thread.sleep(i < 3 ? 20 : 0);
+        }
+        w.close();
+    }
+
+    @Override
+    public void tearDown() {
+        TempDirectory.delete(directory);
+    }
+
+    private Document generate(TestPlanGenerator generator)
+        throws Exception {
+        StringWriter out = new StringWriter();
+        assertEquals(CALLS, generator.generate(directory, out));
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new ByteArrayInputStream(out.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String prop(Element e, String name) {
+        NodeList props = e.getChildNodes();
+        for (int i = 0; i < props.getLength(); i++) {
+            if (props.item(i) instanceof Element
+                && name.equals(((Element) props.item(i)).getAttribute("name"))) {
+                return props.item(i).getTextContent();
+            }
+        }
+        return null;
+    }
+
+    public void testShouldWriteSamplersInCallOrder()
+        throws Exception {
+        TestPlanGenerator generator = new TestPlanGenerator(4);
+        generator.setTargetRmiName("rmi://server:1099/list");
+        Document plan = generate(generator);
+
+        assertEquals(0, generator.getArgumentFailures());
+        Element config = (Element) plan.getElementsByTagName("com.jmibanez.tools.jmeter.RMIRemoteObjectConfig").item(0);
+        assertEquals("rmi://server:1099/list", prop(config, "RmiRemoteObjectConfig.target_rmi_name"));
+
+        NodeList samplers = plan.getElementsByTagName(RMISampler.class.getName());
+        assertEquals(CALLS, samplers.getLength());
+        for (int i = 0; i < CALLS; i++) {
+            Element sampler = (Element) samplers.item(i);
+            assertTrue(sampler.getAttribute("testname").startsWith(i == 0 ? "[] 1 - add:" : "[list] " + (i + 1) + " - add:"));
+            assertEquals("add:int,java.lang.Object", prop(sampler, RMISampler.METHOD_NAME));
+            assertTrue(prop(sampler, RMISampler.ARG_SCRIPT).contains("item <" + (i + 1) + ">"));
+        }
+        assertEquals("", prop((Element) samplers.item(0), RMISampler.TARGET_NAME));
+        assertEquals("list", prop((Element) samplers.item(1), RMISampler.TARGET_NAME));
+
+        NodeList postProcessors = plan.getElementsByTagName("BeanShellPostProcessor");
+        assertEquals(1, postProcessors.getLength());
+        assertTrue(prop((Element) postProcessors.item(0), "script")
+                   .contains("reg.registerRmiInstance(\"list\", ret.items);"));
+
+        assertEquals(0, plan.getElementsByTagName(RecordedThinkTimer.class.getName()).getLength());
+    }
+
+    public void testShouldAddRecordedThinkTime()
+        throws Exception {
+        TestPlanGenerator generator = new TestPlanGenerator(2);
+        generator.setThinkTimersAdded(true);
+        Document plan = generate(generator);
+
+        NodeList timers = plan.getElementsByTagName(RecordedThinkTimer.class.getName());
+        assertTrue(timers.getLength() >= 2);
+        long thinkTime = Long.parseLong(prop((Element) timers.item(0), RecordedThinkTimer.THINK_TIME));
+        assertTrue(thinkTime >= 15);
+    }
+}
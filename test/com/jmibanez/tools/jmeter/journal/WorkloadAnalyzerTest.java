@@ -0,0 +1,111 @@
+package com.jmibanez.tools.jmeter.journal;
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+public class WorkloadAnalyzerTest extends TestCase {
+
+    private static final long T0 = 1500000000000L;
+
+    private static JournalCall call(int index, long offsetMillis, long durationMillis,
+                                    String method, boolean thrown) {
+        return new JournalCall(index, T0 + offsetMillis, durationMillis * 1000000L, null, method,
+                               null, thrown ? RecordingJournal.FLAG_EXCEPTION : 0, 0, null,
+                               null);
+    }
+
+    public void testShouldModelRatesAndMix() {
+        WorkloadAnalyzer a = new WorkloadAnalyzer(1000, 100);
+        int index = 0;
+        // 3 seconds: 4 query calls and 1 login a second, then 2 idle
+        // seconds and a last query
+        for (int s = 0; s < 3; s++) {
+            a.add(call(index++, s * 1000, 5, "login:", s == 2));
+            for (int i = 0; i < 4; i++) {
+                a.add(call(index++, s * 1000 + 100 + i * 200, 10, "query:int", false));
+            }
+        }
+        a.add(call(index++, 5500, 10, "query:int", false));
+
+        assertEquals(16, a.getCallCount());
+        assertEquals(6, a.getBucketCount());
+        assertEquals(2, a.getMethods().size());
+        assertEquals("query:int", a.getMethods().get(0));
+        assertEquals(13.0 / 16, a.getMix("query:int"), 1e-9);
+        assertEquals(1, a.getErrorCount("login:"));
+
+        double[] query = a.getRates("query:int");
+        assertEquals(4.0, query[0], 1e-9);
+        assertEquals(0.0, query[3], 1e-9);
+        assertEquals(1.0, query[5], 1e-9);
+        assertEquals(5.0, a.getRates(null)[1], 1e-9);
+
+        long p50 = a.getLatencyPercentile("query:int", 50);
+        assertTrue(p50 >= 9500000L && p50 <= 10500000L);
+    }
+
+    public void testShouldCoarsenBucketsToStayBounded() {
+        WorkloadAnalyzer a = new WorkloadAnalyzer(1000, 4);
+        for (int s = 0; s < 10; s++) {
+            a.add(call(s, s * 1000, 1, "ping:", false));
+        }
+        assertEquals(4000, a.getBucketMillis());
+        assertEquals(3, a.getBucketCount());
+        double[] rates = a.getRates("ping:");
+        assertEquals(1.0, rates[0], 1e-9);
+        assertEquals(0.5, rates[2], 1e-9);
+    }
+
+    public void testShouldCountCallsInFlight() {
+        WorkloadAnalyzer a = new WorkloadAnalyzer();
+        a.add(call(0, 0, 100, "slow:", false));
+        a.add(call(1, 10, 100, "slow:", false));
+        a.add(call(2, 20, 5, "fast:", false));
+        a.add(call(3, 500, 5, "fast:", false));
+
+        long[] distribution = a.getConcurrencyDistribution();
+        assertEquals(4, distribution.length);
+        // The first and last calls ran alone
+        assertEquals(2, distribution[1]);
+        assertEquals(1, distribution[2]);
+        assertEquals(1, distribution[3]);
+    }
+
+    public void testShouldCountCallsInStartOrder() {
+        // As journaled: in the order calls completed, so one long
+        // call comes after the 100 short ones it overlapped
+        WorkloadAnalyzer a = new WorkloadAnalyzer(1000, 100, 5000);
+        for (int i = 0; i < 100; i++) {
+            a.add(call(i + 1, 5 + i * 9, 1, "fast:", false));
+        }
+        a.add(call(0, 0, 2000, "slow:", false));
+        a.add(call(101, 9000, 1, "fast:", false));
+
+        assertEquals(T0, a.getStartTime());
+        long[] distribution = a.getConcurrencyDistribution();
+        assertEquals(3, distribution.length);
+        assertEquals(2, distribution[1]);
+        assertEquals(100, distribution[2]);
+        assertEquals(100.0, a.getRates("fast:")[0], 1e-9);
+    }
+
+    public void testShouldWriteScheduleAndSummary()
+        throws Exception {
+        WorkloadAnalyzer a = new WorkloadAnalyzer(500, 100);
+        a.add(call(0, 0, 1, "find:java.lang.String,int", false));
+        a.add(call(1, 600, 1, "ping:", false));
+
+        StringWriter schedule = new StringWriter();
+        a.writeSchedule(schedule);
+        String[] rows = schedule.toString().split("\n");
+        assertEquals(3, rows.length);
+        assertEquals("offset_ms,duration_ms,total,\"find:java.lang.String,int\",\"ping:\"", rows[0]);
+        assertEquals("0,500,2.000,2.000,0.000", rows[1]);
+        assertEquals("500,500,2.000,0.000,2.000", rows[2]);
+
+        StringWriter summary = new StringWriter();
+        a.writeSummary(summary);
+        assertTrue(summary.toString().contains("2 calls over 1000 ms"));
+    }
+}
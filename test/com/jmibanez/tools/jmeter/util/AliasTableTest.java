@@ -0,0 +1,45 @@
+package com.jmibanez.tools.jmeter.util;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class AliasTableTest extends TestCase {
+
+    private static int[] pick(AliasTable table, int times) {
+        Random random = new Random(42);
+        int[] counts = new int[table.size()];
+        for (int i = 0; i < times; i++) {
+            counts[table.next(random)]++;
+        }
+        return counts;
+    }
+
+    public void testShouldPickInProportionToWeight() {
+        int[] counts = pick(new AliasTable(new double[] { 1, 0, 3, 6 }), 100000);
+        assertEquals(0, counts[1]);
+        assertEquals(10000, counts[0], 600);
+        assertEquals(30000, counts[2], 900);
+        assertEquals(60000, counts[3], 900);
+    }
+
+    public void testShouldPickEvenlyWithoutWeights() {
+        int[] counts = pick(new AliasTable(new double[] { 0, 0 }), 10000);
+        assertEquals(5000, counts[0], 300);
+    }
+
+    public void testShouldRejectBadWeights() {
+        try {
+            new AliasTable(new double[0]);
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+        try {
+            new AliasTable(new double[] { 1, -1 });
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+}
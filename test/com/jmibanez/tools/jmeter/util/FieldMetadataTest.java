@@ -0,0 +1,67 @@
+package com.jmibanez.tools.jmeter.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class FieldMetadataTest extends TestCase {
+
+    public void testShouldSkipStaticFinalAndTransientFields() {
+        List<String> names = new ArrayList<>();
+        for (FieldMetadata.Accessor f: FieldMetadata.forClass(ChildBean.class).getFields()) {
+            names.add(f.getName());
+        }
+
+        assertEquals(3, names.size());
+        assertTrue(names.contains("childName"));
+        assertTrue(names.contains("name"));
+        assertTrue(names.contains("age"));
+    }
+
+    public void testShouldCacheMetadataPerClass() {
+        assertSame(FieldMetadata.forClass(ChildBean.class),
+                   FieldMetadata.forClass(ChildBean.class));
+        assertNotSame(FieldMetadata.forClass(ChildBean.class),
+                      FieldMetadata.forClass(ParentBean.class));
+    }
+
+    public void testShouldGetAndSetPrivateFields() {
+        ChildBean bean = new ChildBean();
+        for (FieldMetadata.Accessor f: FieldMetadata.forClass(ChildBean.class).getFields()) {
+            if ("name".equals(f.getName())) {
+                f.set(bean, "changed");
+                assertEquals("changed", f.get(bean));
+            }
+            else if ("age".equals(f.getName())) {
+                f.set(bean, 42);
+                assertEquals(42, f.get(bean));
+            }
+        }
+
+        assertEquals("changed", bean.getName());
+        assertEquals(42, bean.getAge());
+    }
+
+
+    public static class ParentBean {
+        private static String shared = "shared";
+
+        private final String constant = "constant";
+        private transient String cached;
+        private String name;
+        private int age;
+
+        public String getName() {
+            return name;
+        }
+
+        public int getAge() {
+            return age;
+        }
+    }
+
+    public static class ChildBean extends ParentBean {
+        private String childName;
+    }
+}
@@ -0,0 +1,45 @@
+package com.jmibanez.tools.jmeter.util;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+    public void testShouldBeEmptyWithoutValues() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getPercentile(99));
+    }
+
+    public void testShouldKeepSmallValuesExactly() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 20; i++) {
+            h.record(i);
+        }
+        assertEquals(10, h.getPercentile(50));
+        assertEquals(20, h.getPercentile(100));
+        assertEquals(1, h.getMin());
+    }
+
+    public void testShouldApproximateLargeValues() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long i = 1; i <= 100000; i++) {
+            h.record(i * 1000);
+        }
+        assertEquals(100000, h.getCount());
+        assertWithin(50000000L, h.getPercentile(50));
+        assertWithin(99000000L, h.getPercentile(99));
+        assertEquals(100000000L, h.getPercentile(100));
+    }
+
+    public void testShouldMapEveryBucketConsistently() {
+        for (long v: new long[] { 0, 31, 32, 63, 64, 65, 1000, 1L << 40, Long.MAX_VALUE }) {
+            assertTrue(v <= LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(v))
+                       || LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(v)) < 0);
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " not near " + expected,
+                   Math.abs(actual - expected) <= expected * 0.04);
+    }
+}
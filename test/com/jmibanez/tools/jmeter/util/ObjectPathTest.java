@@ -0,0 +1,69 @@
+package com.jmibanez.tools.jmeter.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class ObjectPathTest extends TestCase {
+
+    enum Color { RED, GREEN }
+
+    static class Holder {
+        private List<Object> sessions;
+        private Map<Object, Object> byKey;
+    }
+
+    public void testShouldResolveEmptyPathToRoot() {
+        Object root = new Object();
+        assertSame(root, ObjectPath.resolve(root, ""));
+    }
+
+    public void testShouldFollowFieldsListsAndArrays() {
+        Holder h = new Holder();
+        h.sessions = Arrays.<Object>asList("a", new String[] { "b", "c" });
+        assertEquals("c", ObjectPath.resolve(h, ".sessions.get(1)[1]"));
+        assertEquals("a", ObjectPath.resolve(Collections.singleton("a"), ".toArray()[0]"));
+    }
+
+    public void testShouldFollowMaps() {
+        Holder h = new Holder();
+        h.byKey = new LinkedHashMap<>();
+        h.byKey.put("quo\"ted", "x");
+        h.byKey.put(42, "y");
+        assertEquals("x", ObjectPath.resolve(h.byKey, ".get(\"quo\\\"ted\")"));
+        assertEquals("y", ObjectPath.resolve(h, ".byKey.entrySet().toArray()[1].getValue()"));
+        assertEquals(42, ObjectPath.resolve(h.byKey, ".keySet().toArray()[1]"));
+    }
+
+    public void testShouldFollowMapsByLiteralKey() {
+        Map<Object, Object> m = new HashMap<>();
+        m.put(42, "int");
+        m.put(42L, "long");
+        m.put(true, "boolean");
+        m.put(Color.GREEN, "enum");
+        assertEquals("int", ObjectPath.resolve(m, ".get(42)"));
+        assertEquals("long", ObjectPath.resolve(m, ".get(42L)"));
+        assertEquals("boolean", ObjectPath.resolve(m, ".get(true)"));
+        assertEquals("enum", ObjectPath.resolve(m, ".get(" + Color.class.getCanonicalName() + ".GREEN)"));
+    }
+
+    public void testShouldRejectBadPaths() {
+        try {
+            ObjectPath.resolve(new Holder(), ".nothing");
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+        try {
+            ObjectPath.resolve(new Holder(), ".sessions.get(0)");
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.jmibanez.tools.jmeter.util;
+
+import junit.framework.TestCase;
+
+public class RecordingFilterTest extends TestCase {
+
+    private static int recordedOf(RecordingFilter.MethodFilter f, int calls) {
+        int recorded = 0;
+        for (int i = 0; i < calls; i++) {
+            if (f.shouldRecord()) {
+                recorded++;
+            }
+        }
+        return recorded;
+    }
+
+    public void testShouldRecordAllByDefault() {
+        assertTrue(RecordingFilter.RECORD_ALL.isRecordingAll());
+        assertEquals(3, recordedOf(RecordingFilter.RECORD_ALL.forMethod(null, "ping:"), 3));
+    }
+
+    public void testShouldMatchGlobsAndRegexes() {
+        assertTrue(RecordingFilter.compile("ping:*").matcher("ping:int").matches());
+        assertTrue(RecordingFilter.compile("get?:").matcher("getX:").matches());
+        assertFalse(RecordingFilter.compile("get?:").matcher("getXY:").matches());
+        assertFalse(RecordingFilter.compile("ping").matcher("ping:").matches());
+        // Regex metacharacters in globs are literal
+        assertFalse(RecordingFilter.compile("a.b:").matcher("axb:").matches());
+        assertTrue(RecordingFilter.compile("regex:(ping|heartbeat):.*")
+                   .matcher("heartbeat:long").matches());
+    }
+
+    public void testShouldApplyIncludesThenExcludes() {
+        RecordingFilter f = new RecordingFilter("*Session*#*\n#login:*",
+                                                "// no heartbeats\nheartbeat:*", "");
+        assertFalse(f.isRecordingAll());
+        assertEquals(1, recordedOf(f.forMethod(null, "login:java.lang.String"), 1));
+        assertEquals(0, recordedOf(f.forMethod(null, "logout:"), 1));
+        assertEquals(1, recordedOf(f.forMethod("1 openSession -> (return)", "query:"), 1));
+        assertEquals(0, recordedOf(f.forMethod("1 openSession -> (return)", "heartbeat:"), 1));
+    }
+
+    public void testShouldSampleByMethod() {
+        RecordingFilter f = new RecordingFilter("", "", "ping:*=0.1\nnever:=0\n*=1");
+        // Counted per method, across remotes
+        assertEquals(1, recordedOf(f.forMethod("a", "ping:int"), 15));
+        assertEquals(1, recordedOf(f.forMethod("b", "ping:int"), 5));
+        assertEquals(10, recordedOf(f.forMethod("c", "ping:long"), 100));
+        assertEquals(0, recordedOf(f.forMethod(null, "never:"), 10));
+        assertEquals(10, recordedOf(f.forMethod(null, "other:"), 10));
+    }
+
+    public void testShouldKeepEscapedSeparatorsInPatterns() {
+        // A # in a method regex, escaped so it doesn't split off a target
+        RecordingFilter f = new RecordingFilter("regex:a\\#b:.*\n*Session*#regex:c\\#d:", "", "");
+        assertEquals(1, recordedOf(f.forMethod(null, "a#b:int"), 1));
+        assertEquals(0, recordedOf(f.forMethod("a", "b:int"), 1));
+        assertEquals(1, recordedOf(f.forMethod("1 openSession -> (return)", "c#d:"), 1));
+
+        // Glob with an escaped #, and a regex with = in a sampling rule
+        f = new RecordingFilter("x\\#*#*", "", "regex:(?=ping:).*=0.5\n*=1");
+        assertEquals(1, recordedOf(f.forMethod("x#1", "query:"), 1));
+        assertEquals(0, recordedOf(f.forMethod("y#1", "query:"), 1));
+        assertEquals(5, recordedOf(f.forMethod("x#1", "ping:int"), 10));
+        assertEquals(10, recordedOf(f.forMethod("x#1", "query:"), 10));
+    }
+
+    public void testShouldRejectBadRatio() {
+        try {
+            new RecordingFilter("", "", "ping:");
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+        try {
+            new RecordingFilter("", "", "ping:=often");
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+}
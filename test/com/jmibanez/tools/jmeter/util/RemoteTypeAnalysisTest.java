@@ -0,0 +1,68 @@
+package com.jmibanez.tools.jmeter.util;
+
+import java.rmi.Remote;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class RemoteTypeAnalysisTest extends TestCase {
+
+    public void testShouldRejectPureDataTypes() {
+        assertFalse(RemoteTypeAnalysis.mayContainRemote(String.class));
+        assertFalse(RemoteTypeAnalysis.mayContainRemote(Integer.class));
+        assertFalse(RemoteTypeAnalysis.mayContainRemote(int[].class));
+        assertFalse(RemoteTypeAnalysis.mayContainRemote(String[].class));
+        assertFalse(RemoteTypeAnalysis.mayContainRemote(DataBean.class));
+        assertFalse(RemoteTypeAnalysis.mayContainRemote(DataBean[].class));
+    }
+
+    public void testShouldTreatOpenTypesConservatively() {
+        assertTrue(RemoteTypeAnalysis.mayContainRemote(Object[].class));
+        assertTrue(RemoteTypeAnalysis.mayContainRemote(java.util.ArrayList.class));
+        assertTrue(RemoteTypeAnalysis.mayContainRemote(ListHolder.class));
+        assertTrue(RemoteTypeAnalysis.mayContainRemote(RemoteHolder.class));
+    }
+
+    public void testShouldHandleSelfReferencingTypes() {
+        assertFalse(RemoteTypeAnalysis.mayContainRemote(DataNode.class));
+        assertTrue(RemoteTypeAnalysis.mayContainRemote(RemoteNode.class));
+    }
+
+    public void testShouldOnlyWalkCandidateFields() {
+        List<FieldMetadata.Accessor> candidates =
+            RemoteTypeAnalysis.forClass(MixedBean.class).getCandidateFields();
+        assertEquals(1, candidates.size());
+        assertEquals("remote", candidates.get(0).getName());
+    }
+
+
+    public static final class DataBean {
+        private String name;
+        private int age;
+        private long[] values;
+    }
+
+    public static final class DataNode {
+        private DataNode next;
+        private String value;
+    }
+
+    public static final class RemoteNode {
+        private RemoteNode next;
+        private Remote remote;
+    }
+
+    public static final class ListHolder {
+        private List<String> items;
+    }
+
+    public static final class RemoteHolder {
+        private Remote remote;
+    }
+
+    public static final class MixedBean {
+        private DataBean data;
+        private String name;
+        private Remote remote;
+    }
+}